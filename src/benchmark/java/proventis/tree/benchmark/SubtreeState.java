@@ -0,0 +1,46 @@
+/**
+ * 
+ */
+package proventis.tree.benchmark;
+
+import neo4j.tree.domain.Neo4jNode;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Subtree below a random node of the benchmark tree, created before every invocation that deletes
+ * it
+ * 
+ * @author Markus Lamm
+ */
+@State(Scope.Thread)
+public class SubtreeState
+{
+    private static final int SUBTREE_SIZE = 10;
+
+    private TreeState tree;
+
+    private String subtreeUuid;
+
+    @Setup(Level.Invocation)
+    public void setUp(final TreeState tree) {
+        this.tree = tree;
+        final Neo4jNode subtree = new Neo4jNode("subtree");
+        tree.getService().addNode(subtree, tree.getRandomUuid());
+        for (int i = 1; i < SUBTREE_SIZE; i++) {
+            tree.getService().addNode(new Neo4jNode("subtree_" + i), subtree.getUuid());
+        }
+        subtreeUuid = subtree.getUuid();
+    }
+
+    public TreeState getTree() {
+        return tree;
+    }
+
+    public String getSubtreeUuid() {
+        return subtreeUuid;
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * 
+ */
+package proventis.tree.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.domain.NodeProjection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+/**
+ * Benchmarks of the TreeNodeRepository queries, each one in its own transaction
+ * 
+ * @author Markus Lamm
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class TreeNodeRepositoryBenchmark
+{
+    private static final int WINDOW_DEPTH = 3;
+    private static final int WINDOW_SIZE = 100;
+
+    @Benchmark
+    public Neo4jNode findByUuid(final TreeState tree) {
+        final String uuid = tree.getRandomUuid();
+        return tree.getTransactionTemplate().execute(new TransactionCallback<Neo4jNode>() {
+            @Override
+            public Neo4jNode doInTransaction(final TransactionStatus status) {
+                return tree.getRepository().findByUuid(uuid);
+            }
+        });
+    }
+
+    @Benchmark
+    public void findPreorderedWindow(final TreeState tree, final Blackhole blackhole) {
+        final String uuid = tree.getRandomUuid();
+        consume(tree, blackhole, new Query() {
+            @Override
+            public Iterable<NodeProjection> run() {
+                return tree.getRepository().findPreordered(uuid, WINDOW_DEPTH, 0, WINDOW_SIZE);
+            }
+        });
+    }
+
+    @Benchmark
+    public void findDescendants(final TreeState tree, final Blackhole blackhole) {
+        final String uuid = tree.getRandomUuid();
+        consume(tree, blackhole, new Query() {
+            @Override
+            public Iterable<NodeProjection> run() {
+                return tree.getRepository().findDescendants(uuid);
+            }
+        });
+    }
+
+    @Benchmark
+    public void findAncestors(final TreeState tree, final Blackhole blackhole) {
+        final String uuid = tree.getRandomUuid();
+        consume(tree, blackhole, new Query() {
+            @Override
+            public Iterable<NodeProjection> run() {
+                return tree.getRepository().findAncestors(uuid);
+            }
+        });
+    }
+
+    @Benchmark
+    public long countNodes(final TreeState tree) {
+        return tree.getTransactionTemplate().execute(new TransactionCallback<Long>() {
+            @Override
+            public Long doInTransaction(final TransactionStatus status) {
+                return tree.getRepository().countNodes();
+            }
+        });
+    }
+
+    /**
+     * Lazy repository query
+     */
+    private interface Query
+    {
+        Iterable<NodeProjection> run();
+    }
+
+    /**
+     * Helper method. Iterates the lazy result within the transaction.
+     */
+    private static void consume(final TreeState tree, final Blackhole blackhole, final Query query) {
+        tree.getTransactionTemplate().execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                for (final NodeProjection node : query.run()) {
+                    blackhole.consume(node);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * 
+ */
+package proventis.tree.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.domain.NodePage;
+import neo4j.tree.domain.TreeSummary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the TreeService operations
+ * 
+ * @author Markus Lamm
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class TreeServiceBenchmark
+{
+    private static final int WINDOW_DEPTH = 3;
+    private static final int WINDOW_SIZE = 100;
+
+    @Benchmark
+    public Neo4jNode findByUuid(final TreeState tree) {
+        return tree.getService().findByUuid(tree.getRandomUuid());
+    }
+
+    @Benchmark
+    public NodePage getPreorderedRootWindow(final TreeState tree) {
+        return tree.getService().getPreordered(tree.getRootUuid(), WINDOW_DEPTH, 0, WINDOW_SIZE);
+    }
+
+    @Benchmark
+    public NodePage getPreorderedWindow(final TreeState tree) {
+        return tree.getService().getPreordered(tree.getRandomUuid(), WINDOW_DEPTH, 0, WINDOW_SIZE);
+    }
+
+    @Benchmark
+    public TreeSummary getTreeSummary(final TreeState tree) {
+        return tree.getService().getTreeSummary(tree.getRootUuid());
+    }
+
+    @Benchmark
+    public Neo4jNode addNode(final TreeState tree) {
+        return tree.getService().addNode(new Neo4jNode("added"), tree.getRandomUuid());
+    }
+
+    @Benchmark
+    public long deleteNode(final SubtreeState subtree) {
+        return subtree.getTree().getService().deleteNode(subtree.getSubtreeUuid());
+    }
+}
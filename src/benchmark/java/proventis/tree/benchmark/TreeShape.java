@@ -0,0 +1,68 @@
+/**
+ * 
+ */
+package proventis.tree.benchmark;
+
+import java.util.Random;
+
+/**
+ * Shapes of the benchmark trees. Nodes are numbered in creation order, node 0 is the root, every
+ * shape chooses the parent of a node among the nodes created before.
+ * 
+ * @author Markus Lamm
+ */
+public enum TreeShape
+{
+    /**
+     * Chains of CHAIN_LENGTH levels below the root. A single chain of the full size is not used,
+     * the materialized path of a node grows with its depth.
+     */
+    CHAIN {
+        @Override
+        int getParent(final int node, final Random random) {
+            return ((node - 1) % CHAIN_LENGTH == 0) ? 0 : node - 1;
+        }
+    },
+
+    /**
+     * All nodes are children of the root
+     */
+    WIDE {
+        @Override
+        int getParent(final int node, final Random random) {
+            return 0;
+        }
+    },
+
+    /**
+     * Complete tree with FAN_OUT children per node
+     */
+    BALANCED {
+        @Override
+        int getParent(final int node, final Random random) {
+            return (node - 1) / FAN_OUT;
+        }
+    },
+
+    /**
+     * Random recursive tree, the parent is chosen uniformly among the existing nodes
+     */
+    RANDOM {
+        @Override
+        int getParent(final int node, final Random random) {
+            return random.nextInt(node);
+        }
+    };
+
+    static final int CHAIN_LENGTH = 1000;
+    static final int FAN_OUT = 10;
+
+    /**
+     * Chooses the parent of a node
+     * 
+     * @param node number of the node, greater than 0
+     * @param random seeded random source
+     * @return number of the parent node
+     */
+    abstract int getParent(int node, Random random);
+}
@@ -0,0 +1,121 @@
+/**
+ * 
+ */
+package proventis.tree.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import neo4j.tree.config.ApplicationConfig;
+import neo4j.tree.domain.NodeProjection;
+import neo4j.tree.repository.TreeNodeRepository;
+import neo4j.tree.service.TreeService;
+import neo4j.tree.service.impl.TreeStructureCache;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import proventis.tree.config.Neo4jTestConfig;
+
+/**
+ * Application context on an impermanent database with a tree of the configured shape and size.
+ * Built once per trial.
+ * 
+ * @author Markus Lamm
+ */
+@State(Scope.Benchmark)
+public class TreeState
+{
+    private static final int BATCH_SIZE = 10000;
+    private static final long SEED = 42L;
+
+    @Param({ "BALANCED", "WIDE", "CHAIN", "RANDOM" })
+    public TreeShape shape;
+
+    @Param({ "1000", "10000", "100000" })
+    public int size;
+
+    @Param({ "true", "false" })
+    public boolean cache;
+
+    private AnnotationConfigApplicationContext context;
+
+    private String[] uuids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // system properties override tree.properties of the test classpath
+        System.setProperty("tree.cache.enabled", String.valueOf(cache));
+        System.setProperty("tree.cache.maxNodes", String.valueOf(Integer.MAX_VALUE));
+        System.setProperty("tree.delete.batchSize", "1000");
+        context = new AnnotationConfigApplicationContext(ApplicationConfig.class, Neo4jTestConfig.class);
+        buildTree();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    public TreeService getService() {
+        return context.getBean(TreeService.class);
+    }
+
+    public TreeNodeRepository getRepository() {
+        return context.getBean(TreeNodeRepository.class);
+    }
+
+    public TransactionTemplate getTransactionTemplate() {
+        return new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+    }
+
+    public String getRootUuid() {
+        return uuids[0];
+    }
+
+    /**
+     * Uuid of a random node of the initial tree
+     * 
+     * @return node identifier
+     */
+    public String getRandomUuid() {
+        return uuids[ThreadLocalRandom.current().nextInt(uuids.length)];
+    }
+
+    /**
+     * Helper method. Creates the nodes in batched transactions, without the mapping layer, the
+     * aggregates are applied per batch.
+     */
+    private void buildTree() {
+        final TreeNodeRepository repository = getRepository();
+        final Random random = new Random(SEED);
+        final NodeProjection[] nodes = new NodeProjection[size];
+        for (int batchStart = 0; batchStart < size; batchStart += BATCH_SIZE) {
+            final int start = batchStart;
+            getTransactionTemplate().execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                    for (int node = start; node < Math.min(start + BATCH_SIZE, size); node++) {
+                        final NodeProjection parent = (node == 0) ? null : nodes[shape.getParent(node, random)];
+                        nodes[node] = repository.createNode("node_" + node, parent);
+                    }
+                    repository.applyAllPendingAggregates(null);
+                }
+            });
+        }
+        uuids = new String[size];
+        for (int node = 0; node < size; node++) {
+            uuids[node] = nodes[node].getUuid();
+        }
+        context.getBean(TreeStructureCache.class).invalidate();
+    }
+}
@@ -7,7 +7,10 @@ import org.springframework.context.MessageSource;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
 import org.springframework.context.support.ReloadableResourceBundleMessageSource;
 import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
 
@@ -17,10 +20,22 @@ import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
  * @author Markus Lamm
  */
 @Configuration
-@ComponentScan({ "neo4j.tree.event", "neo4j.tree.service" })
+@ComponentScan({ "neo4j.tree.event", "neo4j.tree.service", "neo4j.tree.metrics" })
 @Import(Neo4jConfig.class)
+@EnableAspectJAutoProxy
+@PropertySource("classpath:tree.properties")
 public class ApplicationConfig
 {
+    /**
+     * Resolves ${...} placeholders against tree.properties
+     * 
+     * @return placeholder configurer
+     */
+    @Bean
+    public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+        return new PropertySourcesPlaceholderConfigurer();
+    }
+
     /**
      * JSR-303 validation
 
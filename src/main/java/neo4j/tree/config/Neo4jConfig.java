@@ -4,7 +4,9 @@
 package neo4j.tree.config;
 
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.factory.GraphDatabaseBuilder;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
@@ -35,6 +37,12 @@ public class Neo4jConfig extends Neo4jConfiguration
     private static final String GRAPH_ENTITY_BASEPACKAGE = "neo4j.tree.domain";
     private static final String EMBEDDED_GRAPH_PATH = "target/graphdb";
 
+    /**
+     * Node properties that are kept in the node auto index, used for lookups that the schema
+     * indexes do not support, i.e. prefix queries
+     */
+    private static final String AUTO_INDEXED_PROPERTIES = "path";
+
     public Neo4jConfig() {
         setBasePackage(GRAPH_ENTITY_BASEPACKAGE);
     }
@@ -46,8 +54,8 @@ public class Neo4jConfig extends Neo4jConfiguration
      */
     @Bean(name = "graphDatabaseService", destroyMethod = "shutdown")
     public GraphDatabaseService graphDatabaseService() {
-        final GraphDatabaseService service = new
-                GraphDatabaseFactory().newEmbeddedDatabase(EMBEDDED_GRAPH_PATH);
+        final GraphDatabaseService service = configureAutoIndex(
+                new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(EMBEDDED_GRAPH_PATH)).newGraphDatabase();
         LOG.debug("Embedded test graphdatabase created: [{}]", service.toString());
         return service;
         // final GraphDatabaseService service = new
@@ -55,4 +63,15 @@ public class Neo4jConfig extends Neo4jConfiguration
         // LOG.debug("Rest stage graphdatabase created: [{}]", service.toString());
         // return service;
     }
+
+    /**
+     * Enables the node auto index for the properties the repositories query it for
+     * 
+     * @param builder database builder
+     * @return the configured builder
+     */
+    public static GraphDatabaseBuilder configureAutoIndex(final GraphDatabaseBuilder builder) {
+        return builder.setConfig(GraphDatabaseSettings.node_auto_indexing, Boolean.TRUE.toString()).setConfig(
+                GraphDatabaseSettings.node_keys_indexable, AUTO_INDEXED_PROPERTIES);
+    }
 }
@@ -3,9 +3,16 @@
  */
 package neo4j.tree.config;
 
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.context.request.async.TimeoutDeferredResultProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
@@ -23,6 +30,70 @@ import org.thymeleaf.templateresolver.ServletContextTemplateResolver;
 @ComponentScan(basePackages = { "neo4j.tree.web" })
 public class WebConfig extends WebMvcConfigurerAdapter
 {
+    @Value("${tree.web.read.poolSize:8}")
+    private int readPoolSize;
+
+    @Value("${tree.web.read.queueCapacity:50}")
+    private int readQueueCapacity;
+
+    @Value("${tree.web.read.callerRuns:false}")
+    private boolean readCallerRuns;
+
+    @Value("${tree.web.write.poolSize:2}")
+    private int writePoolSize;
+
+    @Value("${tree.web.write.queueCapacity:10}")
+    private int writeQueueCapacity;
+
+    @Value("${tree.web.write.callerRuns:false}")
+    private boolean writeCallerRuns;
+
+    @Value("${tree.web.asyncTimeout:60000}")
+    private long asyncTimeout;
+
+    /**
+     * Resolves ${...} placeholders of the servlet context against the properties of the root
+     * context
+     * 
+     * @return placeholder configurer
+     */
+    @Bean
+    public static PropertySourcesPlaceholderConfigurer webPropertySourcesPlaceholderConfigurer() {
+        return new PropertySourcesPlaceholderConfigurer();
+    }
+
+    /**
+     * Executor for asynchronously processed heavy read requests
+     * 
+     * @return bounded executor
+     */
+    @Bean
+    public ThreadPoolTaskExecutor readExecutor() {
+        return createExecutor("tree-read-", readPoolSize, readQueueCapacity, readCallerRuns);
+    }
+
+    /**
+     * Executor for asynchronously processed heavy write requests, separate from the reads, so large
+     * deletes and moves cannot starve them
+     * 
+     * @return bounded executor
+     */
+    @Bean
+    public ThreadPoolTaskExecutor writeExecutor() {
+        return createExecutor("tree-write-", writePoolSize, writeQueueCapacity, writeCallerRuns);
+    }
+
+    /**
+     * Asynchronous requests that time out are answered with 503
+     * 
+     * @see org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter#configureAsyncSupport(org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer)
+     */
+    @Override
+    public void configureAsyncSupport(final AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(asyncTimeout);
+        configurer.registerDeferredResultInterceptors(new TimeoutDeferredResultProcessingInterceptor());
+    }
+
     @Bean
     public ServletContextTemplateResolver templateResolver() {
         ServletContextTemplateResolver templateResolver = new ServletContextTemplateResolver();
@@ -50,4 +121,27 @@ public class WebConfig extends WebMvcConfigurerAdapter
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         registry.addResourceHandler("/resources/**").addResourceLocations("/resources/");
     }
+
+    /**
+     * Helper method. Creates a fixed size executor with a bounded queue. Tasks submitted to a full
+     * queue are rejected, or run on the submitting servlet thread if callerRuns is set.
+     * 
+     * @param threadNamePrefix prefix of the worker thread names
+     * @param poolSize number of worker threads
+     * @param queueCapacity maximum number of waiting tasks
+     * @param callerRuns whether rejected tasks run on the submitting thread
+     * @return executor
+     */
+    private static ThreadPoolTaskExecutor createExecutor(final String threadNamePrefix, final int poolSize, final int queueCapacity,
+            final boolean callerRuns) {
+        final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setRejectedExecutionHandler(callerRuns ? new ThreadPoolExecutor.CallerRunsPolicy()
+                : new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
 }
@@ -81,10 +81,15 @@ public abstract class AbstractGraphEntity implements PersistableEntity
         return new EqualsBuilder().append(getNodeId(), other.getNodeId()).append(getUuid(), other.getUuid()).isEquals();
     }
 
+    /**
+     * Built from the identifiers only, so entities keep their hash code when they are modified
+     * while being held in a hashed collection
+     * 
+     * @see java.lang.Object#hashCode()
+     */
     @Override
     public int hashCode() {
-        return new HashCodeBuilder().append(getNodeId()).append(getUuid()).append(getCreatedDate()).append(getLastModifiedDate())
-                .toHashCode();
+        return new HashCodeBuilder().append(getNodeId()).append(getUuid()).toHashCode();
     }
 
     @Override
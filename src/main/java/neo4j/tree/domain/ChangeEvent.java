@@ -0,0 +1,118 @@
+/**
+ * 
+ */
+package neo4j.tree.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A committed change of a tree, as written to the change log. A created event is written for every
+ * created node, a deleted event only for the top node of a deleted subtree, its descendants are
+ * deleted with it. Moved events carry the new parent.
+ * 
+ * @author Markus Lamm
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChangeEvent
+{
+    /**
+     * Kind of change
+     */
+    public enum Type
+    {
+        CREATED, RENAMED, MOVED, DELETED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final String uuid;
+    private final String parentUuid;
+    private final String name;
+    private final long treeVersion;
+    private final long time;
+
+    @JsonCreator
+    public ChangeEvent(final @JsonProperty("sequence") long sequence, final @JsonProperty("type") Type type,
+            final @JsonProperty("uuid") String uuid, final @JsonProperty("parentUuid") String parentUuid,
+            final @JsonProperty("name") String name, final @JsonProperty("treeVersion") long treeVersion,
+            final @JsonProperty("time") long time) {
+        this.sequence = sequence;
+        this.type = type;
+        this.uuid = uuid;
+        this.parentUuid = parentUuid;
+        this.name = name;
+        this.treeVersion = treeVersion;
+        this.time = time;
+    }
+
+    /**
+     * Creates an event that is not written yet
+     * 
+     * @param type kind of change
+     * @param uuid identifier of the changed node
+     * @param parentUuid identifier of the (new) parent, null if unknown or for a root
+     * @param name (new) name of the node, null if unchanged
+     * @return event without sequence number and tree version
+     */
+    public static ChangeEvent of(final Type type, final String uuid, final String parentUuid, final String name) {
+        return new ChangeEvent(0L, type, uuid, parentUuid, name, 0L, 0L);
+    }
+
+    /**
+     * Copy of this event as it is written to the log
+     * 
+     * @param sequence position in the change log
+     * @param treeVersion tree version the change is visible in
+     * @param time commit time in milliseconds
+     * @return written event
+     */
+    public ChangeEvent toWritten(final long sequence, final long treeVersion, final long time) {
+        return new ChangeEvent(sequence, type, uuid, parentUuid, name, treeVersion, time);
+    }
+
+    /**
+     * Position in the change log, starts with 1
+     * 
+     * @return sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public String getParentUuid() {
+        return parentUuid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Version of the stored trees that contains the change, at least
+     * 
+     * @return tree version
+     */
+    public long getTreeVersion() {
+        return treeVersion;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        final String format = "ChangeEvent[sequence=%d, type=%s, uuid=%s, parentUuid=%s, name=%s, treeVersion=%d]";
+        return String.format(format, getSequence(), getType(), getUuid(), getParentUuid(), getName(), getTreeVersion());
+    }
+}
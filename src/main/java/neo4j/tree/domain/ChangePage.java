@@ -0,0 +1,41 @@
+/**
+ * 
+ */
+package neo4j.tree.domain;
+
+import java.util.List;
+
+/**
+ * Change events read from the change log after a cursor, and the cursor to continue with
+ * 
+ * @author Markus Lamm
+ */
+public class ChangePage
+{
+    private final List<ChangeEvent> events;
+    private final long cursor;
+
+    public ChangePage(final List<ChangeEvent> events, final long cursor) {
+        this.events = events;
+        this.cursor = cursor;
+    }
+
+    public List<ChangeEvent> getEvents() {
+        return events;
+    }
+
+    /**
+     * Sequence number of the last event of this page, the requested cursor if the page is empty
+     * 
+     * @return cursor of the next read
+     */
+    public long getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public String toString() {
+        final String format = "ChangePage[events=%d, cursor=%d]";
+        return String.format(format, getEvents().size(), getCursor());
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * 
+ */
+package neo4j.tree.domain;
+
+import java.util.List;
+
+/**
+ * A page of the children of a node, ordered by their position among the siblings. Pages are
+ * addressed by the position of the last child of the previous page, so paging stays stable while
+ * children are added or removed in front of the page.
+ * 
+ * @author Markus Lamm
+ */
+public class ChildPage
+{
+    private final String parentUuid;
+    private final long afterPosition;
+    private final int limit;
+    private final List<NodeProjection> children;
+    private final boolean hasMore;
+
+    public ChildPage(final String parentUuid, final long afterPosition, final int limit, final List<NodeProjection> children,
+            final boolean hasMore) {
+        this.parentUuid = parentUuid;
+        this.afterPosition = afterPosition;
+        this.limit = limit;
+        this.children = children;
+        this.hasMore = hasMore;
+    }
+
+    public String getParentUuid() {
+        return parentUuid;
+    }
+
+    public long getAfterPosition() {
+        return afterPosition;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public List<NodeProjection> getChildren() {
+        return children;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    /**
+     * Position to continue with on the next page
+     * 
+     * @return position of the last child of this page, the position of this page if it is empty
+     */
+    public long getNextPosition() {
+        return children.isEmpty() ? afterPosition : children.get(children.size() - 1).getPosition();
+    }
+
+    @Override
+    public String toString() {
+        final String format = "ChildPage[parentUuid=%s, afterPosition=%d, limit=%d, size=%d, hasMore=%b]";
+        return String.format(format, getParentUuid(), getAfterPosition(), getLimit(), getChildren().size(), isHasMore());
+    }
+}
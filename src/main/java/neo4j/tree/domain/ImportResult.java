@@ -0,0 +1,60 @@
+/**
+ * 
+ */
+package neo4j.tree.domain;
+
+/**
+ * Outcome of a bulk import. Reports the imported nodes and the throughput of the run.
+ * 
+ * @author Markus Lamm
+ */
+public class ImportResult
+{
+    private final String rootUuid;
+    private final long nodeCount;
+    private final int batchCount;
+    private final long durationMillis;
+
+    public ImportResult(final String rootUuid, final long nodeCount, final int batchCount, final long durationMillis) {
+        this.rootUuid = rootUuid;
+        this.nodeCount = nodeCount;
+        this.batchCount = batchCount;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Identifier of the node the nodes were imported into, or of the imported root node
+     * 
+     * @return uuid, or null if nothing was imported into a new tree
+     */
+    public String getRootUuid() {
+        return rootUuid;
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * Throughput of the import
+     * 
+     * @return imported nodes per second
+     */
+    public double getNodesPerSecond() {
+        return nodeCount * 1000d / Math.max(1L, durationMillis);
+    }
+
+    @Override
+    public String toString() {
+        final String format = "ImportResult[rootUuid=%s, nodeCount=%d, batchCount=%d, durationMillis=%d, nodesPerSecond=%.1f]";
+        return String.format(format, getRootUuid(), getNodeCount(), getBatchCount(), getDurationMillis(), getNodesPerSecond());
+    }
+}
@@ -3,20 +3,16 @@
  */
 package neo4j.tree.domain;
 
-import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.hibernate.validator.constraints.NotEmpty;
 import org.neo4j.graphdb.Direction;
 import org.springframework.data.annotation.Transient;
 import org.springframework.data.annotation.TypeAlias;
-import org.springframework.data.neo4j.annotation.Fetch;
 import org.springframework.data.neo4j.annotation.Indexed;
 import org.springframework.data.neo4j.annotation.RelatedTo;
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 /**
@@ -27,20 +23,45 @@ import com.google.common.collect.Sets;
 @TypeAlias("TreeNode")
 public class Neo4jNode extends AbstractGraphEntity implements TreeNode<Neo4jNode>
 {
+    public static final String PATH_SEPARATOR = "/";
+
+    /**
+     * Additional label of nodes without parent, makes the root lookup a label scan instead of a
+     * check of every node
+     */
+    public static final String ROOT_LABEL = "TreeRoot";
+
     @Indexed
     @NotEmpty(message = "{TreeNode.name.NotEmpty}")
     private String name;
 
-    @Fetch
+    /**
+     * Loaded shallow (identifier only), use TreeService#findByUuid(String, int) to resolve it
+     */
     @RelatedTo(type = "IS_PARENT_OF", direction = Direction.INCOMING)
     private Neo4jNode parent;
 
-    @Fetch
+    /**
+     * Loaded shallow (identifiers only), use TreeService#findByUuid(String, int) to resolve them
+     */
     @RelatedTo(type = "IS_PARENT_OF")
     private Set<Neo4jNode> children = null;
 
     private int depth = -1;
 
+    /**
+     * Materialized path, the uuids from the root down to this node, each followed by
+     * {@link #PATH_SEPARATOR}. Maintained on save, null as long as the parent is unknown.
+     */
+    private String path;
+
+    /**
+     * Identifies the tree the node belongs to, the uuid of its root node. Indexed, so queries
+     * scoped to one tree do not touch the nodes of other trees. Maintained on save like the path.
+     */
+    @Indexed
+    private String treeId;
+
     @Transient
     private String depthString = "";
 
@@ -51,30 +72,6 @@ public class Neo4jNode extends AbstractGraphEntity implements TreeNode<Neo4jNode
         this.name = name;
     }
 
-    /**
-     * Recursively traverses the tree and adds subnodes in depth-first order.
-     * 
-     * @param node starting point of traversal
-     * @param list result container
-     */
-    private void traverse(Neo4jNode node, List<Neo4jNode> list) {
-        list.add(node);
-        for (Neo4jNode data : node.getChildren()) {
-            traverse(data, list);
-        }
-    }
-
-    /**
-     * Get subnotes in in depth-first order.
-     * 
-     * @return result container
-     */
-    public List<Neo4jNode> preOrder() {
-        List<Neo4jNode> list = Lists.newArrayList();
-        traverse(this, list);
-        return list;
-    }
-
     /**
      * For layouting purposes, actually unneccessary
      * 
@@ -179,6 +176,22 @@ public class Neo4jNode extends AbstractGraphEntity implements TreeNode<Neo4jNode
         this.depth = depth;
     }
 
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(final String path) {
+        this.path = path;
+    }
+
+    public String getTreeId() {
+        return treeId;
+    }
+
+    public void setTreeId(final String treeId) {
+        this.treeId = treeId;
+    }
+
     @Override
     public boolean equals(final Object obj) {
         if (this == obj) {
@@ -194,11 +207,18 @@ public class Neo4jNode extends AbstractGraphEntity implements TreeNode<Neo4jNode
         return new EqualsBuilder().appendSuper(super.equals(other)).append(getName(), other.getName()).isEquals();
     }
 
+    /**
+     * The name is not part of the hash code, so a node that is renamed keeps its place in hashed
+     * collections
+     * 
+     * @see neo4j.tree.domain.AbstractGraphEntity#hashCode()
+     */
     @Override
     public int hashCode() {
-        return new HashCodeBuilder().appendSuper(super.hashCode()).append(getName()).toHashCode();
+        return super.hashCode();
     }
 
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("TreeNode[");
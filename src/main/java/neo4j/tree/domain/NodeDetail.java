@@ -0,0 +1,74 @@
+/**
+ * 
+ */
+package neo4j.tree.domain;
+
+import java.util.List;
+
+/**
+ * Flat view of a node together with the name of its parent and a page of its children, ordered by
+ * their position among the siblings, all that the node edit page shows. Read in one lookup, no node entities are loaded.
+ * 
+ * @author Markus Lamm
+ */
+public class NodeDetail
+{
+    private final NodeProjection node;
+    private final String parentName;
+    private final List<NodeProjection> children;
+    private final boolean hasMoreChildren;
+
+    public NodeDetail(final NodeProjection node, final String parentName, final List<NodeProjection> children,
+            final boolean hasMoreChildren) {
+        this.node = node;
+        this.parentName = parentName;
+        this.children = children;
+        this.hasMoreChildren = hasMoreChildren;
+    }
+
+    public NodeProjection getNode() {
+        return node;
+    }
+
+    /**
+     * Name of the parent node
+     * 
+     * @return parent name, or null for the root node
+     */
+    public String getParentName() {
+        return parentName;
+    }
+
+    /**
+     * Children of the node in the order of their positions, see {@link NodeProjection#getChildCount()} of the node for the
+     * number of all children
+     * 
+     * @return flat children
+     */
+    public List<NodeProjection> getChildren() {
+        return children;
+    }
+
+    public boolean isHasMoreChildren() {
+        return hasMoreChildren;
+    }
+
+    /**
+     * Position to continue with on the next page of children
+     * 
+     * @return position of the last child, 0 if there is none
+     */
+    public long getNextChildPosition() {
+        return children.isEmpty() ? 0 : children.get(children.size() - 1).getPosition();
+    }
+
+    public boolean isRoot() {
+        return node.isRoot();
+    }
+
+    @Override
+    public String toString() {
+        final String format = "NodeDetail[node=%s, parentName=%s, children=%d, hasMoreChildren=%b]";
+        return String.format(format, getNode(), getParentName(), getChildren().size(), isHasMoreChildren());
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * 
+ */
+package neo4j.tree.domain;
+
+import java.util.List;
+
+/**
+ * A window of a preordered subtree. Positions are preorder positions relative to the start node of
+ * the traversal, nodes deeper than maxDepth are not part of the window.
+ * 
+ * @author Markus Lamm
+ */
+public class NodePage
+{
+    private final String startUuid;
+    private final int maxDepth;
+    private final int offset;
+    private final int limit;
+    private final List<NodeProjection> nodes;
+    private final boolean hasMore;
+
+    public NodePage(final String startUuid, final int maxDepth, final int offset, final int limit, final List<NodeProjection> nodes,
+            final boolean hasMore) {
+        this.startUuid = startUuid;
+        this.maxDepth = maxDepth;
+        this.offset = offset;
+        this.limit = limit;
+        this.nodes = nodes;
+        this.hasMore = hasMore;
+    }
+
+    public String getStartUuid() {
+        return startUuid;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public List<NodeProjection> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * True, if the node is displayed collapsed, i.e. it has children that are cut off by maxDepth
+     * 
+     * @param node node of this page
+     * @return whether the node can be expanded
+     */
+    public boolean isExpandable(final NodeProjection node) {
+        return node.getDepth() >= maxDepth && !node.isLeaf();
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public boolean isHasPrevious() {
+        return offset > 0;
+    }
+
+    public int getNextOffset() {
+        return offset + limit;
+    }
+
+    public int getPreviousOffset() {
+        return Math.max(0, offset - limit);
+    }
+
+    @Override
+    public String toString() {
+        final String format = "NodePage[startUuid=%s, maxDepth=%d, offset=%d, limit=%d, size=%d, hasMore=%b]";
+        return String.format(format, getStartUuid(), getMaxDepth(), getOffset(), getLimit(), getNodes().size(), isHasMore());
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * 
+ */
+package neo4j.tree.domain;
+
+import java.util.Date;
+
+/**
+ * Flat, read-only view of a tree node. Carries the basic node fields plus its position in the
+ * tree, without references to other nodes, so large result sets can be produced without building
+ * the entity graph.
+ * 
+ * @author Markus Lamm
+ */
+public class NodeProjection
+{
+    private Long nodeId;
+    private String uuid;
+    private String name;
+    private String parentUuid;
+    private String path;
+    private int depth;
+    private int childCount;
+    private long position;
+    private Date createdDate;
+    private Date lastModifiedDate;
+
+    public Long getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(final Long nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public void setUuid(final String uuid) {
+        this.uuid = uuid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Identifier of the parent node
+     * 
+     * @return parent uuid, or null for the root node
+     */
+    public String getParentUuid() {
+        return parentUuid;
+    }
+
+    public void setParentUuid(final String parentUuid) {
+        this.parentUuid = parentUuid;
+    }
+
+    /**
+     * Materialized path of the node, see {@link Neo4jNode#getPath()}
+     * 
+     * @return path, or null if not maintained for the node
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(final String path) {
+        this.path = path;
+    }
+
+    /**
+     * Identifier of the tree of the node, the root uuid at the start of its path
+     * 
+     * @return tree identifier, or null if the path is not maintained for the node
+     */
+    public String getTreeId() {
+        if (null == path) {
+            return null;
+        }
+        final int start = Neo4jNode.PATH_SEPARATOR.length();
+        return path.substring(start, path.indexOf(Neo4jNode.PATH_SEPARATOR, start));
+    }
+
+    /**
+     * Depth relative to the node a traversal started from, for path lookups the depth in the tree
+     * 
+     * @return depth, 0 for the start node or the root node
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(final int depth) {
+        this.depth = depth;
+    }
+
+    public int getChildCount() {
+        return childCount;
+    }
+
+    public void setChildCount(final int childCount) {
+        this.childCount = childCount;
+    }
+
+    /**
+     * Position among the siblings, children are ordered by it. Positions are spaced, only their
+     * order is meaningful.
+     * 
+     * @return position, 0 for a root node
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public void setPosition(final long position) {
+        this.position = position;
+    }
+
+    public Date getCreatedDate() {
+        return createdDate;
+    }
+
+    public void setCreatedDate(final Date createdDate) {
+        this.createdDate = createdDate;
+    }
+
+    public Date getLastModifiedDate() {
+        return lastModifiedDate;
+    }
+
+    public void setLastModifiedDate(final Date lastModifiedDate) {
+        this.lastModifiedDate = lastModifiedDate;
+    }
+
+    public boolean isLeaf() {
+        return childCount < 1;
+    }
+
+    public boolean isRoot() {
+        return parentUuid == null;
+    }
+
+    /**
+     * For layouting purposes, actually unneccessary
+     * 
+     * @return layout string
+     */
+    public String getDepthString() {
+        final StringBuilder result = new StringBuilder("");
+        for (int i = 0; i < getDepth() + 1; i++) {
+            result.append("*");
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        final String format = "NodeProjection[nodeId=%d, uuid=%s, name=%s, parentUuid=%s, depth=%d, childCount=%d, position=%d]";
+        return String.format(format, getNodeId(), getUuid(), getName(), getParentUuid(), getDepth(), getChildCount(),
+                getPosition());
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * 
+ */
+package neo4j.tree.domain;
+
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A node found by a name search, together with its relevance and the names of its ancestors
+ * 
+ * @author Markus Lamm
+ */
+public class SearchHit
+{
+    private static final String BREADCRUMB_SEPARATOR = " / ";
+
+    private final NodeProjection node;
+    private final float score;
+    private final List<String> breadcrumb;
+
+    public SearchHit(final NodeProjection node, final float score, final List<String> breadcrumb) {
+        this.node = node;
+        this.score = score;
+        this.breadcrumb = breadcrumb;
+    }
+
+    public NodeProjection getNode() {
+        return node;
+    }
+
+    /**
+     * Lucene score of the hit, higher is more relevant
+     * 
+     * @return the score
+     */
+    public float getScore() {
+        return score;
+    }
+
+    /**
+     * Names of the ancestors
+     * 
+     * @return names, root first, empty for a root node
+     */
+    public List<String> getBreadcrumb() {
+        return breadcrumb;
+    }
+
+    /**
+     * Ancestor names and the name of the node, separated by slashes
+     * 
+     * @return the full name path
+     */
+    public String getBreadcrumbString() {
+        final String ancestors = StringUtils.join(breadcrumb, BREADCRUMB_SEPARATOR);
+        return breadcrumb.isEmpty() ? node.getName() : ancestors + BREADCRUMB_SEPARATOR + node.getName();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SearchHit[uuid=%s, score=%f, breadcrumb=%s]", node.getUuid(), getScore(), getBreadcrumbString());
+    }
+}
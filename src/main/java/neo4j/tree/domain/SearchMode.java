@@ -0,0 +1,27 @@
+/**
+ * 
+ */
+package neo4j.tree.domain;
+
+/**
+ * How the words of a name search are matched against the words of the node names
+ * 
+ * @author Markus Lamm
+ */
+public enum SearchMode
+{
+    /**
+     * A name word starts with the search word
+     */
+    PREFIX,
+
+    /**
+     * A name word contains the search word
+     */
+    SUBSTRING,
+
+    /**
+     * A name word is similar to the search word, tolerates typos
+     */
+    FUZZY
+}
@@ -0,0 +1,63 @@
+/**
+ * 
+ */
+package neo4j.tree.domain;
+
+/**
+ * Aggregates of the subtree below a node. They are stored with the node and updated along the
+ * ancestor path whenever a subtree is added, moved or deleted, so reading them does not touch the
+ * subtree.
+ * 
+ * @author Markus Lamm
+ */
+public class SubtreeAggregates
+{
+    private final String uuid;
+    private final long descendantCount;
+    private final long leafCount;
+    private final int height;
+
+    public SubtreeAggregates(final String uuid, final long descendantCount, final long leafCount, final int height) {
+        this.uuid = uuid;
+        this.descendantCount = descendantCount;
+        this.leafCount = leafCount;
+        this.height = height;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    /**
+     * Number of nodes below the node
+     * 
+     * @return descendants, 0 for a leaf
+     */
+    public long getDescendantCount() {
+        return descendantCount;
+    }
+
+    /**
+     * Number of leaves in the subtree
+     * 
+     * @return leaves, 1 for a leaf, which counts itself
+     */
+    public long getLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * Length of the longest path from the node down to a leaf
+     * 
+     * @return height, 0 for a leaf
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public String toString() {
+        final String format = "SubtreeAggregates[uuid=%s, descendantCount=%d, leafCount=%d, height=%d]";
+        return String.format(format, getUuid(), getDescendantCount(), getLeafCount(), getHeight());
+    }
+}
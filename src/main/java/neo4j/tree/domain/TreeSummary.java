@@ -0,0 +1,54 @@
+/**
+ * 
+ */
+package neo4j.tree.domain;
+
+/**
+ * Lightweight summary of a stored tree. Answers the questions the views need (does the tree exist,
+ * how big is it, where does it start) without loading any node entities. The root uuid identifies
+ * the tree.
+ * 
+ * @author Markus Lamm
+ */
+public class TreeSummary
+{
+    private final long nodeCount;
+    private final String rootUuid;
+
+    public TreeSummary(final long nodeCount, final String rootUuid) {
+        this.nodeCount = nodeCount;
+        this.rootUuid = rootUuid;
+    }
+
+    /**
+     * Creates the summary for a tree that does not exist
+     * 
+     * @return empty summary
+     */
+    public static TreeSummary empty() {
+        return new TreeSummary(0L, null);
+    }
+
+    /**
+     * True, if the tree does not exist
+     * 
+     * @return whether the tree is empty
+     */
+    public boolean isEmpty() {
+        return nodeCount < 1 || rootUuid == null;
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public String getRootUuid() {
+        return rootUuid;
+    }
+
+    @Override
+    public String toString() {
+        final String format = "TreeSummary[nodeCount=%d, rootUuid=%s]";
+        return String.format(format, getNodeCount(), getRootUuid());
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * 
+ */
+package neo4j.tree.event;
+
+import javax.inject.Inject;
+
+import neo4j.tree.domain.AbstractGraphEntity;
+import neo4j.tree.domain.Neo4jNode;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.springframework.context.ApplicationListener;
+import org.springframework.data.neo4j.lifecycle.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Observes Spring specific events that occur after saving entities in the graph data store. Will be
+ * invoked by the the spring framework.
+ * 
+ * @author Markus Lamm
+ */
+@Component
+public class AfterEntitySavedListener implements ApplicationListener<AfterSaveEvent<AbstractGraphEntity>>
+{
+    private static final Label ROOT_LABEL = DynamicLabel.label(Neo4jNode.ROOT_LABEL);
+
+    private GraphDatabaseService graphDatabaseService;
+
+    /**
+     * Handles application events after saving an entity to the graph. Responsible for the root
+     * label of tree nodes, which the mapping layer does not know about. A node counts as root under
+     * the same condition its path is derived from, it has no parent.
+     * 
+     * @param event
+     * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+     */
+    @Override
+    public void onApplicationEvent(final AfterSaveEvent<AbstractGraphEntity> event) {
+        final AbstractGraphEntity entity = event.getEntity();
+        if (entity instanceof Neo4jNode && null != entity.getNodeId()) {
+            final Node node = graphDatabaseService.getNodeById(entity.getNodeId());
+            if (((Neo4jNode) entity).isRoot()) {
+                node.addLabel(ROOT_LABEL);
+            }
+            else if (node.hasLabel(ROOT_LABEL)) {
+                node.removeLabel(ROOT_LABEL);
+            }
+        }
+    }
+
+    @Inject
+    public void setGraphDatabaseService(final GraphDatabaseService graphDatabaseService) {
+        this.graphDatabaseService = graphDatabaseService;
+    }
+}
@@ -7,6 +7,7 @@ import java.util.Date;
 import java.util.UUID;
 
 import neo4j.tree.domain.AbstractGraphEntity;
+import neo4j.tree.domain.Neo4jNode;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -29,7 +30,8 @@ public class BeforeEntitySavedListener implements ApplicationListener<BeforeSave
 
     /**
      * Handles application events before saving an entity to the graph. Responsible for updating
-     * audit data and creating an UUID for entities that were created.
+     * audit data, creating an UUID for entities that were created and deriving the materialized
+     * path and the tree id of tree nodes.
      * 
      * @param event
      * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
@@ -46,6 +48,29 @@ public class BeforeEntitySavedListener implements ApplicationListener<BeforeSave
                 entity.setUuid(uuid);
             }
             entity.setLastModifiedDate(now);
+            if (entity instanceof Neo4jNode) {
+                updatePath((Neo4jNode) entity);
+            }
+        }
+    }
+
+    /**
+     * Helper method. Derives path, depth and tree id of the node from its parent. A shallow loaded
+     * parent carries no path, the stored values of the node are kept in that case.
+     * 
+     * @param node node to save
+     */
+    private static void updatePath(final Neo4jNode node) {
+        final Neo4jNode parent = node.getParent();
+        if (null == parent) {
+            node.setPath(Neo4jNode.PATH_SEPARATOR + node.getUuid() + Neo4jNode.PATH_SEPARATOR);
+            node.setDepth(0);
+            node.setTreeId(node.getUuid());
+        }
+        else if (null != parent.getPath()) {
+            node.setPath(parent.getPath() + node.getUuid() + Neo4jNode.PATH_SEPARATOR);
+            node.setDepth(parent.getDepth() + 1);
+            node.setTreeId(parent.getTreeId());
         }
     }
 
@@ -62,11 +87,11 @@ public class BeforeEntitySavedListener implements ApplicationListener<BeforeSave
     }
 
     /**
-     * Generates final uuid string
+     * Generates final uuid string. Also used for nodes that are written without the mapping layer.
      * 
      * @return
      */
-    private String generateUuid() {
+    public static String generateUuid() {
         final UUID uuid = UUID.randomUUID();
         final String result = extractValue(uuid);
         return result;
@@ -0,0 +1,184 @@
+/**
+ * 
+ */
+package neo4j.tree.event;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import neo4j.tree.domain.ChangeEvent;
+import neo4j.tree.domain.ChangeEvent.Type;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Derives change events from committed transactions and appends them to the change log.
+ * Registered as transaction event handler, so it sees every write, no matter whether it was done
+ * by the mapping layer, by Cypher or by the graph database API.
+ * <p>
+ * A new parent relationship of an existing node is a move, a removed parent relationship of a node
+ * that is neither deleted nor moved in the same transaction detaches a subtree for deletion. The
+ * descendants deleted later are part of that deletion, only a deleted root, which has no parent
+ * relationship, is reported when it is deleted.
+ * 
+ * @author Markus Lamm
+ */
+@Component
+public class ChangeCapture implements TransactionEventHandler<List<ChangeEvent>>
+{
+    private static final Label NODE_LABEL = DynamicLabel.label("TreeNode");
+
+    private static final RelationshipType IS_PARENT_OF = DynamicRelationshipType.withName("IS_PARENT_OF");
+
+    private static final String UUID = "uuid";
+    private static final String NAME = "name";
+    private static final String TREE_ID = "treeId";
+
+    private GraphDatabaseService graphDatabaseService;
+
+    private TreeVersion treeVersion;
+
+    private ChangeLog changeLog;
+
+    /**
+     * Registers after the tree version, so the version of the transaction is assigned when the
+     * events are appended
+     */
+    @PostConstruct
+    public void register() {
+        graphDatabaseService.registerTransactionEventHandler(this);
+    }
+
+    @PreDestroy
+    public void unregister() {
+        graphDatabaseService.unregisterTransactionEventHandler(this);
+    }
+
+    /**
+     * Collects the events while the changed nodes can still be read. A subtree is reported deleted
+     * when it is detached from its parent, the descendants are purged in later transactions without
+     * further events. A root is reported when it is purged, deleted nodes can only be read through
+     * their removed properties.
+     * 
+     * @see org.neo4j.graphdb.event.TransactionEventHandler#beforeCommit(org.neo4j.graphdb.event.TransactionData)
+     */
+    @Override
+    public List<ChangeEvent> beforeCommit(final TransactionData data) throws Exception {
+        final List<ChangeEvent> events = Lists.newArrayList();
+        final Set<Node> deleted = Sets.newHashSet(data.deletedNodes());
+        final Map<Node, String> deletedUuids = Maps.newHashMap();
+        final Map<Node, String> deletedTreeIds = Maps.newHashMap();
+        for (final PropertyEntry<Node> entry : data.removedNodeProperties()) {
+            if (UUID.equals(entry.key())) {
+                deletedUuids.put(entry.entity(), (String) entry.previouslyCommitedValue());
+            }
+            else if (TREE_ID.equals(entry.key())) {
+                deletedTreeIds.put(entry.entity(), (String) entry.previouslyCommitedValue());
+            }
+        }
+        final Set<Node> created = Sets.newHashSet(data.createdNodes());
+        for (final Node node : created) {
+            if (!deleted.contains(node) && node.hasLabel(NODE_LABEL)) {
+                events.add(ChangeEvent.of(Type.CREATED, getUuid(node), getParentUuid(node), (String) node.getProperty(NAME, null)));
+            }
+        }
+        for (final PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+            if (NAME.equals(entry.key()) && !created.contains(entry.entity()) && !deleted.contains(entry.entity())
+                    && null != entry.previouslyCommitedValue() && !ObjectUtils.equals(entry.previouslyCommitedValue(), entry.value())) {
+                events.add(ChangeEvent.of(Type.RENAMED, getUuid(entry.entity()), null, (String) entry.value()));
+            }
+        }
+        final Set<Node> attached = Sets.newHashSet();
+        for (final Relationship relationship : data.createdRelationships()) {
+            final Node child = relationship.getEndNode();
+            if (relationship.isType(IS_PARENT_OF) && !created.contains(child) && !deleted.contains(child)) {
+                attached.add(child);
+                events.add(ChangeEvent.of(Type.MOVED, getUuid(child), getUuid(relationship.getStartNode()), null));
+            }
+        }
+        for (final Relationship relationship : data.deletedRelationships()) {
+            final Node child = relationship.getEndNode();
+            final Node parent = relationship.getStartNode();
+            if (relationship.isType(IS_PARENT_OF) && !deleted.contains(child) && !deleted.contains(parent)
+                    && !attached.contains(child)) {
+                events.add(ChangeEvent.of(Type.DELETED, getUuid(child), getUuid(parent), null));
+            }
+        }
+        for (final Map.Entry<Node, String> entry : deletedUuids.entrySet()) {
+            final Node node = entry.getKey();
+            if (deleted.contains(node) && null != entry.getValue() && entry.getValue().equals(deletedTreeIds.get(node))) {
+                events.add(ChangeEvent.of(Type.DELETED, entry.getValue(), null, null));
+            }
+        }
+        return events;
+    }
+
+    @Override
+    public void afterCommit(final TransactionData data, final List<ChangeEvent> events) {
+        if (null != events && !events.isEmpty()) {
+            changeLog.append(events, treeVersion.getCommittedVersion());
+        }
+    }
+
+    @Override
+    public void afterRollback(final TransactionData data, final List<ChangeEvent> events) {
+        // rolled back changes are not reported
+    }
+
+    /**
+     * Helper method. Reads the uuid of a node
+     * 
+     * @param node graph node, not deleted
+     * @return uuid, or null
+     */
+    private static String getUuid(final Node node) {
+        return (String) node.getProperty(UUID, null);
+    }
+
+    /**
+     * Helper method. Reads the uuid of the parent node
+     * 
+     * @param node graph node, not deleted
+     * @return parent uuid, or null for a root
+     */
+    private static String getParentUuid(final Node node) {
+        final Relationship parentRel = node.getSingleRelationship(IS_PARENT_OF, Direction.INCOMING);
+        return (null == parentRel) ? null : getUuid(parentRel.getStartNode());
+    }
+
+    @Inject
+    public void setGraphDatabaseService(final GraphDatabaseService graphDatabaseService) {
+        this.graphDatabaseService = graphDatabaseService;
+    }
+
+    @Inject
+    public void setTreeVersion(final TreeVersion treeVersion) {
+        this.treeVersion = treeVersion;
+    }
+
+    @Inject
+    public void setChangeLog(final ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+}
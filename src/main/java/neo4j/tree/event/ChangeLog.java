@@ -0,0 +1,423 @@
+/**
+ * 
+ */
+package neo4j.tree.event;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import neo4j.tree.domain.ChangeEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Append-only, file-backed log of change events, one JSON line per event. The sequence number of
+ * an event is its line number, so the log is recovered on start by counting lines. Appending only
+ * queues the events, a single writer thread assigns the sequence numbers and writes them, so
+ * committing transactions never wait for the file. Written events are flushed but not forced to
+ * disk.
+ * <p>
+ * The most recent events are kept in memory for clients that follow the log. Older events are read
+ * from the file, starting at the nearest remembered offset.
+ * <p>
+ * The file has no default location, as it has to outlive deployments just like the graph store. It
+ * is set with the tree.changes.file property.
+ * 
+ * @author Markus Lamm
+ */
+@Component
+public class ChangeLog
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeLog.class);
+
+    /**
+     * The offset of every this many events is remembered, so a read from an old cursor scans at
+     * most this many lines before it reaches the cursor
+     */
+    private static final int INDEX_INTERVAL = 1000;
+
+    /**
+     * How often an idle writer checks whether it was stopped
+     */
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final BlockingQueue<PendingChanges> queue = new LinkedBlockingQueue<PendingChanges>();
+
+    /**
+     * File offsets of the first line of each index interval, by sequence number
+     */
+    private final NavigableMap<Long, Long> offsets = new ConcurrentSkipListMap<Long, Long>();
+
+    /**
+     * The most recently written events, guarded by itself
+     */
+    private final Deque<ChangeEvent> tail = new ArrayDeque<ChangeEvent>();
+
+    private final Set<Runnable> listeners = Sets.newConcurrentHashSet();
+
+    /**
+     * Whether the notifier has yet to run the listeners for the last written batch
+     */
+    private final AtomicBoolean notificationPending = new AtomicBoolean();
+
+    private String fileName;
+
+    private int tailSize;
+
+    private File file;
+
+    private FileOutputStream fileOut;
+
+    private OutputStream out;
+
+    private long fileLength;
+
+    private volatile long lastSequence;
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    private ThreadPoolExecutor notifier;
+
+    /**
+     * Opens the log file, recovers the sequence number and starts the writer
+     * 
+     * @throws IOException if the file cannot be read or opened
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        file = new File(fileName).getAbsoluteFile();
+        file.getParentFile().mkdirs();
+        recover();
+        fileOut = new FileOutputStream(file, true);
+        out = new BufferedOutputStream(fileOut);
+        running = true;
+        notifier = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new CustomizableThreadFactory("tree-change-notifier-"));
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processQueue();
+            }
+        }, "tree-change-log");
+        writer.setDaemon(true);
+        writer.start();
+        LOG.info("Change log {} opened at sequence {}", file, lastSequence);
+    }
+
+    /**
+     * Writes the queued events and closes the log file
+     */
+    @PreDestroy
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+            notifier.shutdownNow();
+            out.close();
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (final IOException e) {
+            LOG.warn("Unable to close change log {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Queues the events of one committed transaction, returns at once
+     * 
+     * @param events the changes
+     * @param treeVersion tree version the changes are visible in
+     */
+    public void append(final List<ChangeEvent> events, final long treeVersion) {
+        queue.offer(new PendingChanges(events, treeVersion, System.currentTimeMillis()));
+    }
+
+    /**
+     * Reads written events
+     * 
+     * @param after sequence number of the last event the client has, 0 to read from the start
+     * @param limit maximum number of events
+     * @return events following the cursor, oldest first, empty if there are none yet
+     */
+    public List<ChangeEvent> read(final long after, final int limit) {
+        final long last = lastSequence;
+        if (after >= last) {
+            return Collections.emptyList();
+        }
+        synchronized (tail) {
+            if (!tail.isEmpty() && tail.getFirst().getSequence() <= after + 1) {
+                final List<ChangeEvent> events = Lists.newArrayListWithCapacity(Math.min(limit, (int) (last - after)));
+                for (final ChangeEvent event : tail) {
+                    if (event.getSequence() > after && events.size() < limit) {
+                        events.add(event);
+                    }
+                }
+                return events;
+            }
+        }
+        try {
+            return readFile(after, limit, last);
+        }
+        catch (final IOException e) {
+            throw new IllegalStateException(String.format("Unable to read change log %s", file), e);
+        }
+    }
+
+    /**
+     * Sequence number of the last written event
+     * 
+     * @return sequence number, 0 if the log is empty
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Adds a listener that is run by the notifier thread after new events were written. Listeners
+     * may read the log, the writer does not wait for them. Batches written while the listeners run
+     * are notified once.
+     * 
+     * @param listener the listener
+     */
+    public void addListener(final Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(final Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Helper method. Counts the complete lines of the log file and remembers the offsets of the
+     * index intervals. A last line without line break was cut off by a crash and is removed.
+     * 
+     * @throws IOException if the file cannot be read
+     */
+    private void recover() throws IOException {
+        long lines = 0;
+        long offset = 0;
+        long lineStart = 0;
+        if (file.exists()) {
+            try (final InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                int b;
+                while ((b = in.read()) != -1) {
+                    offset++;
+                    if (b == '\n') {
+                        if (lines % INDEX_INTERVAL == 0) {
+                            offsets.put(lines + 1, lineStart);
+                        }
+                        lines++;
+                        lineStart = offset;
+                    }
+                }
+            }
+            if (lineStart < offset) {
+                LOG.warn("Removing incomplete last line of change log {}", file);
+                try (final RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+                    truncated.setLength(lineStart);
+                }
+            }
+        }
+        lastSequence = lines;
+        fileLength = lineStart;
+    }
+
+    /**
+     * Helper method. Loop of the writer thread, writes the queued events until it is stopped and
+     * the queue is empty.
+     */
+    private void processQueue() {
+        try {
+            while (running || !queue.isEmpty()) {
+                final PendingChanges first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (null == first) {
+                    continue;
+                }
+                final List<PendingChanges> batch = Lists.newArrayList(first);
+                queue.drainTo(batch);
+                write(batch);
+            }
+        }
+        catch (final InterruptedException e) {
+            LOG.debug("Change log writer interrupted");
+        }
+    }
+
+    /**
+     * Helper method. Writes a batch of queued events, then makes them visible to readers and
+     * hands the notification of the listeners to the notifier thread. A batch that cannot be written is removed from the file again and
+     * lost.
+     * 
+     * @param batch events of one or more transactions
+     */
+    private void write(final List<PendingChanges> batch) {
+        final List<ChangeEvent> written = Lists.newArrayList();
+        final long startLength = fileLength;
+        long sequence = lastSequence;
+        try {
+            final Map<Long, Long> batchOffsets = Maps.newHashMap();
+            for (final PendingChanges pending : batch) {
+                for (final ChangeEvent event : pending.events) {
+                    final ChangeEvent writtenEvent = event.toWritten(++sequence, pending.treeVersion, pending.time);
+                    final byte[] line = MAPPER.writeValueAsBytes(writtenEvent);
+                    if ((sequence - 1) % INDEX_INTERVAL == 0) {
+                        batchOffsets.put(sequence, fileLength);
+                    }
+                    out.write(line);
+                    out.write('\n');
+                    fileLength += line.length + 1;
+                    written.add(writtenEvent);
+                }
+            }
+            out.flush();
+            offsets.putAll(batchOffsets);
+        }
+        catch (final IOException e) {
+            LOG.error("Unable to write {} change events to {}, they are lost", written.size(), file, e);
+            discard(startLength);
+            return;
+        }
+        synchronized (tail) {
+            tail.addAll(written);
+            while (tail.size() > tailSize) {
+                tail.removeFirst();
+            }
+        }
+        lastSequence = sequence;
+        if (notificationPending.compareAndSet(false, true)) {
+            notifier.execute(new Runnable() {
+                @Override
+                public void run() {
+                    notifyListeners();
+                }
+            });
+        }
+    }
+
+    /**
+     * Helper method. Runs the listeners on the notifier thread. The pending flag is cleared first,
+     * so events written while the listeners run are notified again.
+     */
+    private void notifyListeners() {
+        notificationPending.set(false);
+        for (final Runnable listener : listeners) {
+            try {
+                listener.run();
+            }
+            catch (final RuntimeException e) {
+                LOG.warn("Change log listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Helper method. Cuts the file back to the end of the last written batch and drops buffered
+     * output
+     * 
+     * @param length file length before the failed batch
+     */
+    private void discard(final long length) {
+        try {
+            fileOut.getChannel().truncate(length);
+            out = new BufferedOutputStream(fileOut);
+            fileLength = length;
+        }
+        catch (final IOException e) {
+            LOG.error("Unable to restore change log {}", file, e);
+        }
+    }
+
+    /**
+     * Helper method. Reads events from the file, starting at the remembered offset next to the
+     * cursor
+     * 
+     * @param after sequence number of the last event the client has
+     * @param limit maximum number of events
+     * @param last sequence number of the last completely written event
+     * @return events following the cursor
+     * @throws IOException if the file cannot be read
+     */
+    private List<ChangeEvent> readFile(final long after, final int limit, final long last) throws IOException {
+        final List<ChangeEvent> events = Lists.newArrayList();
+        final Map.Entry<Long, Long> start = offsets.floorEntry(after + 1);
+        try (final FileInputStream in = new FileInputStream(file)) {
+            in.getChannel().position(start.getValue());
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            long sequence = start.getKey();
+            String line;
+            while (events.size() < limit && sequence <= last && null != (line = reader.readLine())) {
+                if (sequence > after) {
+                    events.add(MAPPER.readValue(line, ChangeEvent.class));
+                }
+                sequence++;
+            }
+        }
+        return events;
+    }
+
+    @Value("${tree.changes.file}")
+    public void setFileName(final String fileName) {
+        this.fileName = fileName;
+    }
+
+    @Value("${tree.changes.tailSize:10000}")
+    public void setTailSize(final int tailSize) {
+        this.tailSize = tailSize;
+    }
+
+    /**
+     * The events of one committed transaction
+     */
+    private static final class PendingChanges
+    {
+        private final List<ChangeEvent> events;
+        private final long treeVersion;
+        private final long time;
+
+        private PendingChanges(final List<ChangeEvent> events, final long treeVersion, final long time) {
+            this.events = events;
+            this.treeVersion = treeVersion;
+            this.time = time;
+        }
+    }
+}
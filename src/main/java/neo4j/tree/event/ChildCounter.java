@@ -0,0 +1,138 @@
+/**
+ * 
+ */
+package neo4j.tree.event;
+
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Maintains the number of children of every tree node as node property. Registered as transaction
+ * event handler, so the count follows every created and deleted parent relationship, no matter
+ * whether it was written by the mapping layer, by Cypher or by the graph database API. Reading the
+ * count does not touch the children, which matters for nodes with many of them.
+ * 
+ * @author Markus Lamm
+ */
+@Component
+public class ChildCounter implements TransactionEventHandler<Void>
+{
+    public static final String CHILD_COUNT = "childCount";
+
+    private static final RelationshipType IS_PARENT_OF = DynamicRelationshipType.withName("IS_PARENT_OF");
+
+    private GraphDatabaseService graphDatabaseService;
+
+    /**
+     * Reads the child count of a node. The count is written on commit, so it does not include
+     * children added or removed by the running transaction. Nodes written before the count was
+     * maintained have their children counted.
+     * 
+     * @param node graph node
+     * @return number of children
+     */
+    public static int getChildCount(final Node node) {
+        final Object count = node.getProperty(CHILD_COUNT, null);
+        return (null == count) ? countChildren(node) : ((Number) count).intValue();
+    }
+
+    @PostConstruct
+    public void register() {
+        graphDatabaseService.registerTransactionEventHandler(this);
+    }
+
+    @PreDestroy
+    public void unregister() {
+        graphDatabaseService.unregisterTransactionEventHandler(this);
+    }
+
+    /**
+     * Adds the created and subtracts the deleted parent relationships from the counts of their
+     * parents within the committing transaction. Deleted parents are skipped, a parent without
+     * count gets its children counted, which includes the changes of the transaction.
+     * 
+     * @see org.neo4j.graphdb.event.TransactionEventHandler#beforeCommit(org.neo4j.graphdb.event.TransactionData)
+     */
+    @Override
+    public Void beforeCommit(final TransactionData data) throws Exception {
+        final Map<Node, Integer> deltas = Maps.newHashMap();
+        for (final Relationship relationship : data.createdRelationships()) {
+            if (relationship.isType(IS_PARENT_OF)) {
+                addDelta(deltas, relationship.getStartNode(), 1);
+            }
+        }
+        for (final Relationship relationship : data.deletedRelationships()) {
+            if (relationship.isType(IS_PARENT_OF)) {
+                addDelta(deltas, relationship.getStartNode(), -1);
+            }
+        }
+        if (deltas.isEmpty()) {
+            return null;
+        }
+        final Set<Node> deleted = Sets.newHashSet(data.deletedNodes());
+        for (final Map.Entry<Node, Integer> entry : deltas.entrySet()) {
+            final Node parent = entry.getKey();
+            if (deleted.contains(parent)) {
+                continue;
+            }
+            final Object count = parent.getProperty(CHILD_COUNT, null);
+            parent.setProperty(CHILD_COUNT, (null == count) ? countChildren(parent) : ((Number) count).intValue() + entry.getValue());
+        }
+        return null;
+    }
+
+    @Override
+    public void afterCommit(final TransactionData data, final Void state) {
+        // counts are part of the transaction
+    }
+
+    @Override
+    public void afterRollback(final TransactionData data, final Void state) {
+        // counts are rolled back with the transaction
+    }
+
+    /**
+     * Helper method. Sums up the changes of one parent
+     * 
+     * @param deltas changes per parent
+     * @param parent parent node
+     * @param delta change
+     */
+    private static void addDelta(final Map<Node, Integer> deltas, final Node parent, final int delta) {
+        final Integer current = deltas.get(parent);
+        deltas.put(parent, (null == current) ? delta : current + delta);
+    }
+
+    /**
+     * Helper method. Counts the parent relationships of a node
+     * 
+     * @param node graph node
+     * @return number of children
+     */
+    private static int countChildren(final Node node) {
+        return Iterables.size(node.getRelationships(Direction.OUTGOING, IS_PARENT_OF));
+    }
+
+    @Inject
+    public void setGraphDatabaseService(final GraphDatabaseService graphDatabaseService) {
+        this.graphDatabaseService = graphDatabaseService;
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * 
+ */
+package neo4j.tree.event;
+
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.tooling.GlobalGraphOperations;
+import org.springframework.stereotype.Component;
+
+/**
+ * Maintains the Lucene full-text index of tree node names. Registered as transaction event handler,
+ * so the index follows every write, no matter whether it was done by the mapping layer, by Cypher or
+ * by the graph database API. Besides the name the index holds the tree id, so searches can be
+ * restricted to one tree.
+ * 
+ * @author Markus Lamm
+ */
+@Component
+public class NodeNameIndexer implements TransactionEventHandler<Void>
+{
+    public static final String INDEX_NAME = "node_names";
+
+    public static final String NAME = "name";
+
+    public static final String TREE_ID = "treeId";
+
+    /**
+     * Full-text index, values are split at whitespace and lower cased
+     */
+    private static final Map<String, String> INDEX_CONFIG = MapUtil.stringMap(IndexManager.PROVIDER, "lucene", "type", "fulltext");
+
+    private static final Label NODE_LABEL = DynamicLabel.label("TreeNode");
+
+    private GraphDatabaseService graphDatabaseService;
+
+    /**
+     * Gets the name index, creates it if it does not exist yet. Has to be called within a
+     * transaction.
+     * 
+     * @param graphDatabaseService the database
+     * @return the name index
+     */
+    public static Index<Node> getIndex(final GraphDatabaseService graphDatabaseService) {
+        return graphDatabaseService.index().forNodes(INDEX_NAME, INDEX_CONFIG);
+    }
+
+    @PostConstruct
+    public void register() {
+        graphDatabaseService.registerTransactionEventHandler(this);
+    }
+
+    @PreDestroy
+    public void unregister() {
+        graphDatabaseService.unregisterTransactionEventHandler(this);
+    }
+
+    /**
+     * Creates the index and adds all tree nodes, if the index does not exist yet. Has to be called
+     * within a transaction.
+     * 
+     * @return number of indexed nodes
+     */
+    public long rebuild() {
+        if (graphDatabaseService.index().existsForNodes(INDEX_NAME)) {
+            return 0;
+        }
+        final Index<Node> index = getIndex(graphDatabaseService);
+        long indexed = 0;
+        try (final ResourceIterator<Node> nodes = GlobalGraphOperations.at(graphDatabaseService).getAllNodesWithLabel(NODE_LABEL)
+                .iterator()) {
+            while (nodes.hasNext()) {
+                final Node node = nodes.next();
+                for (final String key : new String[] { NAME, TREE_ID }) {
+                    if (node.hasProperty(key)) {
+                        index.add(node, key, node.getProperty(key));
+                    }
+                }
+                indexed++;
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * Updates the index entries of the changed names and tree ids within the committing transaction.
+     * Entries of deleted nodes are removed as well.
+     * 
+     * @see org.neo4j.graphdb.event.TransactionEventHandler#beforeCommit(org.neo4j.graphdb.event.TransactionData)
+     */
+    @Override
+    public Void beforeCommit(final TransactionData data) throws Exception {
+        Index<Node> index = null;
+        for (final PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+            if (isIndexed(entry.key())) {
+                index = (null == index) ? getIndex(graphDatabaseService) : index;
+                index.remove(entry.entity(), entry.key());
+                index.add(entry.entity(), entry.key(), entry.value());
+            }
+        }
+        for (final PropertyEntry<Node> entry : data.removedNodeProperties()) {
+            if (isIndexed(entry.key())) {
+                index = (null == index) ? getIndex(graphDatabaseService) : index;
+                index.remove(entry.entity(), entry.key());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void afterCommit(final TransactionData data, final Void state) {
+        // index changes are part of the transaction
+    }
+
+    @Override
+    public void afterRollback(final TransactionData data, final Void state) {
+        // index changes are rolled back with the transaction
+    }
+
+    /**
+     * Helper method. Checks whether a property is held in the index
+     * 
+     * @param key property name
+     * @return true for name and tree id
+     */
+    private static boolean isIndexed(final String key) {
+        return NAME.equals(key) || TREE_ID.equals(key);
+    }
+
+    @Inject
+    public void setGraphDatabaseService(final GraphDatabaseService graphDatabaseService) {
+        this.graphDatabaseService = graphDatabaseService;
+    }
+}
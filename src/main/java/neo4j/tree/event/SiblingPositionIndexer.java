@@ -0,0 +1,285 @@
+/**
+ * 
+ */
+package neo4j.tree.event;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.index.lucene.ValueContext;
+import org.neo4j.tooling.GlobalGraphOperations;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Keeps the children of every node in a stable order. Each child carries its position among its
+ * siblings, positions are spaced, so a node can be placed between two siblings without renumbering
+ * the others. The Lucene index of positions is keyed by the id of the parent node, so a page of
+ * children is a range query from the last position of the previous page. Registered as transaction
+ * event handler like {@link NodeNameIndexer}: children attached without a position, by the mapping
+ * layer or by a move, are appended to their new siblings on commit.
+ * 
+ * @author Markus Lamm
+ */
+@Component
+public class SiblingPositionIndexer implements TransactionEventHandler<Void>
+{
+    public static final String INDEX_NAME = "sibling_positions";
+
+    /**
+     * Index key of the parent node id
+     */
+    public static final String PARENT = "parent";
+
+    /**
+     * Property and numeric index key of the position among the siblings
+     */
+    public static final String POSITION = "position";
+
+    /**
+     * Property of the parent, the highest position handed out to its children
+     */
+    public static final String LAST_CHILD_POSITION = "lastChildPosition";
+
+    /**
+     * Distance between the positions of appended children
+     */
+    public static final long POSITION_GAP = 1L << 20;
+
+    private static final Map<String, String> INDEX_CONFIG = MapUtil.stringMap(IndexManager.PROVIDER, "lucene", "type", "exact");
+
+    private static final RelationshipType IS_PARENT_OF = DynamicRelationshipType.withName("IS_PARENT_OF");
+
+    private static final Label NODE_LABEL = DynamicLabel.label("TreeNode");
+
+    private static final Comparator<Relationship> BY_ID = new Comparator<Relationship>() {
+        @Override
+        public int compare(final Relationship r1, final Relationship r2) {
+            return Long.compare(r1.getId(), r2.getId());
+        }
+    };
+
+    private GraphDatabaseService graphDatabaseService;
+
+    /**
+     * Gets the position index, creates it if it does not exist yet. Has to be called within a
+     * transaction.
+     * 
+     * @param graphDatabaseService the database
+     * @return the position index
+     */
+    public static Index<Node> getIndex(final GraphDatabaseService graphDatabaseService) {
+        return graphDatabaseService.index().forNodes(INDEX_NAME, INDEX_CONFIG);
+    }
+
+    /**
+     * Places a child behind all its siblings. The index entry is written on commit. The caller has
+     * to hold the write lock of the parent, creating the parent relationship takes it.
+     * 
+     * @param parent parent node
+     * @param child child node
+     * @return the position of the child
+     */
+    public static long append(final Node parent, final Node child) {
+        final long position = getLastChildPosition(parent) + POSITION_GAP;
+        parent.setProperty(LAST_CHILD_POSITION, position);
+        child.setProperty(POSITION, position);
+        return position;
+    }
+
+    /**
+     * Reads the position of a node among its siblings
+     * 
+     * @param node graph node
+     * @return position, 0 for a root or a node written before positions were maintained
+     */
+    public static long getPosition(final Node node) {
+        return ((Number) node.getProperty(POSITION, 0L)).longValue();
+    }
+
+    @PostConstruct
+    public void register() {
+        graphDatabaseService.registerTransactionEventHandler(this);
+    }
+
+    @PreDestroy
+    public void unregister() {
+        graphDatabaseService.unregisterTransactionEventHandler(this);
+    }
+
+    /**
+     * Creates the index, gives all children without position one in the order of their parent
+     * relationships and indexes them, if the index does not exist yet. Has to be called within a
+     * transaction.
+     * 
+     * @return number of indexed nodes
+     */
+    public long rebuild() {
+        if (graphDatabaseService.index().existsForNodes(INDEX_NAME)) {
+            return 0;
+        }
+        final Index<Node> index = getIndex(graphDatabaseService);
+        long indexed = 0;
+        try (final ResourceIterator<Node> nodes = GlobalGraphOperations.at(graphDatabaseService).getAllNodesWithLabel(NODE_LABEL)
+                .iterator()) {
+            while (nodes.hasNext()) {
+                final Node parent = nodes.next();
+                for (final Relationship childRel : getSorted(parent.getRelationships(Direction.OUTGOING, IS_PARENT_OF))) {
+                    final Node child = childRel.getEndNode();
+                    final long position = child.hasProperty(POSITION) ? getPosition(child) : append(parent, child);
+                    addToIndex(index, parent, child, position);
+                    indexed++;
+                }
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * Appends the children that were attached without a position and updates the index entries of
+     * attached, detached and repositioned children within the committing transaction. Children
+     * attached in the same transaction are appended in the order their relationships were created.
+     * 
+     * @see org.neo4j.graphdb.event.TransactionEventHandler#beforeCommit(org.neo4j.graphdb.event.TransactionData)
+     */
+    @Override
+    public Void beforeCommit(final TransactionData data) throws Exception {
+        final Set<Node> deleted = Sets.newHashSet(data.deletedNodes());
+        final Set<Node> positioned = Sets.newHashSet();
+        for (final PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+            if (POSITION.equals(entry.key()) && !deleted.contains(entry.entity())) {
+                positioned.add(entry.entity());
+            }
+        }
+        final List<Relationship> attached = Lists.newArrayList();
+        for (final Relationship relationship : data.createdRelationships()) {
+            if (relationship.isType(IS_PARENT_OF) && !deleted.contains(relationship.getStartNode())
+                    && !deleted.contains(relationship.getEndNode())) {
+                attached.add(relationship);
+            }
+        }
+        Index<Node> index = null;
+        for (final PropertyEntry<Node> entry : data.removedNodeProperties()) {
+            if (POSITION.equals(entry.key())) {
+                index = (null == index) ? getIndex(graphDatabaseService) : index;
+                index.remove(entry.entity());
+            }
+        }
+        final Set<Node> reattached = Sets.newHashSet();
+        for (final Relationship relationship : getSorted(attached)) {
+            index = (null == index) ? getIndex(graphDatabaseService) : index;
+            final Node parent = relationship.getStartNode();
+            final Node child = relationship.getEndNode();
+            long position;
+            if (positioned.contains(child)) {
+                position = getPosition(child);
+                parent.setProperty(LAST_CHILD_POSITION, Math.max(position, getLastChildPosition(parent)));
+            }
+            else {
+                position = append(parent, child);
+            }
+            index.remove(child);
+            addToIndex(index, parent, child, position);
+            reattached.add(child);
+        }
+        for (final Relationship relationship : data.deletedRelationships()) {
+            final Node child = relationship.getEndNode();
+            if (relationship.isType(IS_PARENT_OF) && !deleted.contains(child) && !reattached.contains(child)) {
+                index = (null == index) ? getIndex(graphDatabaseService) : index;
+                index.remove(child);
+            }
+        }
+        for (final Node child : positioned) {
+            final Relationship parentRel = child.getSingleRelationship(IS_PARENT_OF, Direction.INCOMING);
+            if (!reattached.contains(child) && null != parentRel) {
+                index = (null == index) ? getIndex(graphDatabaseService) : index;
+                index.remove(child, POSITION);
+                index.add(child, POSITION, ValueContext.numeric(getPosition(child)));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void afterCommit(final TransactionData data, final Void state) {
+        // index changes are part of the transaction
+    }
+
+    @Override
+    public void afterRollback(final TransactionData data, final Void state) {
+        // index changes are rolled back with the transaction
+    }
+
+    /**
+     * Helper method. Reads the highest position handed out to the children of a node. Parents
+     * written before positions were maintained have the positions of their children compared.
+     * 
+     * @param parent parent node
+     * @return highest position, 0 if no child has one
+     */
+    private static long getLastChildPosition(final Node parent) {
+        final Object last = parent.getProperty(LAST_CHILD_POSITION, null);
+        if (null != last) {
+            return ((Number) last).longValue();
+        }
+        long max = 0;
+        for (final Relationship childRel : parent.getRelationships(Direction.OUTGOING, IS_PARENT_OF)) {
+            max = Math.max(max, getPosition(childRel.getEndNode()));
+        }
+        return max;
+    }
+
+    /**
+     * Helper method. Writes the index entries of a child
+     * 
+     * @param index position index
+     * @param parent parent node
+     * @param child child node
+     * @param position position of the child
+     */
+    private static void addToIndex(final Index<Node> index, final Node parent, final Node child, final long position) {
+        index.add(child, PARENT, String.valueOf(parent.getId()));
+        index.add(child, POSITION, ValueContext.numeric(position));
+    }
+
+    /**
+     * Helper method. Orders relationships by id, i.e. by the order they were created in
+     * 
+     * @param relationships relationships
+     * @return sorted copy
+     */
+    private static List<Relationship> getSorted(final Iterable<Relationship> relationships) {
+        final List<Relationship> sorted = Lists.newArrayList(relationships);
+        Collections.sort(sorted, BY_ID);
+        return sorted;
+    }
+
+    @Inject
+    public void setGraphDatabaseService(final GraphDatabaseService graphDatabaseService) {
+        this.graphDatabaseService = graphDatabaseService;
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * 
+ */
+package neo4j.tree.event;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.springframework.stereotype.Component;
+
+/**
+ * Version of the stored trees, increased after every committed transaction that changed the graph.
+ * Registered as transaction event handler, so no write is missed, no matter whether it was done by
+ * the mapping layer, by Cypher or by the graph database API. The version is held in memory and can
+ * be read without touching the database. It restarts with every application start, the start time
+ * tells the versions of different runs apart.
+ * 
+ * @author Markus Lamm
+ */
+@Component
+public class TreeVersion implements TransactionEventHandler<Boolean>
+{
+    private final long startTime = System.currentTimeMillis();
+
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Version assigned to the last changing transaction committed by the current thread
+     */
+    private final ThreadLocal<Long> committedVersion = new ThreadLocal<Long>();
+
+    private GraphDatabaseService graphDatabaseService;
+
+    @PostConstruct
+    public void register() {
+        graphDatabaseService.registerTransactionEventHandler(this);
+    }
+
+    @PreDestroy
+    public void unregister() {
+        graphDatabaseService.unregisterTransactionEventHandler(this);
+    }
+
+    /**
+     * Number of committed changes since the application started
+     * 
+     * @return current version
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Version assigned to the last changing transaction committed by the current thread. Handlers
+     * registered after this one read it in afterCommit to tag the changes of their transaction,
+     * the current version may already include transactions committed by other threads.
+     * 
+     * @return version of the transaction, the current version if the thread did not commit changes
+     */
+    public long getCommittedVersion() {
+        final Long committed = committedVersion.get();
+        return (null == committed) ? version.get() : committed;
+    }
+
+    /**
+     * Start time of the application, in milliseconds
+     * 
+     * @return start time
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Checks whether the transaction changed the graph. The version is increased after the commit,
+     * so it never announces changes that are not visible yet.
+     * 
+     * @see org.neo4j.graphdb.event.TransactionEventHandler#beforeCommit(org.neo4j.graphdb.event.TransactionData)
+     */
+    @Override
+    public Boolean beforeCommit(final TransactionData data) throws Exception {
+        return data.createdNodes().iterator().hasNext() || data.deletedNodes().iterator().hasNext()
+                || data.createdRelationships().iterator().hasNext() || data.deletedRelationships().iterator().hasNext()
+                || data.assignedNodeProperties().iterator().hasNext() || data.removedNodeProperties().iterator().hasNext()
+                || data.assignedRelationshipProperties().iterator().hasNext()
+                || data.removedRelationshipProperties().iterator().hasNext();
+    }
+
+    @Override
+    public void afterCommit(final TransactionData data, final Boolean changed) {
+        if (Boolean.TRUE.equals(changed)) {
+            committedVersion.set(version.incrementAndGet());
+        }
+    }
+
+    @Override
+    public void afterRollback(final TransactionData data, final Boolean changed) {
+        // rolled back changes are not visible
+    }
+
+    @Inject
+    public void setGraphDatabaseService(final GraphDatabaseService graphDatabaseService) {
+        this.graphDatabaseService = graphDatabaseService;
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * 
+ */
+package neo4j.tree.metrics;
+
+import java.util.Collection;
+
+import javax.inject.Inject;
+
+import neo4j.tree.domain.AbstractGraphEntity;
+import neo4j.tree.domain.NodePage;
+import neo4j.tree.domain.NodeProjection;
+import neo4j.tree.domain.SearchHit;
+import neo4j.tree.repository.TreeNodeRepository;
+import neo4j.tree.service.TreeService;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records latency, errors and returned nodes of every call of the tree service and the node
+ * repository. Runs outside the transaction interceptor, so the measured time includes the commit,
+ * but inside the slow query log.
+ * 
+ * @author Markus Lamm
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class MetricsAspect
+{
+    private MetricsRegistry registry;
+
+    /**
+     * Times a call and records it under the interface and method name, overloads are told apart by
+     * their parameter types
+     * 
+     * @param joinPoint the intercepted call
+     * @return result of the call
+     * @throws Throwable exception of the call, recorded as error
+     */
+    @Around("(target(neo4j.tree.service.TreeService) || target(neo4j.tree.repository.TreeNodeRepository))"
+            + " && !execution(* java.lang.Object.*(..))")
+    public Object record(final ProceedingJoinPoint joinPoint) throws Throwable {
+        final OperationMetrics metrics = registry.getMetrics(getOperationName(joinPoint));
+        final long start = System.nanoTime();
+        boolean failed = true;
+        Object result = null;
+        try {
+            result = joinPoint.proceed();
+            failed = false;
+            return result;
+        }
+        finally {
+            metrics.record(System.nanoTime() - start, countNodes(result), failed);
+        }
+    }
+
+    /**
+     * Helper method. Builds the operation name, e.g. TreeService.getPreordered(String,int,int,int)
+     * 
+     * @param joinPoint the intercepted call
+     * @return operation name
+     */
+    private static String getOperationName(final ProceedingJoinPoint joinPoint) {
+        final Class<?> type = (joinPoint.getTarget() instanceof TreeService) ? TreeService.class : TreeNodeRepository.class;
+        final StringBuilder name = new StringBuilder(type.getSimpleName()).append('.').append(joinPoint.getSignature().getName())
+                .append('(');
+        final Class<?>[] parameterTypes = ((MethodSignature) joinPoint.getSignature()).getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            name.append((i > 0) ? "," : "").append(parameterTypes[i].getSimpleName());
+        }
+        return name.append(')').toString();
+    }
+
+    /**
+     * Helper method. Counts the nodes in a result, lazily produced results are not counted because
+     * that would consume them.
+     * 
+     * @param result result of the call
+     * @return number of nodes
+     */
+    private static int countNodes(final Object result) {
+        if (result instanceof AbstractGraphEntity || result instanceof NodeProjection || result instanceof SearchHit) {
+            return 1;
+        }
+        if (result instanceof NodePage) {
+            return ((NodePage) result).getNodes().size();
+        }
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        return 0;
+    }
+
+    @Inject
+    protected void setRegistry(final MetricsRegistry registry) {
+        this.registry = registry;
+    }
+}
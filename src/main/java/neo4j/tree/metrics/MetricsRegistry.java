@@ -0,0 +1,133 @@
+/**
+ * 
+ */
+package neo4j.tree.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+
+/**
+ * Holds the statistics of all instrumented operations. Each operation is registered as MBean in
+ * the platform MBean server the first time it is called.
+ * 
+ * @author Markus Lamm
+ */
+@Component
+public class MetricsRegistry
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    private static final String OBJECT_NAME = "neo4j.tree:type=OperationMetrics,name=%s";
+
+    private final ConcurrentMap<String, OperationMetrics> operations = Maps.newConcurrentMap();
+
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    /**
+     * Gets the statistics of an operation, creates and registers them on first use
+     * 
+     * @param name operation name
+     * @return statistics
+     */
+    public OperationMetrics getMetrics(final String name) {
+        final OperationMetrics metrics = operations.get(name);
+        if (null != metrics) {
+            return metrics;
+        }
+        final OperationMetrics created = new OperationMetrics(name);
+        final OperationMetrics existing = operations.putIfAbsent(name, created);
+        if (null != existing) {
+            return existing;
+        }
+        register(created);
+        return created;
+    }
+
+    /**
+     * Statistics of all operations called so far
+     * 
+     * @return statistics, ordered by operation name
+     */
+    public List<OperationMetrics> getAll() {
+        final List<OperationMetrics> all = Lists.newArrayList(operations.values());
+        return Ordering.natural().onResultOf(new Function<OperationMetrics, String>() {
+            @Override
+            public String apply(final OperationMetrics metrics) {
+                return metrics.getName();
+            }
+        }).sortedCopy(all);
+    }
+
+    /**
+     * Resets the statistics of all operations
+     */
+    public void reset() {
+        for (final OperationMetrics metrics : operations.values()) {
+            metrics.reset();
+        }
+    }
+
+    /**
+     * Removes the MBeans when the application context is closed
+     */
+    @PreDestroy
+    public void unregister() {
+        for (final OperationMetrics metrics : operations.values()) {
+            try {
+                final ObjectName objectName = getObjectName(metrics);
+                if (mBeanServer.isRegistered(objectName)) {
+                    mBeanServer.unregisterMBean(objectName);
+                }
+            }
+            catch (final JMException e) {
+                LOG.warn("Unable to unregister metrics {}: {}", metrics.getName(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Helper method. Registers the statistics as MBean, replaces an MBean of the same name that was
+     * left by another application context in the same JVM.
+     * 
+     * @param metrics statistics of one operation
+     */
+    private void register(final OperationMetrics metrics) {
+        try {
+            final ObjectName objectName = getObjectName(metrics);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(metrics, objectName);
+        }
+        catch (final JMException e) {
+            LOG.warn("Unable to register metrics {}: {}", metrics.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Helper method. Builds the MBean name, the operation name is quoted because it contains the
+     * parameter list.
+     * 
+     * @param metrics statistics of one operation
+     * @return object name
+     * @throws JMException if the name is malformed
+     */
+    private static ObjectName getObjectName(final OperationMetrics metrics) throws JMException {
+        return new ObjectName(String.format(OBJECT_NAME, ObjectName.quote(metrics.getName())));
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * 
+ */
+package neo4j.tree.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Call statistics of one operation since start or the last reset. Latencies are counted in a
+ * histogram with four buckets per doubling of the latency, so percentiles are reported with an
+ * error of less than 20 percent. Recording is lock free.
+ * 
+ * @author Markus Lamm
+ */
+public class OperationMetrics implements OperationMetricsMBean
+{
+    private static final int BUCKETS_PER_DOUBLING = 4;
+
+    /**
+     * Covers latencies up to 2^40 microseconds, longer calls are counted in the last bucket
+     */
+    private static final int BUCKET_COUNT = 40 * BUCKETS_PER_DOUBLING;
+
+    private static final double BUCKET_WIDTH = Math.log(2) / BUCKETS_PER_DOUBLING;
+
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong nodeCount = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    public OperationMetrics(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records one call
+     * 
+     * @param nanos duration of the call
+     * @param nodes number of nodes the call returned
+     * @param failed whether the call threw an exception
+     */
+    public void record(final long nanos, final int nodes, final boolean failed) {
+        count.incrementAndGet();
+        if (failed) {
+            errorCount.incrementAndGet();
+        }
+        totalNanos.addAndGet(nanos);
+        nodeCount.addAndGet(nodes);
+        buckets.incrementAndGet(getBucket(nanos));
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        final long calls = count.get();
+        return (calls == 0) ? 0 : toMillis(totalNanos.get()) / calls;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return toMillis(maxNanos.get());
+    }
+
+    /**
+     * Total number of nodes returned, counted for node entities, flat nodes, search hits and
+     * collections and pages of them. Lazily produced results are not counted.
+     * 
+     * @see neo4j.tree.metrics.OperationMetricsMBean#getNodeCount()
+     */
+    @Override
+    public long getNodeCount() {
+        return nodeCount.get();
+    }
+
+    @Override
+    public double getMeanNodes() {
+        final long calls = count.get();
+        return (calls == 0) ? 0 : (double) nodeCount.get() / calls;
+    }
+
+    @Override
+    public void reset() {
+        count.set(0);
+        errorCount.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+        nodeCount.set(0);
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+    }
+
+    /**
+     * Upper bound of the histogram bucket the given fraction of the calls falls into, at most the
+     * maximum
+     * 
+     * @param fraction between 0 and 1
+     * @return latency in milliseconds
+     */
+    public double getPercentileMillis(final double fraction) {
+        final long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        final long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen > 0 && seen >= rank) {
+                return Math.min(Math.exp((i + 1) * BUCKET_WIDTH) / 1000, getMaxMillis());
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        final String format = "OperationMetrics[name=%s, count=%d, errors=%d, p50=%.3fms, p99=%.3fms, max=%.3fms, nodes=%d]";
+        return String.format(format, getName(), getCount(), getErrorCount(), getP50Millis(), getP99Millis(), getMaxMillis(),
+                getNodeCount());
+    }
+
+    /**
+     * Helper method. Maps a latency to its histogram bucket, the logarithm of the latency in
+     * microseconds
+     * 
+     * @param nanos latency
+     * @return bucket index
+     */
+    private static int getBucket(final long nanos) {
+        final long micros = Math.max(1, nanos / 1000);
+        return Math.min(BUCKET_COUNT - 1, (int) (Math.log(micros) / BUCKET_WIDTH));
+    }
+
+    /**
+     * Helper method. Converts nanoseconds
+     * 
+     * @param nanos duration
+     * @return duration in milliseconds
+     */
+    private static double toMillis(final long nanos) {
+        return nanos / 1000000d;
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * 
+ */
+package neo4j.tree.metrics;
+
+/**
+ * Management interface of the statistics of one operation
+ * 
+ * @author Markus Lamm
+ */
+public interface OperationMetricsMBean
+{
+    String getName();
+
+    long getCount();
+
+    long getErrorCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    long getNodeCount();
+
+    double getMeanNodes();
+
+    void reset();
+}
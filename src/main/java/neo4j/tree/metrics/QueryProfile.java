@@ -0,0 +1,101 @@
+/**
+ * 
+ */
+package neo4j.tree.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Execution plan and statistics of one profiled Cypher query
+ * 
+ * @author Markus Lamm
+ */
+public class QueryProfile
+{
+    /**
+     * Plan operators that read all nodes or all nodes of a label instead of looking them up
+     */
+    private static final String[] SCAN_OPERATORS = { "NodeByLabel", "AllNodes" };
+
+    private final String query;
+    private final Map<String, Object> params;
+    private final String plan;
+    private final List<String> operators;
+    private final long dbHits;
+    private final long rows;
+
+    public QueryProfile(final String query, final Map<String, Object> params, final String plan, final List<String> operators,
+            final long dbHits, final long rows) {
+        this.query = query;
+        this.params = params;
+        this.plan = plan;
+        this.operators = operators;
+        this.dbHits = dbHits;
+        this.rows = rows;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public Map<String, Object> getParams() {
+        return params;
+    }
+
+    /**
+     * The execution plan as printed by the Cypher engine
+     * 
+     * @return plan description
+     */
+    public String getPlan() {
+        return plan;
+    }
+
+    /**
+     * Names of all operators of the plan
+     * 
+     * @return operator names, top down
+     */
+    public List<String> getOperators() {
+        return operators;
+    }
+
+    /**
+     * Database accesses of all operators
+     * 
+     * @return db hits
+     */
+    public long getDbHits() {
+        return dbHits;
+    }
+
+    /**
+     * Rows of the result
+     * 
+     * @return number of rows
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * True, if the plan finds its start nodes by scanning a label or the whole graph instead of an
+     * index or id lookup
+     * 
+     * @return whether the query scans nodes
+     */
+    public boolean isScan() {
+        for (final String operator : SCAN_OPERATORS) {
+            if (operators.contains(operator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QueryProfile[query=%s, params=%s, dbHits=%d, rows=%d]%n%s", query, params, dbHits, rows, plan);
+    }
+}
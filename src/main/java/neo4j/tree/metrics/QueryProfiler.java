@@ -0,0 +1,127 @@
+/**
+ * 
+ */
+package neo4j.tree.metrics;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+
+import neo4j.tree.domain.AbstractGraphEntity;
+
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.neo4j.cypher.javacompat.PlanDescription;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.data.neo4j.annotation.Query;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Runs the Cypher queries of annotated repository methods with PROFILE on the embedded engine
+ * 
+ * @author Markus Lamm
+ */
+@Component
+public class QueryProfiler
+{
+    /**
+     * Clauses that change the graph, queries containing them must not be run a second time
+     */
+    private static final Pattern UPDATE_CLAUSE = Pattern.compile("\\b(CREATE|MERGE|SET|DELETE|REMOVE|FOREACH)\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private ExecutionEngine executionEngine;
+
+    /**
+     * Gets the Cypher query of a repository method
+     * 
+     * @param method repository method
+     * @return query, or null if the method is not annotated with one
+     */
+    public static String getQuery(final Method method) {
+        final Query query = method.getAnnotation(Query.class);
+        return (null == query) ? null : query.value();
+    }
+
+    /**
+     * Checks whether a query only reads
+     * 
+     * @param query Cypher query
+     * @return false, if the query contains an updating clause
+     */
+    public static boolean isReadOnly(final String query) {
+        return !UPDATE_CLAUSE.matcher(query).find();
+    }
+
+    /**
+     * Converts the arguments of a repository method call to the positional parameters of its
+     * query, entities are passed by node id like the mapping layer does.
+     * 
+     * @param args call arguments
+     * @return parameters named 0, 1, ...
+     */
+    public static Map<String, Object> toParams(final Object[] args) {
+        final Map<String, Object> params = Maps.newLinkedHashMap();
+        for (int i = 0; i < args.length; i++) {
+            final Object arg = args[i];
+            params.put(String.valueOf(i), (arg instanceof AbstractGraphEntity) ? ((AbstractGraphEntity) arg).getNodeId() : arg);
+        }
+        return params;
+    }
+
+    /**
+     * Executes a query with PROFILE and consumes its result. Updating queries change the graph. If
+     * the profiler is unable to describe the plan, which happens for operators that never received
+     * a row, the query is executed a second time without profiling and its plain plan is returned.
+     * 
+     * @param query Cypher query
+     * @param params query parameters
+     * @return plan and statistics
+     */
+    public QueryProfile profile(final String query, final Map<String, Object> params) {
+        final ExecutionResult result = executionEngine.profile(query, params);
+        // profiler statistics are available after the result is consumed
+        result.dumpToString();
+        PlanDescription plan;
+        try {
+            plan = result.executionPlanDescription();
+        }
+        catch (final NoSuchElementException e) {
+            final ExecutionResult plainResult = executionEngine.execute(query, params);
+            plainResult.dumpToString();
+            plan = plainResult.executionPlanDescription();
+        }
+        final List<String> operators = Lists.newArrayList();
+        final long dbHits = collect(plan, operators);
+        final long rows = plan.hasProfilerStatistics() ? plan.getProfilerStatistics().getRows() : 0;
+        return new QueryProfile(query, params, plan.toString(), operators, dbHits, rows);
+    }
+
+    /**
+     * Helper method. Collects the operator names of a plan and sums up their db hits
+     * 
+     * @param plan plan or sub plan
+     * @param operators collected operator names
+     * @return db hits of the plan
+     */
+    private static long collect(final PlanDescription plan, final List<String> operators) {
+        operators.add(plan.getName());
+        long dbHits = plan.hasProfilerStatistics() ? plan.getProfilerStatistics().getDbHits() : 0;
+        for (final PlanDescription child : plan.getChildren()) {
+            dbHits += collect(child, operators);
+        }
+        return dbHits;
+    }
+
+    @Inject
+    public void setGraphDatabaseService(final GraphDatabaseService graphDatabaseService) {
+        this.executionEngine = new ExecutionEngine(graphDatabaseService);
+    }
+}
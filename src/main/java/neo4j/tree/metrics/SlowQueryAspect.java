@@ -0,0 +1,158 @@
+/**
+ * 
+ */
+package neo4j.tree.metrics;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Logs the annotated queries of the node repository that take longer than a threshold, with their
+ * parameters and elapsed time. Read queries are run a second time with PROFILE, so their plan and
+ * db hits are logged as well. Profiling runs on a single background thread with a bounded queue,
+ * slow queries that find the queue full are logged without plan, so the calls never wait for the
+ * profiler and a load peak does not double the load. Runs outside the metrics, so profiling does
+ * not distort them.
+ * 
+ * @author Markus Lamm
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class SlowQueryAspect
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SlowQueryAspect.class);
+
+    private QueryProfiler profiler;
+
+    private long thresholdMillis;
+
+    private boolean profile;
+
+    private int profileQueueCapacity;
+
+    private ThreadPoolExecutor profileExecutor;
+
+    @PostConstruct
+    public void start() {
+        profileExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(profileQueueCapacity),
+                new CustomizableThreadFactory("tree-query-profiler-"));
+    }
+
+    @PreDestroy
+    public void stop() {
+        profileExecutor.shutdownNow();
+    }
+
+    /**
+     * Times a repository call, if the method is annotated with a query and the log is enabled
+     * 
+     * @param joinPoint the intercepted call
+     * @return result of the call
+     * @throws Throwable exception of the call
+     */
+    @Around("target(neo4j.tree.repository.TreeNodeRepository) && !execution(* java.lang.Object.*(..))")
+    public Object log(final ProceedingJoinPoint joinPoint) throws Throwable {
+        final Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        final String query = QueryProfiler.getQuery(method);
+        if (thresholdMillis < 0 || null == query) {
+            return joinPoint.proceed();
+        }
+        final long start = System.nanoTime();
+        final Object result = joinPoint.proceed();
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (elapsedMillis >= thresholdMillis) {
+            logSlowQuery(method.getName(), query, QueryProfiler.toParams(joinPoint.getArgs()), elapsedMillis);
+        }
+        return result;
+    }
+
+    /**
+     * Helper method. Logs a slow query, read queries are handed to the profiler thread and logged
+     * with their plan from there. Queries the profiler has no room for are logged at once.
+     * 
+     * @param methodName name of the repository method
+     * @param query Cypher query
+     * @param params query parameters
+     * @param elapsedMillis duration of the call
+     */
+    private void logSlowQuery(final String methodName, final String query, final Map<String, Object> params, final long elapsedMillis) {
+        if (profile && QueryProfiler.isReadOnly(query)) {
+            try {
+                profileExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        logProfiledQuery(methodName, query, params, elapsedMillis);
+                    }
+                });
+                return;
+            }
+            catch (final RejectedExecutionException e) {
+                LOG.debug("Profiler busy, slow query {} is logged without plan", methodName);
+            }
+        }
+        LOG.warn("Slow query {} took {} ms, params {}: {}", methodName, elapsedMillis, params, query);
+    }
+
+    /**
+     * Helper method. Profiles a slow read query and logs it with its plan, profiling failures are
+     * logged instead of the plan.
+     * 
+     * @param methodName name of the repository method
+     * @param query Cypher query
+     * @param params query parameters
+     * @param elapsedMillis duration of the call
+     */
+    private void logProfiledQuery(final String methodName, final String query, final Map<String, Object> params,
+            final long elapsedMillis) {
+        try {
+            final QueryProfile queryProfile = profiler.profile(query, params);
+            LOG.warn("Slow query {} took {} ms, {} db hits, params {}: {}\n{}", methodName, elapsedMillis, queryProfile.getDbHits(),
+                    params, query, queryProfile.getPlan());
+        }
+        catch (final RuntimeException e) {
+            LOG.warn("Slow query {} took {} ms, params {}: {}, unable to profile: {}", methodName, elapsedMillis, params, query,
+                    e.getMessage());
+        }
+    }
+
+    @Inject
+    protected void setProfiler(final QueryProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    @Value("${tree.slowQuery.thresholdMillis:200}")
+    protected void setThresholdMillis(final long thresholdMillis) {
+        this.thresholdMillis = thresholdMillis;
+    }
+
+    @Value("${tree.slowQuery.profile:true}")
+    protected void setProfile(final boolean profile) {
+        this.profile = profile;
+    }
+
+    @Value("${tree.slowQuery.profileQueueCapacity:10}")
+    protected void setProfileQueueCapacity(final int profileQueueCapacity) {
+        this.profileQueueCapacity = profileQueueCapacity;
+    }
+}
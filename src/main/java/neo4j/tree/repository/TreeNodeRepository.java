@@ -3,6 +3,8 @@
  */
 package neo4j.tree.repository;
 
+import java.util.List;
+
 import neo4j.tree.domain.Neo4jNode;
 
 import org.springframework.data.neo4j.annotation.Query;
@@ -15,7 +17,7 @@ import org.springframework.data.neo4j.repository.GraphRepository;
  * 
  * @author Markus Lamm
  */
-public interface TreeNodeRepository extends GraphRepository<Neo4jNode>
+public interface TreeNodeRepository extends GraphRepository<Neo4jNode>, TreeNodeRepositoryCustom
 {
     /**
      * Find node by uuid.
@@ -23,16 +25,136 @@ public interface TreeNodeRepository extends GraphRepository<Neo4jNode>
      * @param uuid query parameter
      * @return unique node
      */
-    @Query("MATCH (n:TreeNode) WHERE n.uuid = {0} RETURN n")
+    @Query("MATCH (n:TreeNode:AbstractGraphEntity) WHERE n.uuid = {0} RETURN n")
     Neo4jNode findByUuid(String uuid);
 
     /**
-     * Find root node of the tree structure
+     * Find the identifier of the tree a node belongs to
+     * 
+     * @param uuid node identifier
+     * @return tree identifier, or null if no node for the uuid exists
+     */
+    @Query("MATCH (n:TreeNode:AbstractGraphEntity) WHERE n.uuid = {0} RETURN n.treeId")
+    String findTreeId(String uuid);
+
+    /**
+     * Sets name and modification date of a node without loading it
+     * 
+     * @param uuid node identifier
+     * @param name new name
+     * @param lastModifiedDate modification date, as stored by the mapping layer
+     * @return identifier of the tree of the node, or null if no node for the uuid exists
+     */
+    @Query("MATCH (n:TreeNode:AbstractGraphEntity) WHERE n.uuid = {0} SET n.name = {1}, n.lastModifiedDate = {2} RETURN n.treeId")
+    String rename(String uuid, String name, String lastModifiedDate);
+
+    /**
+     * Find the root node of a tree
+     * 
+     * @param treeId tree identifier, the uuid of the root node
+     * @return root node, or null if no tree with the given id exists
+     */
+    @Query("MATCH (n:TreeRoot:TreeNode:AbstractGraphEntity) WHERE n.uuid = {0} RETURN n")
+    Neo4jNode findRootNode(String treeId);
+
+    /**
+     * Find the uuid of the root node of a tree without loading the node entity, i.e. checks whether
+     * the tree exists
+     * 
+     * @param treeId tree identifier, the uuid of the root node
+     * @return uuid of the root node, or null if no tree with the given id exists
+     */
+    @Query("MATCH (n:TreeRoot:TreeNode:AbstractGraphEntity) WHERE n.uuid = {0} RETURN n.uuid")
+    String findRootUuid(String treeId);
+
+    /**
+     * Find all nodes of a tree. Nodes below a node marked for deletion are skipped, they still
+     * carry the tree id until they are swept.
+     * 
+     * @param treeId tree identifier, the uuid of the root node
+     * @return nodes of the tree, not ordered
+     */
+    @Query("OPTIONAL MATCH (m:PendingDelete) WHERE m.treeId = {0} WITH collect(m.path) AS marked "
+            + "MATCH (n:TreeNode) WHERE n.treeId = {0} AND NONE(p IN marked WHERE substring(n.path, 0, length(p)) = p) RETURN n")
+    Iterable<Neo4jNode> findByTreeId(String treeId);
+
+    /**
+     * Count the nodes of a tree, nodes below a node marked for deletion are skipped
+     * 
+     * @param treeId tree identifier, the uuid of the root node
+     * @return number of nodes of the tree
+     */
+    @Query("OPTIONAL MATCH (m:PendingDelete) WHERE m.treeId = {0} WITH collect(m.path) AS marked "
+            + "MATCH (n:TreeNode) WHERE n.treeId = {0} AND NONE(p IN marked WHERE substring(n.path, 0, length(p)) = p) RETURN count(n)")
+    long countNodes(String treeId);
+
+    /**
+     * Count nodes with the root label
+     * 
+     * @return number of labeled root nodes
+     */
+    @Query("MATCH (n:TreeRoot) RETURN count(n)")
+    long countRootNodes();
+
+    /**
+     * Sets the root label on all nodes without parent. Checks every node, only meant for migrating
+     * databases that were written before the label was maintained.
+     * 
+     * @return number of labeled nodes
+     */
+    @Query("MATCH (n:TreeNode) WHERE NOT ()-[:IS_PARENT_OF]->(n) AND NOT n:TreeRoot SET n:TreeRoot RETURN count(n)")
+    long labelRootNodes();
+
+    /**
+     * Sets the tree id on all nodes of trees whose root has none. Only meant for migrating
+     * databases that were written before the tree id was maintained.
+     * 
+     * @return number of updated nodes
+     */
+    @Query("MATCH (r:TreeRoot:TreeNode) WHERE NOT has(r.treeId) MATCH (r)-[:IS_PARENT_OF*0..]->(n) SET n.treeId = r.uuid RETURN count(n)")
+    long setMissingTreeIds();
+
+    /**
+     * Count the nodes of all trees, nodes below a node marked for deletion are skipped
+     * 
+     * @return number of stored nodes
+     */
+    @Query("OPTIONAL MATCH (m:PendingDelete) WITH collect(m.path) AS marked "
+            + "MATCH (n:TreeNode) WHERE NONE(p IN marked WHERE substring(n.path, 0, length(p)) = p) RETURN count(n)")
+    long countNodes();
+
+    /**
+     * Detaches the node with the given uuid from its parent and marks it for deletion. Marked
+     * nodes lose the TreeNode and TreeRoot labels, so they are no longer part of any tree query.
+     * Their descendants keep their labels until they are swept, queries by tree id or name skip
+     * them by the path of the marked node.
+     * 
+     * @param uuid node identifier
+     * @return number of marked nodes, 0 if no node was found
+     */
+    @Query("MATCH (n:TreeNode:AbstractGraphEntity) WHERE n.uuid = {0} OPTIONAL MATCH ()-[r:IS_PARENT_OF]->(n) "
+            + "DELETE r REMOVE n:TreeNode:TreeRoot SET n:PendingDelete RETURN count(DISTINCT n)")
+    long markForDeletion(String uuid);
+
+    /**
+     * Find the nodes marked for deletion whose subtree is not swept yet
+     * 
+     * @return uuids of the marked nodes
+     */
+    @Query("MATCH (m:PendingDelete:AbstractGraphEntity) RETURN m.uuid")
+    List<String> findMarkedUuids();
+
+    /**
+     * Replaces the parent relationship of a node
      * 
-     * @return unique node with no parent
+     * @param uuid identifier of the node to move
+     * @param newParentUuid identifier of the new parent node
+     * @param lastModifiedDate modification date, as stored by the mapping layer
+     * @return number of moved nodes, 0 if one of the nodes was not found or the node is the root
      */
-    @Query("MATCH n WHERE NOT ()-[:IS_PARENT_OF]->(n:TreeNode) RETURN n")
-    Neo4jNode findRootNode();
+    @Query("MATCH (n:TreeNode:AbstractGraphEntity) WHERE n.uuid = {0} MATCH (p:TreeNode:AbstractGraphEntity) WHERE p.uuid = {1} "
+            + "MATCH ()-[r:IS_PARENT_OF]->(n) DELETE r CREATE (p)-[:IS_PARENT_OF]->(n) SET n.lastModifiedDate = {2} RETURN count(n)")
+    long reparent(String uuid, String newParentUuid, String lastModifiedDate);
 
     /**
      * Find nodes by name
@@ -0,0 +1,253 @@
+/**
+ * 
+ */
+package neo4j.tree.repository;
+
+import java.util.List;
+
+import neo4j.tree.domain.NodeDetail;
+import neo4j.tree.domain.NodeProjection;
+import neo4j.tree.domain.SearchHit;
+import neo4j.tree.domain.SearchMode;
+import neo4j.tree.domain.SubtreeAggregates;
+
+/**
+ * Data access operations that are implemented against the graph database API instead of derived
+ * or annotated queries. Implemented by {@link TreeNodeRepositoryImpl}, exposed through
+ * {@link TreeNodeRepository}.
+ * 
+ * @author Markus Lamm
+ */
+public interface TreeNodeRepositoryCustom
+{
+    /**
+     * Traverses the subtree of the node with the given uuid in depth-first order, the children of a
+     * node in sibling order. The result is produced lazily while iterating and has to be consumed
+     * within a transaction.
+     * 
+     * @param startUuid identifier of the traversal start
+     * @return flat nodes in preorder, empty if no node for the uuid exists
+     */
+    Iterable<NodeProjection> findPreordered(String startUuid);
+
+    /**
+     * Traverses a window of the subtree of the node with the given uuid in depth-first order, the
+     * children of a node in sibling order. Branches below maxDepth are not expanded, skipped nodes
+     * are not mapped. The result is produced lazily while iterating and has to be consumed within a
+     * transaction. The nodes before the offset are still traversed, so the cost of a window grows
+     * with its offset.
+     * 
+     * @param startUuid identifier of the traversal start
+     * @param maxDepth deepest level to traverse, relative to the start node
+     * @param offset preorder position of the first node
+     * @param limit maximum number of nodes
+     * @return flat nodes in preorder, empty if no node for the uuid exists
+     */
+    Iterable<NodeProjection> findPreordered(String startUuid, int maxDepth, int offset, int limit);
+
+    /**
+     * Finds all descendants of the node with the given uuid by a prefix lookup of its materialized
+     * path. The depth of the results is their depth in the tree, the root has depth 0. The result
+     * is not ordered and has to be consumed within a transaction.
+     * 
+     * @param uuid node identifier
+     * @return flat descendants, empty if no node for the uuid exists
+     */
+    Iterable<NodeProjection> findDescendants(String uuid);
+
+    /**
+     * Finds all ancestors of the node with the given uuid by lookups of the uuids in its
+     * materialized path. The depth of the results is their depth in the tree, the root has depth 0.
+     * 
+     * @param uuid node identifier
+     * @return flat ancestors, root first, empty for the root or if no node for the uuid exists
+     */
+    Iterable<NodeProjection> findAncestors(String uuid);
+
+    /**
+     * Checks by comparing the materialized paths whether one node is an ancestor of the other
+     * 
+     * @param ancestorUuid identifier of the ancestor candidate
+     * @param descendantUuid identifier of the descendant candidate
+     * @return true, if the first node is a proper ancestor of the second one
+     */
+    boolean isAncestorOf(String ancestorUuid, String descendantUuid);
+
+    /**
+     * Finds the flat view of the node with the given uuid. The depth is the depth in the tree.
+     * 
+     * @param uuid node identifier
+     * @return flat node, null if no node for the uuid exists or its path is not maintained
+     */
+    NodeProjection findProjection(String uuid);
+
+    /**
+     * Finds the flat view of the node with the given uuid together with the name of its parent and
+     * up to childLimit of its children, ordered by position. Only the node, its parent and the
+     * returned children are read.
+     * 
+     * @param uuid node identifier
+     * @param afterPosition position the children have to follow, 0 for the first child
+     * @param childLimit maximum number of children
+     * @return node detail, null if no node for the uuid exists or its path is not maintained
+     */
+    NodeDetail findDetail(String uuid, long afterPosition, int childLimit);
+
+    /**
+     * Finds a page of the children of a node in the order of their positions among the siblings, by
+     * a range query of the position index. Positions changed by the running transaction are indexed
+     * on commit.
+     * 
+     * @param parentUuid identifier of the parent node
+     * @param afterPosition position the children have to follow, 0 for the first child
+     * @param limit maximum number of children
+     * @return flat children, null if no node for the uuid exists
+     */
+    List<NodeProjection> findChildren(String parentUuid, long afterPosition, int limit);
+
+    /**
+     * Moves a node to the given index among its siblings, by giving it a position between its new
+     * neighbours. An index past the last sibling places the node last.
+     * 
+     * @param uuid node identifier
+     * @param index new index among the siblings, 0 for the first place
+     * @return the new position, null if no node for the uuid exists or it is a root
+     */
+    Long placeChild(String uuid, int index);
+
+    /**
+     * Finds the flat views of the root nodes of all trees by a scan of the root label
+     * 
+     * @return flat root nodes, ordered by name
+     */
+    List<NodeProjection> findRootNodes();
+
+    /**
+     * Searches nodes by the words of their names in the full-text name index. Every search word has
+     * to match a word of the name, case insensitive. Hits are ranked by relevance, whole word
+     * matches before partial ones.
+     * 
+     * @param text search words, separated by whitespace
+     * @param mode how the search words are matched
+     * @param treeId identifier of the tree to search in, null to search all trees
+     * @param offset rank of the first hit
+     * @param limit maximum number of hits
+     * @return hits with the ancestor names of each node, most relevant first
+     */
+    List<SearchHit> searchByName(String text, SearchMode mode, String treeId, int offset, int limit);
+
+    /**
+     * Creates a node without the mapping layer. Uuid, audit dates, depth, path and tree id are set
+     * the same way they are set for saved entities, a node without parent gets the root label. The
+     * child count of the parent is not updated. A node with parent is marked pending, its ancestors
+     * get its aggregates from {@link #applyPendingAggregates(List)}.
+     * 
+     * @param name name of the node
+     * @param parent flat view of the parent node, null for a root node
+     * @return flat view of the created node
+     */
+    NodeProjection createNode(String name, NodeProjection parent);
+
+    /**
+     * Creates a node below the parent with the given uuid like {@link #createNode(String, NodeProjection)}.
+     * Only the new node and its relationship to the parent are written, the other children of the
+     * parent are neither loaded nor locked.
+     * 
+     * @param name name of the node
+     * @param parentUuid identifier of the parent node
+     * @return flat view of the created node, or null if there is no parent with this uuid
+     */
+    NodeProjection addChild(String name, String parentUuid);
+
+    /**
+     * Reads the stored aggregates of the subtree below a node
+     * 
+     * @param uuid node identifier
+     * @return aggregates, or null if there is no node with this uuid
+     */
+    SubtreeAggregates findAggregates(String uuid);
+
+    /**
+     * Takes the write locks of the given nodes and all their ancestors, top-down, and holds them
+     * until the transaction ends. Writers that change the aggregates of ancestors take their locks
+     * in the same order, a write that changes two chains has to lock both with one call.
+     * 
+     * @param uuids node identifiers, unknown ones are skipped
+     */
+    void lockAncestors(String... uuids);
+
+    /**
+     * Adds the aggregates of pending nodes to their ancestors and removes their pending mark. Only
+     * the ancestors up to the first pending one are locked and written, they are written once for
+     * all given nodes.
+     * 
+     * @param uuids node identifiers, nodes that are not pending are skipped
+     * @return number of applied nodes
+     */
+    long applyPendingAggregates(List<String> uuids);
+
+    /**
+     * Adds the aggregates of all pending nodes of a tree to their ancestors, e.g. of nodes whose
+     * writer stopped between the insert and its aggregates
+     * 
+     * @param treeId tree identifier, null for all trees
+     * @return number of applied nodes
+     */
+    long applyAllPendingAggregates(String treeId);
+
+    /**
+     * Adds the aggregates of the subtree of a node to all its ancestors. Has to be called after the
+     * node was attached to its parent. The ancestors are locked top-down and the pending nodes of
+     * the tree are applied first.
+     * 
+     * @param uuid identifier of the attached node
+     */
+    void addToAncestors(String uuid);
+
+    /**
+     * Removes the aggregates of the subtree of a node from all its ancestors. Has to be called
+     * before the node is detached from its parent. Locks and pending nodes are handled like in
+     * {@link #addToAncestors(String)}.
+     * 
+     * @param uuid identifier of the node to detach
+     */
+    void subtractFromAncestors(String uuid);
+
+    /**
+     * Recomputes path, depth and tree id of a node and its subtree from the parent. Has to be
+     * called in the transaction that attached the node to its new parent.
+     * 
+     * @param uuid identifier of the moved node
+     * @return number of rewritten nodes, 0 if there is no node with this uuid or it is a root
+     */
+    long rewritePaths(String uuid);
+
+    /**
+     * Deletes up to batchSize nodes of the subtree below the marked node with the given uuid, found
+     * by the path prefix, so repeated calls delete the subtree batchwise. The marked node is
+     * deleted last, by the first call that finds no other node, so an interrupted sweep can be
+     * resumed and the remaining nodes stay hidden until then.
+     * 
+     * @param uuid identifier of the node that was marked for deletion
+     * @param batchSize maximum number of nodes to delete
+     * @return number of deleted nodes, 0 if the subtree is gone
+     */
+    long deleteMarked(String uuid, int batchSize);
+
+    /**
+     * Recomputes the aggregates and child counts of every node in the subtree of a node from
+     * scratch, bottom-up, after the pending nodes of the tree were applied. Only nodes whose stored
+     * values differ are written.
+     * 
+     * @param uuid identifier of the subtree root
+     * @return number of corrected nodes
+     */
+    long repairAggregates(String uuid);
+
+    /**
+     * Recomputes the aggregates of all trees whose root has none stored
+     * 
+     * @return number of corrected nodes
+     */
+    long repairMissingAggregates();
+}
@@ -0,0 +1,1253 @@
+/**
+ * 
+ */
+package neo4j.tree.repository;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.domain.NodeDetail;
+import neo4j.tree.domain.NodeProjection;
+import neo4j.tree.domain.SearchHit;
+import neo4j.tree.domain.SearchMode;
+import neo4j.tree.domain.SubtreeAggregates;
+import neo4j.tree.event.BeforeEntitySavedListener;
+import neo4j.tree.event.ChildCounter;
+import neo4j.tree.event.NodeNameIndexer;
+import neo4j.tree.event.SiblingPositionIndexer;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.graphdb.index.ReadableIndex;
+import org.neo4j.index.lucene.QueryContext;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicates;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Implementation of custom repository operations. Works directly on the embedded
+ * GraphDatabaseService and never maps node entities.
+ * 
+ * @author Markus Lamm
+ */
+public class TreeNodeRepositoryImpl implements TreeNodeRepositoryCustom
+{
+    static final RelationshipType IS_PARENT_OF = DynamicRelationshipType.withName("IS_PARENT_OF");
+
+    /**
+     * The label the unique uuid index is defined on
+     */
+    static final Label ENTITY_LABEL = DynamicLabel.label("AbstractGraphEntity");
+
+    /**
+     * Labels the mapping layer sets on Neo4jNode entities, the last one carries the type alias
+     */
+    private static final Label[] NODE_LABELS = { ENTITY_LABEL, DynamicLabel.label("TreeNode"), DynamicLabel.label("_TreeNode") };
+
+    private static final Label ROOT_LABEL = DynamicLabel.label(Neo4jNode.ROOT_LABEL);
+
+    static final String UUID = "uuid";
+    static final String NAME = "name";
+    static final String PATH = "path";
+    static final String DEPTH = "depth";
+    static final String TREE_ID = "treeId";
+    static final String CREATED_DATE = "createdDate";
+    static final String LAST_MODIFIED_DATE = "lastModifiedDate";
+    static final String DESCENDANT_COUNT = "descendantCount";
+    static final String LEAF_COUNT = "leafCount";
+    static final String HEIGHT = "height";
+
+    /**
+     * Label of the nodes whose subtree is not part of the aggregates of their ancestors yet
+     */
+    static final Label AGGREGATES_PENDING = DynamicLabel.label("AggregatesPending");
+
+    /**
+     * Change of the leaf count of the ancestors of a pending node besides its own leaves, -1 if its
+     * parent was a leaf before
+     */
+    static final String LEAF_OFFSET = "pendingLeafOffset";
+
+    /**
+     * Label of a detached node whose subtree is still to be deleted
+     */
+    static final Label PENDING_DELETE = DynamicLabel.label("PendingDelete");
+
+    /**
+     * Boost of whole word matches over partial matches of a search word
+     */
+    private static final float WORD_MATCH_BOOST = 2.0f;
+
+    private GraphDatabaseService graphDatabaseService;
+
+    /**
+     * Maps a node to its flat view, parent and depth are read from the materialized path
+     */
+    private static final Function<Node, NodeProjection> PATH_TO_PROJECTION = new Function<Node, NodeProjection>() {
+        @Override
+        public NodeProjection apply(final Node node) {
+            final String[] uuids = splitPath((String) node.getProperty(PATH));
+            final String parentUuid = (uuids.length > 1) ? uuids[uuids.length - 2] : null;
+            return toProjection(node, parentUuid, uuids.length - 1);
+        }
+    };
+
+    /**
+     * Orders flat nodes by name
+     */
+    private static final Comparator<NodeProjection> BY_NAME = new Comparator<NodeProjection>() {
+        @Override
+        public int compare(final NodeProjection first, final NodeProjection second) {
+            return ObjectUtils.compare(first.getName(), second.getName());
+        }
+    };
+
+    /**
+     * Orders siblings by their position, children attached without position yet come last in the
+     * order they were created
+     */
+    private static final Comparator<Node> BY_POSITION = new Comparator<Node>() {
+        @Override
+        public int compare(final Node first, final Node second) {
+            final int byPosition = Long.compare(getSortPosition(first), getSortPosition(second));
+            return (0 != byPosition) ? byPosition : Long.compare(first.getId(), second.getId());
+        }
+    };
+
+    /**
+     * Lock order of nodes, top-down and by id within a level
+     */
+    private static final Comparator<Node> BY_DEPTH = new Comparator<Node>() {
+        @Override
+        public int compare(final Node first, final Node second) {
+            final int byDepth = Integer.compare(getDepth(first), getDepth(second));
+            return (0 != byDepth) ? byDepth : Long.compare(first.getId(), second.getId());
+        }
+    };
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#findPreordered(java.lang.String)
+     */
+    @Override
+    public Iterable<NodeProjection> findPreordered(final String startUuid) {
+        return findPreordered(startUuid, Integer.MAX_VALUE, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#findPreordered(java.lang.String, int, int,
+     * int)
+     */
+    @Override
+    public Iterable<NodeProjection> findPreordered(final String startUuid, final int maxDepth, final int offset, final int limit) {
+        final Node start = findNode(startUuid);
+        if (null == start) {
+            return Collections.emptyList();
+        }
+        final Node parent = getParent(start);
+        final String parentUuid = (null == parent) ? null : (String) parent.getProperty(UUID, null);
+        return new Iterable<NodeProjection>() {
+            @Override
+            public Iterator<NodeProjection> iterator() {
+                return new PreorderIterator(start, parentUuid, maxDepth, offset, limit);
+            }
+        };
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#findDescendants(java.lang.String)
+     */
+    @Override
+    public Iterable<NodeProjection> findDescendants(final String uuid) {
+        final Node node = findNode(uuid);
+        if (null == node || !node.hasProperty(PATH)) {
+            return Collections.emptyList();
+        }
+        final ReadableIndex<Node> pathIndex = graphDatabaseService.index().getNodeAutoIndexer().getAutoIndex();
+        // prefix query, the hits contain the node itself
+        final Iterable<Node> subtree = pathIndex.query(PATH, node.getProperty(PATH) + "*");
+        return Iterables.transform(Iterables.filter(subtree, Predicates.not(Predicates.equalTo(node))), PATH_TO_PROJECTION);
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#findAncestors(java.lang.String)
+     */
+    @Override
+    public Iterable<NodeProjection> findAncestors(final String uuid) {
+        final Node node = findNode(uuid);
+        if (null == node || !node.hasProperty(PATH)) {
+            return Collections.emptyList();
+        }
+        final String[] uuids = splitPath((String) node.getProperty(PATH));
+        final List<NodeProjection> ancestors = Lists.newArrayListWithCapacity(uuids.length - 1);
+        for (int i = 0; i < uuids.length - 1; i++) {
+            final Node ancestor = findNode(uuids[i]);
+            if (null != ancestor) {
+                ancestors.add(PATH_TO_PROJECTION.apply(ancestor));
+            }
+        }
+        return ancestors;
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#isAncestorOf(java.lang.String,
+     * java.lang.String)
+     */
+    @Override
+    public boolean isAncestorOf(final String ancestorUuid, final String descendantUuid) {
+        final Node ancestor = findNode(ancestorUuid);
+        final Node descendant = findNode(descendantUuid);
+        if (null == ancestor || null == descendant || ancestor.equals(descendant)) {
+            return false;
+        }
+        final String ancestorPath = (String) ancestor.getProperty(PATH, null);
+        final String descendantPath = (String) descendant.getProperty(PATH, null);
+        return null != ancestorPath && null != descendantPath && descendantPath.startsWith(ancestorPath);
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#findProjection(java.lang.String)
+     */
+    @Override
+    public NodeProjection findProjection(final String uuid) {
+        final Node node = findNode(uuid);
+        if (null == node || !node.hasProperty(PATH)) {
+            return null;
+        }
+        return PATH_TO_PROJECTION.apply(node);
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#findDetail(java.lang.String, long, int)
+     */
+    @Override
+    public NodeDetail findDetail(final String uuid, final long afterPosition, final int childLimit) {
+        final Node node = findNode(uuid);
+        if (null == node || !node.hasProperty(PATH)) {
+            return null;
+        }
+        final Node parent = getParent(node);
+        final String parentName = (null == parent) ? null : (String) parent.getProperty(NAME, null);
+        final List<Node> childNodes = findChildNodes(node, afterPosition, childLimit + 1);
+        final List<NodeProjection> children = Lists.newArrayListWithCapacity(childNodes.size());
+        for (final Node child : Iterables.limit(childNodes, childLimit)) {
+            children.add(PATH_TO_PROJECTION.apply(child));
+        }
+        return new NodeDetail(PATH_TO_PROJECTION.apply(node), parentName, children, childNodes.size() > childLimit);
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#findChildren(java.lang.String, long, int)
+     */
+    @Override
+    public List<NodeProjection> findChildren(final String parentUuid, final long afterPosition, final int limit) {
+        final Node parent = findNode(parentUuid);
+        if (null == parent) {
+            return null;
+        }
+        return Lists.newArrayList(Iterables.transform(findChildNodes(parent, afterPosition, limit), PATH_TO_PROJECTION));
+    }
+
+    /**
+     * The node is placed between the siblings that are at index - 1 and index without it. If their
+     * positions are adjacent, all siblings are renumbered. The parent is locked before the positions
+     * are read, so concurrent placements below the same parent do not hand out the same position.
+     * 
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#placeChild(java.lang.String, int)
+     */
+    @Override
+    public Long placeChild(final String uuid, final int index) {
+        final Node node = findNode(uuid);
+        final Node parent = (null == node) ? null : lockParent(node);
+        if (null == parent) {
+            return null;
+        }
+        final List<Node> siblings = findChildNodes(parent, 0, index + 2);
+        siblings.remove(node);
+        if (index >= siblings.size()) {
+            return SiblingPositionIndexer.append(parent, node);
+        }
+        final long before = (index == 0) ? 0 : SiblingPositionIndexer.getPosition(siblings.get(index - 1));
+        final long after = SiblingPositionIndexer.getPosition(siblings.get(index));
+        if (after - before > 1) {
+            final long position = before + (after - before) / 2;
+            node.setProperty(SiblingPositionIndexer.POSITION, position);
+            return position;
+        }
+        final List<Node> all = findChildNodes(parent, 0, ChildCounter.getChildCount(parent) + 1);
+        all.remove(node);
+        all.add(index, node);
+        long position = 0;
+        for (final Node child : all) {
+            position += SiblingPositionIndexer.POSITION_GAP;
+            child.setProperty(SiblingPositionIndexer.POSITION, position);
+        }
+        parent.setProperty(SiblingPositionIndexer.LAST_CHILD_POSITION, position);
+        return SiblingPositionIndexer.getPosition(node);
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#findRootNodes()
+     */
+    @Override
+    public List<NodeProjection> findRootNodes() {
+        final List<NodeProjection> roots = Lists.newArrayList();
+        try (final ResourceIterator<Node> nodes = GlobalGraphOperations.at(graphDatabaseService).getAllNodesWithLabel(ROOT_LABEL)
+                .iterator()) {
+            while (nodes.hasNext()) {
+                final Node root = nodes.next();
+                if (root.hasProperty(PATH)) {
+                    roots.add(PATH_TO_PROJECTION.apply(root));
+                }
+            }
+        }
+        Collections.sort(roots, BY_NAME);
+        return roots;
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#searchByName(java.lang.String,
+     * neo4j.tree.domain.SearchMode, java.lang.String, int, int)
+     */
+    @Override
+    public List<SearchHit> searchByName(final String text, final SearchMode mode, final String treeId, final int offset,
+            final int limit) {
+        final List<SearchHit> result = Lists.newArrayList();
+        final String[] words = StringUtils.split(StringUtils.lowerCase(text, Locale.ENGLISH));
+        if (null == words || words.length == 0) {
+            return result;
+        }
+        final BooleanQuery query = new BooleanQuery();
+        for (final String word : words) {
+            query.add(toWordQuery(word, mode), Occur.MUST);
+        }
+        if (null != treeId) {
+            query.add(new TermQuery(new Term(NodeNameIndexer.TREE_ID, treeId.toLowerCase(Locale.ENGLISH))), Occur.MUST);
+        }
+        // ancestors are shared by many hits, their names are looked up once per search
+        final Map<String, String> ancestorNames = Maps.newHashMap();
+        final List<String> markedPaths = findMarkedPaths();
+        final QueryContext context = new QueryContext(query).sortByScore();
+        if (markedPaths.isEmpty()) {
+            context.top(offset + limit);
+        }
+        try (final IndexHits<Node> hits = NodeNameIndexer.getIndex(graphDatabaseService).query(context)) {
+            int position = 0;
+            while (hits.hasNext() && result.size() < limit) {
+                final Node node = hits.next();
+                if (!node.hasProperty(PATH) || isMarked((String) node.getProperty(PATH), markedPaths)) {
+                    continue;
+                }
+                if (position++ >= offset) {
+                    final NodeProjection projection = PATH_TO_PROJECTION.apply(node);
+                    result.add(new SearchHit(projection, hits.currentScore(), getBreadcrumb(projection.getPath(), ancestorNames)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#createNode(java.lang.String,
+     * neo4j.tree.domain.NodeProjection)
+     */
+    @Override
+    public NodeProjection createNode(final String name, final NodeProjection parent) {
+        return create(name, (null == parent) ? null : graphDatabaseService.getNodeById(parent.getNodeId()));
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#addChild(java.lang.String,
+     * java.lang.String)
+     */
+    @Override
+    public NodeProjection addChild(final String name, final String parentUuid) {
+        final Node parent = findNode(parentUuid);
+        if (null == parent || !parent.hasProperty(PATH)) {
+            return null;
+        }
+        return create(name, parent);
+    }
+
+    /**
+     * Helper method. Creates a node below the given parent, depth, path and tree id are derived
+     * from the path of the parent. The path is read once the parent is locked, a move rewrites it
+     * under the same lock. The node is marked pending, only the parent is locked until commit.
+     * 
+     * @param name name of the node
+     * @param parent parent node, null for a root node
+     * @return flat view of the created node
+     */
+    private NodeProjection create(final String name, final Node parent) {
+        if (null != parent) {
+            lock(parent);
+        }
+        final String uuid = BeforeEntitySavedListener.generateUuid();
+        // dates are stored the way the mapping layer converts them
+        final String now = String.valueOf(System.currentTimeMillis());
+        final String parentPath = (null == parent) ? Neo4jNode.PATH_SEPARATOR : (String) parent.getProperty(PATH);
+        final String[] parentUuids = splitPath(parentPath);
+        final int depth = parentUuids.length;
+        final String path = parentPath + uuid + Neo4jNode.PATH_SEPARATOR;
+        final String treeId = (null == parent) ? uuid : parentUuids[0];
+        final Node node = graphDatabaseService.createNode(NODE_LABELS);
+        node.setProperty(UUID, uuid);
+        node.setProperty(NAME, name);
+        node.setProperty(DEPTH, depth);
+        node.setProperty(PATH, path);
+        node.setProperty(TREE_ID, treeId);
+        node.setProperty(CREATED_DATE, now);
+        node.setProperty(LAST_MODIFIED_DATE, now);
+        setAggregates(node, 0L, 1L, 0);
+        if (null == parent) {
+            node.addLabel(ROOT_LABEL);
+        }
+        else {
+            parent.createRelationshipTo(node, IS_PARENT_OF);
+            SiblingPositionIndexer.append(parent, node);
+            node.addLabel(AGGREGATES_PENDING);
+            node.setProperty(LEAF_OFFSET, hasOtherChild(parent, node) ? 0L : -1L);
+        }
+        return toProjection(node, (null == parent) ? null : parentUuids[parentUuids.length - 1], depth);
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#findAggregates(java.lang.String)
+     */
+    @Override
+    public SubtreeAggregates findAggregates(final String uuid) {
+        final Node node = findNode(uuid);
+        return (null == node) ? null : getAggregates(node);
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#lockAncestors(java.lang.String[])
+     */
+    @Override
+    public void lockAncestors(final String... uuids) {
+        lockChains(findNodes(Arrays.asList(uuids)), false);
+    }
+
+    /**
+     * The changes of all ancestors are summed up first, so an ancestor shared by many pending nodes
+     * is written once.
+     * 
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#applyPendingAggregates(java.util.List)
+     */
+    @Override
+    public long applyPendingAggregates(final List<String> uuids) {
+        return applyPending(findNodes(uuids));
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#applyAllPendingAggregates(java.lang.String)
+     */
+    @Override
+    public long applyAllPendingAggregates(final String treeId) {
+        final List<Node> nodes = Lists.newArrayList();
+        try (final ResourceIterator<Node> pending = GlobalGraphOperations.at(graphDatabaseService)
+                .getAllNodesWithLabel(AGGREGATES_PENDING).iterator()) {
+            while (pending.hasNext()) {
+                final Node node = pending.next();
+                if (null == treeId || treeId.equals(node.getProperty(TREE_ID, null))) {
+                    nodes.add(node);
+                }
+            }
+        }
+        return applyPending(nodes);
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#addToAncestors(java.lang.String)
+     */
+    @Override
+    public void addToAncestors(final String uuid) {
+        final Node node = findNode(uuid);
+        if (null != node) {
+            addToAncestors(node);
+        }
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#subtractFromAncestors(java.lang.String)
+     */
+    @Override
+    public void subtractFromAncestors(final String uuid) {
+        final Node node = findNode(uuid);
+        if (null != node) {
+            subtractFromAncestors(node);
+        }
+    }
+
+    /**
+     * The batch is collected before it is deleted, the hits of the path index are read lazily.
+     * 
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#deleteMarked(java.lang.String, int)
+     */
+    @Override
+    public long deleteMarked(final String uuid, final int batchSize) {
+        final Node marked = findNode(uuid);
+        if (null == marked || !marked.hasLabel(PENDING_DELETE)) {
+            return 0;
+        }
+        final ReadableIndex<Node> pathIndex = graphDatabaseService.index().getNodeAutoIndexer().getAutoIndex();
+        final List<Node> batch = Lists.newArrayListWithCapacity(batchSize);
+        // prefix query, the hits contain the marked node itself
+        try (final IndexHits<Node> hits = pathIndex.query(PATH, new QueryContext(marked.getProperty(PATH) + "*").top(batchSize + 1))) {
+            while (hits.hasNext() && batch.size() < batchSize) {
+                final Node node = hits.next();
+                if (!node.equals(marked)) {
+                    batch.add(node);
+                }
+            }
+        }
+        if (batch.isEmpty()) {
+            batch.add(marked);
+        }
+        for (final Node node : batch) {
+            for (final Relationship rel : node.getRelationships()) {
+                rel.delete();
+            }
+            node.delete();
+        }
+        return batch.size();
+    }
+
+    /**
+     * Each node is written before its children are read, an insert below the subtree locks its
+     * parent and so reads either the old path before the rewrite or waits for the new one.
+     * 
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#rewritePaths(java.lang.String)
+     */
+    @Override
+    public long rewritePaths(final String uuid) {
+        final Node start = findNode(uuid);
+        if (null == start || null == getParent(start)) {
+            return 0;
+        }
+        long rewritten = 0;
+        final Deque<Node> stack = new ArrayDeque<Node>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            final Node node = stack.pop();
+            final Node parent = getParent(node);
+            final String parentPath = (String) parent.getProperty(PATH);
+            final String[] parentUuids = splitPath(parentPath);
+            node.setProperty(PATH, parentPath + node.getProperty(UUID) + Neo4jNode.PATH_SEPARATOR);
+            node.setProperty(DEPTH, parentUuids.length);
+            node.setProperty(TREE_ID, parentUuids[0]);
+            rewritten++;
+            for (final Relationship rel : node.getRelationships(IS_PARENT_OF, Direction.OUTGOING)) {
+                stack.push(rel.getEndNode());
+            }
+        }
+        return rewritten;
+    }
+
+    /**
+     * Walks the subtree depth-first with an explicit stack, so deep trees do not overflow the call
+     * stack. A node is written when all its children are done.
+     * 
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#repairAggregates(java.lang.String)
+     */
+    @Override
+    public long repairAggregates(final String uuid) {
+        final Node start = findNode(uuid);
+        if (null == start) {
+            return 0;
+        }
+        // pending nodes would be counted again once they are applied
+        applyAllPendingAggregates((String) start.getProperty(TREE_ID, null));
+        return repairAggregates(start);
+    }
+
+    /**
+     * @see neo4j.tree.repository.TreeNodeRepositoryCustom#repairMissingAggregates()
+     */
+    @Override
+    public long repairMissingAggregates() {
+        long repaired = 0;
+        try (final ResourceIterator<Node> roots = GlobalGraphOperations.at(graphDatabaseService).getAllNodesWithLabel(ROOT_LABEL)
+                .iterator()) {
+            while (roots.hasNext()) {
+                final Node root = roots.next();
+                if (!root.hasProperty(DESCENDANT_COUNT)) {
+                    repaired += repairAggregates(root);
+                }
+            }
+        }
+        return repaired;
+    }
+
+    /**
+     * Index lookup of a node by uuid
+     * 
+     * @param uuid node identifier
+     * @return the node, or null
+     */
+    Node findNode(final String uuid) {
+        try (final ResourceIterator<Node> nodes = graphDatabaseService.findNodesByLabelAndProperty(ENTITY_LABEL, UUID, uuid)
+                .iterator()) {
+            return nodes.hasNext() ? nodes.next() : null;
+        }
+    }
+
+    /**
+     * Helper method. Index lookup of nodes by uuid, unknown uuids are skipped
+     * 
+     * @param uuids node identifiers
+     * @return the nodes
+     */
+    private List<Node> findNodes(final List<String> uuids) {
+        final List<Node> nodes = Lists.newArrayListWithCapacity(uuids.size());
+        for (final String uuid : uuids) {
+            final Node node = findNode(uuid);
+            if (null != node) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Helper method. Looks up children in the position index, ordered by their position. Children
+     * attached or moved by the running transaction are indexed on commit.
+     * 
+     * @param parent parent node
+     * @param afterPosition position the children have to follow, 0 for the first child
+     * @param limit maximum number of children
+     * @return child nodes
+     */
+    private List<Node> findChildNodes(final Node parent, final long afterPosition, final int limit) {
+        final List<Node> children = Lists.newArrayList();
+        if (limit < 1) {
+            return children;
+        }
+        final BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(new Term(SiblingPositionIndexer.PARENT, String.valueOf(parent.getId()))), Occur.MUST);
+        query.add(NumericRangeQuery.newLongRange(SiblingPositionIndexer.POSITION, afterPosition, null, false, true), Occur.MUST);
+        final Sort byPosition = new Sort(new SortField(SiblingPositionIndexer.POSITION, SortField.LONG));
+        final QueryContext context = new QueryContext(query).sort(byPosition).top(limit);
+        try (final IndexHits<Node> hits = SiblingPositionIndexer.getIndex(graphDatabaseService).query(context)) {
+            while (hits.hasNext() && children.size() < limit) {
+                children.add(hits.next());
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Helper method. Adds the aggregates of pending nodes to their ancestors, deepest nodes first.
+     * The walk up from a node stops at the first ancestor that is pending itself, its own
+     * aggregates carry the node further up once it is applied. The changes are summed up per
+     * ancestor and written at the end, after all written nodes were locked top-down.
+     * 
+     * @param nodes pending nodes, nodes that are not pending are skipped
+     * @return number of applied nodes
+     */
+    private long applyPending(final List<Node> nodes) {
+        Collections.sort(nodes, Collections.reverseOrder(BY_DEPTH));
+        lockChains(nodes, true);
+        final Map<Node, AggregatesChange> changes = Maps.newLinkedHashMap();
+        long applied = 0;
+        for (final Node node : nodes) {
+            if (!node.hasLabel(AGGREGATES_PENDING)) {
+                continue;
+            }
+            final SubtreeAggregates stored = getAggregates(node);
+            final AggregatesChange own = changes.containsKey(node) ? changes.get(node) : new AggregatesChange();
+            final long descendants = stored.getDescendantCount() + own.descendantCount + 1;
+            final long leaves = stored.getLeafCount() + own.leafCount + ((Number) node.getProperty(LEAF_OFFSET, 0L)).longValue();
+            final int height = Math.max(stored.getHeight(), own.height);
+            int distance = 1;
+            for (Node ancestor = getParent(node); null != ancestor; ancestor = getParent(ancestor)) {
+                AggregatesChange change = changes.get(ancestor);
+                if (null == change) {
+                    change = new AggregatesChange();
+                    changes.put(ancestor, change);
+                }
+                change.descendantCount += descendants;
+                change.leafCount += leaves;
+                change.height = Math.max(change.height, height + distance++);
+                if (ancestor.hasLabel(AGGREGATES_PENDING)) {
+                    break;
+                }
+            }
+            node.removeLabel(AGGREGATES_PENDING);
+            node.removeProperty(LEAF_OFFSET);
+            applied++;
+        }
+        for (final Map.Entry<Node, AggregatesChange> entry : changes.entrySet()) {
+            final SubtreeAggregates current = getAggregates(entry.getKey());
+            final AggregatesChange change = entry.getValue();
+            setAggregates(entry.getKey(), current.getDescendantCount() + change.descendantCount, current.getLeafCount()
+                    + change.leafCount, Math.max(current.getHeight(), change.height));
+        }
+        return applied;
+    }
+
+    /**
+     * Helper method. Applies the pending nodes of the tree a node belongs to, so the stored
+     * aggregates of its ancestors and their children are complete before they are changed. Has to
+     * be called with the ancestors of the node locked, pending children attached to them later do
+     * not exist yet.
+     * 
+     * @param node graph node
+     */
+    private void applyPendingOfTree(final Node node) {
+        Node top = node;
+        for (Node ancestor = getParent(node); null != ancestor; ancestor = getParent(ancestor)) {
+            top = ancestor;
+        }
+        applyAllPendingAggregates((String) top.getProperty(UUID, null));
+    }
+
+    /**
+     * Helper method. Adds the aggregates of an attached subtree to the ancestors. The parent only
+     * stops being a leaf if the subtree is its only child. The ancestors are locked top-down and
+     * the pending nodes of the tree are applied before the aggregates are read.
+     * 
+     * @param node root of the attached subtree
+     */
+    private void addToAncestors(final Node node) {
+        final Node parent = getParent(node);
+        if (null == parent) {
+            return;
+        }
+        lockChains(Collections.singletonList(node), false);
+        applyPendingOfTree(node);
+        final SubtreeAggregates added = getAggregates(node);
+        final long leafDelta = hasOtherChild(parent, node) ? added.getLeafCount() : added.getLeafCount() - 1;
+        int distance = 1;
+        for (Node ancestor = parent; null != ancestor; ancestor = getParent(ancestor)) {
+            final SubtreeAggregates current = getAggregates(ancestor);
+            setAggregates(ancestor, current.getDescendantCount() + added.getDescendantCount() + 1, current.getLeafCount() + leafDelta,
+                    Math.max(current.getHeight(), added.getHeight() + distance++));
+        }
+    }
+
+    /**
+     * Helper method. Removes the aggregates of a subtree that is about to be detached from the
+     * ancestors, bottom-up. The height of an ancestor is only recomputed from its children if the
+     * subtree was on its longest path, and only as long as the heights below changed. Locks and
+     * pending nodes are handled like in {@link #addToAncestors(Node)}.
+     * 
+     * @param node root of the subtree, still attached
+     */
+    private void subtractFromAncestors(final Node node) {
+        final Node parent = getParent(node);
+        if (null == parent) {
+            return;
+        }
+        lockChains(Collections.singletonList(node), false);
+        applyPendingOfTree(node);
+        final SubtreeAggregates removed = getAggregates(node);
+        final long leafDelta = hasOtherChild(parent, node) ? -removed.getLeafCount() : 1 - removed.getLeafCount();
+        int oldChildHeight = removed.getHeight();
+        boolean heightChanged = true;
+        for (Node ancestor = parent; null != ancestor; ancestor = getParent(ancestor)) {
+            final SubtreeAggregates current = getAggregates(ancestor);
+            int height = current.getHeight();
+            if (heightChanged && height == oldChildHeight + 1) {
+                height = computeHeight(ancestor, (ancestor.equals(parent)) ? node : null);
+            }
+            heightChanged = height != current.getHeight();
+            oldChildHeight = current.getHeight();
+            setAggregates(ancestor, current.getDescendantCount() - removed.getDescendantCount() - 1, current.getLeafCount() + leafDelta,
+                    height);
+        }
+    }
+
+    /**
+     * Helper method. Takes the write locks of the given nodes and their ancestors, top-down and by
+     * id within a level. Writers that lock overlapping chains this way, e.g. both chains of a move
+     * at once, take the shared locks in the same order and cannot wait for each other. The chains
+     * are read again until no node is added, a chain only changes under the locks of its nodes.
+     * 
+     * @param nodes graph nodes
+     * @param pendingOnly whether a chain ends at the first pending ancestor instead of the root
+     */
+    private void lockChains(final Collection<Node> nodes, final boolean pendingOnly) {
+        final Set<Node> locked = Sets.newHashSet();
+        while (true) {
+            final Set<Node> chains = Sets.newHashSet(nodes);
+            for (final Node node : nodes) {
+                for (Node ancestor = getParent(node); null != ancestor; ancestor = getParent(ancestor)) {
+                    chains.add(ancestor);
+                    if (pendingOnly && ancestor.hasLabel(AGGREGATES_PENDING)) {
+                        break;
+                    }
+                }
+            }
+            chains.removeAll(locked);
+            if (chains.isEmpty()) {
+                return;
+            }
+            final List<Node> ordered = Lists.newArrayList(chains);
+            Collections.sort(ordered, BY_DEPTH);
+            for (final Node node : ordered) {
+                lock(node);
+                locked.add(node);
+            }
+        }
+    }
+
+    /**
+     * Helper method. Takes the write lock of a node, it is held until the surrounding transaction
+     * ends
+     * 
+     * @param node graph node
+     */
+    private void lock(final Node node) {
+        try (final Transaction tx = graphDatabaseService.beginTx()) {
+            tx.acquireWriteLock(node);
+            tx.success();
+        }
+    }
+
+    /**
+     * Helper method. Takes the write lock of the parent of a node. A move has to lock the parent to
+     * detach the node, so the parent is read again until it did not change before it was locked.
+     * 
+     * @param node graph node
+     * @return locked parent node, or null for a root
+     */
+    private Node lockParent(final Node node) {
+        Node parent = getParent(node);
+        while (null != parent) {
+            lock(parent);
+            final Node current = getParent(node);
+            if (parent.equals(current)) {
+                break;
+            }
+            parent = current;
+        }
+        return parent;
+    }
+
+    /**
+     * Helper method. Recomputes the aggregates and child counts of a subtree from scratch
+     * 
+     * @param start root of the subtree
+     * @return number of corrected nodes
+     */
+    private static long repairAggregates(final Node start) {
+        long repaired = 0;
+        final Deque<SubtreeFrame> stack = new ArrayDeque<SubtreeFrame>();
+        stack.push(new SubtreeFrame(start));
+        while (!stack.isEmpty()) {
+            final SubtreeFrame frame = stack.peek();
+            if (frame.children.hasNext()) {
+                stack.push(new SubtreeFrame(frame.children.next().getEndNode()));
+                frame.childCount++;
+                continue;
+            }
+            stack.pop();
+            final long leaves = (frame.leafCount == 0) ? 1 : frame.leafCount;
+            final SubtreeAggregates stored = getAggregates(frame.node);
+            final boolean childCountStale = frame.node.hasProperty(ChildCounter.CHILD_COUNT)
+                    && ChildCounter.getChildCount(frame.node) != frame.childCount;
+            if (!frame.node.hasProperty(DESCENDANT_COUNT) || stored.getDescendantCount() != frame.descendantCount
+                    || stored.getLeafCount() != leaves || stored.getHeight() != frame.height || childCountStale) {
+                setAggregates(frame.node, frame.descendantCount, leaves, frame.height);
+                frame.node.setProperty(ChildCounter.CHILD_COUNT, frame.childCount);
+                repaired++;
+            }
+            final SubtreeFrame parentFrame = stack.peek();
+            if (null != parentFrame) {
+                parentFrame.descendantCount += frame.descendantCount + 1;
+                parentFrame.leafCount += leaves;
+                parentFrame.height = Math.max(parentFrame.height, frame.height + 1);
+            }
+        }
+        return repaired;
+    }
+
+    /**
+     * Helper method. Computes the height of a node from the stored heights of its children
+     * 
+     * @param node graph node
+     * @param excluded child to ignore, or null
+     * @return height, 0 if the node has no other children
+     */
+    private static int computeHeight(final Node node, final Node excluded) {
+        int height = 0;
+        for (final Relationship relationship : node.getRelationships(Direction.OUTGOING, IS_PARENT_OF)) {
+            final Node child = relationship.getEndNode();
+            if (!child.equals(excluded)) {
+                height = Math.max(height, getAggregates(child).getHeight() + 1);
+            }
+        }
+        return height;
+    }
+
+    /**
+     * Helper method. Checks whether a node has a child besides the given one, stops at the first
+     * one found
+     * 
+     * @param node graph node
+     * @param child known child
+     * @return true if there is another child
+     */
+    private static boolean hasOtherChild(final Node node, final Node child) {
+        for (final Relationship relationship : node.getRelationships(Direction.OUTGOING, IS_PARENT_OF)) {
+            if (!relationship.getEndNode().equals(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper method. Reads the paths of the nodes marked for deletion, their descendants are
+     * still stored until their subtree is swept
+     * 
+     * @return paths of the marked nodes
+     */
+    private List<String> findMarkedPaths() {
+        final List<String> paths = Lists.newArrayList();
+        try (final ResourceIterator<Node> marked = GlobalGraphOperations.at(graphDatabaseService).getAllNodesWithLabel(PENDING_DELETE)
+                .iterator()) {
+            while (marked.hasNext()) {
+                final Node node = marked.next();
+                if (node.hasProperty(PATH)) {
+                    paths.add((String) node.getProperty(PATH));
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Helper method. Checks whether a node is part of a subtree marked for deletion
+     * 
+     * @param path path of the node
+     * @param markedPaths paths of the marked nodes
+     * @return true if the path starts with one of the marked paths
+     */
+    private static boolean isMarked(final String path, final List<String> markedPaths) {
+        for (final String markedPath : markedPaths) {
+            if (path.startsWith(markedPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper method. Follows the parent relationship
+     * 
+     * @param node graph node
+     * @return parent node, or null for a root
+     */
+    private static Node getParent(final Node node) {
+        final Relationship parentRel = node.getSingleRelationship(IS_PARENT_OF, Direction.INCOMING);
+        return (null == parentRel) ? null : parentRel.getStartNode();
+    }
+
+    /**
+     * Helper method. Reads the depth of a node
+     * 
+     * @param node graph node
+     * @return depth, 0 if the node has none
+     */
+    private static int getDepth(final Node node) {
+        return ((Number) node.getProperty(DEPTH, 0)).intValue();
+    }
+
+    /**
+     * Helper method. Reads the stored aggregates, a node without aggregates is a leaf
+     * 
+     * @param node graph node
+     * @return aggregates
+     */
+    private static SubtreeAggregates getAggregates(final Node node) {
+        final long descendants = ((Number) node.getProperty(DESCENDANT_COUNT, 0L)).longValue();
+        final long leaves = ((Number) node.getProperty(LEAF_COUNT, 1L)).longValue();
+        final int height = ((Number) node.getProperty(HEIGHT, 0)).intValue();
+        return new SubtreeAggregates((String) node.getProperty(UUID, null), descendants, leaves, height);
+    }
+
+    /**
+     * Helper method. Stores the aggregates
+     * 
+     * @param node graph node
+     * @param descendants number of nodes below the node
+     * @param leaves number of leaves in the subtree
+     * @param height height of the subtree
+     */
+    private static void setAggregates(final Node node, final long descendants, final long leaves, final int height) {
+        node.setProperty(DESCENDANT_COUNT, descendants);
+        node.setProperty(LEAF_COUNT, leaves);
+        node.setProperty(HEIGHT, height);
+    }
+
+    /**
+     * Helper method. Creates the flat view of a node
+     * 
+     * @param node graph node
+     * @param parentUuid identifier of the parent node, or null
+     * @param depth depth of the node
+     * @return projection
+     */
+    private static NodeProjection toProjection(final Node node, final String parentUuid, final int depth) {
+        final NodeProjection projection = new NodeProjection();
+        projection.setNodeId(node.getId());
+        projection.setUuid((String) node.getProperty(UUID, null));
+        projection.setName((String) node.getProperty(NAME, null));
+        projection.setDepth(depth);
+        projection.setParentUuid(parentUuid);
+        projection.setPath((String) node.getProperty(PATH, null));
+        projection.setChildCount(ChildCounter.getChildCount(node));
+        projection.setPosition(SiblingPositionIndexer.getPosition(node));
+        projection.setCreatedDate(getDate(node, CREATED_DATE));
+        projection.setLastModifiedDate(getDate(node, LAST_MODIFIED_DATE));
+        return projection;
+    }
+
+    /**
+     * Helper method. Creates the query for one lower cased search word. Partial matches are
+     * constant scoring, so a whole word match is added as optional clause to rank it higher.
+     * 
+     * @param word search word
+     * @param mode how the word is matched
+     * @return query matching the name words
+     */
+    private static Query toWordQuery(final String word, final SearchMode mode) {
+        final Term term = new Term(NodeNameIndexer.NAME, word);
+        final TermQuery wordMatch = new TermQuery(term);
+        wordMatch.setBoost(WORD_MATCH_BOOST);
+        final BooleanQuery query = new BooleanQuery();
+        query.add(wordMatch, Occur.SHOULD);
+        switch (mode) {
+        case PREFIX:
+            query.add(new PrefixQuery(term), Occur.SHOULD);
+            break;
+        case SUBSTRING:
+            query.add(new WildcardQuery(new Term(NodeNameIndexer.NAME, "*" + word + "*")), Occur.SHOULD);
+            break;
+        case FUZZY:
+            query.add(new FuzzyQuery(term), Occur.SHOULD);
+            break;
+        default:
+            throw new IllegalArgumentException(String.format("Unsupported search mode: %s", mode));
+        }
+        return query;
+    }
+
+    /**
+     * Helper method. Looks up the names of the ancestors in a materialized path
+     * 
+     * @param path materialized path of the node
+     * @param names names already looked up, by uuid
+     * @return names, root first
+     */
+    private List<String> getBreadcrumb(final String path, final Map<String, String> names) {
+        final String[] uuids = splitPath(path);
+        final List<String> breadcrumb = Lists.newArrayListWithCapacity(uuids.length - 1);
+        for (int i = 0; i < uuids.length - 1; i++) {
+            if (!names.containsKey(uuids[i])) {
+                final Node ancestor = findNode(uuids[i]);
+                names.put(uuids[i], (null == ancestor) ? null : (String) ancestor.getProperty(NAME, null));
+            }
+            breadcrumb.add(names.get(uuids[i]));
+        }
+        return breadcrumb;
+    }
+
+    /**
+     * Helper method. Reads a date property, the mapping layer stores dates as milliseconds string.
+     * 
+     * @param node graph node
+     * @param key property name
+     * @return date, or null
+     */
+    private static Date getDate(final Node node, final String key) {
+        final Object millis = node.getProperty(key, null);
+        return (null == millis) ? null : new Date(Long.parseLong(millis.toString()));
+    }
+
+    /**
+     * Helper method. Splits a materialized path into the uuids from the root down to the node
+     * 
+     * @param path materialized path
+     * @return uuids, root first
+     */
+    private static String[] splitPath(final String path) {
+        return StringUtils.split(path, Neo4jNode.PATH_SEPARATOR);
+    }
+
+    /**
+     * Helper method. Reads the children of a node in sibling order
+     * 
+     * @param node graph node
+     * @return child nodes, ordered by position
+     */
+    private static List<Node> getSortedChildren(final Node node) {
+        final List<Node> children = Lists.newArrayList();
+        for (final Relationship relationship : node.getRelationships(Direction.OUTGOING, IS_PARENT_OF)) {
+            children.add(relationship.getEndNode());
+        }
+        Collections.sort(children, BY_POSITION);
+        return children;
+    }
+
+    /**
+     * Helper method. Reads the position a node is sorted by among its siblings
+     * 
+     * @param node graph node
+     * @return position, the largest value if the node has none yet
+     */
+    private static long getSortPosition(final Node node) {
+        return ((Number) node.getProperty(SiblingPositionIndexer.POSITION, Long.MAX_VALUE)).longValue();
+    }
+
+    @Inject
+    public void setGraphDatabaseService(final GraphDatabaseService graphDatabaseService) {
+        this.graphDatabaseService = graphDatabaseService;
+    }
+
+    /**
+     * Walks a subtree in preorder with an explicit stack, the children of a node in sibling order.
+     * Nodes before the offset are walked but not mapped, the children of a node are only read when
+     * the walk continues below it.
+     */
+    private static final class PreorderIterator extends AbstractIterator<NodeProjection>
+    {
+        private final Deque<PreorderFrame> stack = new ArrayDeque<PreorderFrame>();
+        private final int maxDepth;
+        private int skipped;
+        private int remaining;
+
+        private PreorderIterator(final Node start, final String parentUuid, final int maxDepth, final int offset, final int limit) {
+            this.maxDepth = maxDepth;
+            this.skipped = offset;
+            this.remaining = limit;
+            stack.push(new PreorderFrame(Collections.singletonList(start).iterator(), parentUuid, 0));
+        }
+
+        @Override
+        protected NodeProjection computeNext() {
+            while (remaining > 0 && !stack.isEmpty()) {
+                final PreorderFrame frame = stack.peek();
+                final Iterator<Node> nodes = frame.getNodes();
+                if (!nodes.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                final Node node = nodes.next();
+                if (frame.depth < maxDepth) {
+                    stack.push(new PreorderFrame(node, frame.depth + 1));
+                }
+                if (skipped > 0) {
+                    skipped--;
+                    continue;
+                }
+                remaining--;
+                return toProjection(node, frame.parentUuid, frame.depth);
+            }
+            return endOfData();
+        }
+    }
+
+    /**
+     * The children of a node that the preorder walk has yet to visit
+     */
+    private static final class PreorderFrame
+    {
+        private final Node parent;
+        private final String parentUuid;
+        private final int depth;
+        private Iterator<Node> nodes;
+
+        private PreorderFrame(final Iterator<Node> nodes, final String parentUuid, final int depth) {
+            this.parent = null;
+            this.parentUuid = parentUuid;
+            this.depth = depth;
+            this.nodes = nodes;
+        }
+
+        private PreorderFrame(final Node parent, final int depth) {
+            this.parent = parent;
+            this.parentUuid = (String) parent.getProperty(UUID, null);
+            this.depth = depth;
+        }
+
+        private Iterator<Node> getNodes() {
+            if (null == nodes) {
+                nodes = getSortedChildren(parent).iterator();
+            }
+            return nodes;
+        }
+    }
+
+    /**
+     * Change of the aggregates of an ancestor while pending nodes are applied, the height is the
+     * least height of the subtree
+     */
+    private static final class AggregatesChange
+    {
+        private long descendantCount;
+        private long leafCount;
+        private int height;
+    }
+
+    /**
+     * A node of the subtree being repaired, its children visited and their aggregates so far
+     */
+    private static final class SubtreeFrame
+    {
+        private final Node node;
+        private final Iterator<Relationship> children;
+        private int childCount;
+        private long descendantCount;
+        private long leafCount;
+        private int height;
+
+        private SubtreeFrame(final Node node) {
+            this.node = node;
+            this.children = node.getRelationships(Direction.OUTGOING, IS_PARENT_OF).iterator();
+        }
+    }
+}
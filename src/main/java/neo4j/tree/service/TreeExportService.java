@@ -0,0 +1,38 @@
+/**
+ * 
+ */
+package neo4j.tree.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Service boundary for exports of tree structures. Exports are streamed in preorder, the memory
+ * used does not depend on the size of the tree.
+ * 
+ * @author Markus Lamm
+ */
+public interface TreeExportService
+{
+    /**
+     * Writes the subtree of the node with the given uuid as nested JSON object. Every node has the
+     * fields uuid, parentUuid, name, depth, childCount, created, modified and children.
+     * 
+     * @param startUuid identifier of the top node of the export
+     * @param out target stream, UTF-8 encoded, not closed
+     * @return number of exported nodes
+     * @throws IOException if writing fails
+     */
+    long exportJson(String startUuid, OutputStream out) throws IOException;
+
+    /**
+     * Writes the subtree of the node with the given uuid as flat CSV with header line. The columns
+     * are uuid, parentUuid, name, depth, created, modified and childCount.
+     * 
+     * @param startUuid identifier of the top node of the export
+     * @param out target stream, UTF-8 encoded, not closed
+     * @return number of exported nodes
+     * @throws IOException if writing fails
+     */
+    long exportCsv(String startUuid, OutputStream out) throws IOException;
+}
@@ -0,0 +1,31 @@
+/**
+ * 
+ */
+package neo4j.tree.service;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import neo4j.tree.domain.ImportResult;
+
+/**
+ * Service boundary for bulk imports of tree structures
+ * 
+ * @author Markus Lamm
+ */
+public interface TreeImportService
+{
+    /**
+     * Imports an indented outline. Every non-blank line is the name of a node, its level is given
+     * by the leading indentation, one tab or two spaces per level. A line is a child of the nearest
+     * preceding line with a lower level. The outline is streamed and written in batches, batches
+     * that were written before an invalid line are kept.
+     * 
+     * @param outline indented outline
+     * @param parentUuid identifier of the node the top level lines are added to, null to import a
+     * new tree with a single top level line as root
+     * @return number of imported nodes and throughput
+     * @throws IOException if the outline cannot be read
+     */
+    ImportResult importOutline(Reader outline, String parentUuid) throws IOException;
+}
@@ -5,7 +5,15 @@ package neo4j.tree.service;
 
 import java.util.List;
 
+import neo4j.tree.domain.ChildPage;
 import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.domain.NodeDetail;
+import neo4j.tree.domain.NodePage;
+import neo4j.tree.domain.NodeProjection;
+import neo4j.tree.domain.SearchHit;
+import neo4j.tree.domain.SearchMode;
+import neo4j.tree.domain.SubtreeAggregates;
+import neo4j.tree.domain.TreeSummary;
 import neo4j.tree.web.TreeNodeForm;
 
 
@@ -17,7 +25,8 @@ import neo4j.tree.web.TreeNodeForm;
 public interface TreeService
 {
     /**
-     * Find node by uuid.
+     * Find node by uuid. Parent and direct children are loaded, see
+     * {@link #findByUuid(String, int)} with depth 1.
      * 
      * @param uuid query parameter
      * @return unique node
@@ -25,14 +34,27 @@ public interface TreeService
     Neo4jNode findByUuid(String uuid);
 
     /**
-     * Find all nodes
+     * Find node by uuid and load related nodes up to the given depth. Depth 0 loads the node only
+     * (parent and children are shallow, just their identifiers are set), depth 1 additionally loads
+     * the parent and the direct children, depth n loads the descendants down to n levels.
      * 
+     * @param uuid query parameter
+     * @param depth number of levels to load
+     * @return unique node, or null
+     */
+    Neo4jNode findByUuid(String uuid, int depth);
+
+    /**
+     * Find all nodes of a tree
+     * 
+     * @param treeId tree identifier, the uuid of the root node
      * @return result list
      */
-    List<Neo4jNode> findAll();
+    List<Neo4jNode> findAll(String treeId);
 
     /**
-     * Creates a new root element with a given name
+     * Creates a new tree, i.e. a root element with a given name. The uuid of the root identifies
+     * the tree.
      * 
      * @param rootName name of the node
      * @return created element
@@ -40,14 +62,49 @@ public interface TreeService
     Neo4jNode createTree(final String rootName);
 
     /**
-     * Adds a given node to the node with the given parent uuid
+     * Adds a given node to the node with the given parent uuid. The parent is not loaded, the given
+     * node receives the identifiers of the created node.
      * 
      * @param node child element
      * @param parentUuid identifier of parent node
-     * @return the parent element
+     * @return the added element
      */
     Neo4jNode addNode(Neo4jNode node, String parentUuid);
 
+    /**
+     * Adds a given node to the node with the given parent uuid at the given index among its new
+     * siblings, see {@link #addNode(Neo4jNode, String)}
+     * 
+     * @param node child element
+     * @param parentUuid identifier of parent node
+     * @param index index among the children of the parent, 0 for the first place, past the last
+     * child to append
+     * @return the added element
+     */
+    Neo4jNode addNode(Neo4jNode node, String parentUuid, int index);
+
+    /**
+     * Moves the node with the given nodeUuid to the given index among its siblings. Only the node
+     * gets a new position, unless its new neighbours have adjacent positions.
+     * 
+     * @param nodeUuid node identifier
+     * @param index index among the siblings, 0 for the first place, past the last sibling to place
+     * the node last
+     * @return the new position of the node
+     */
+    long reorderNode(String nodeUuid, int index);
+
+    /**
+     * Get a page of the children of a node, ordered by their position, without loading the other
+     * children. The next page starts after {@link ChildPage#getNextPosition()}.
+     * 
+     * @param parentUuid identifier of parent node
+     * @param afterPosition position the children have to follow, 0 for the first page
+     * @param limit maximum number of children
+     * @return page of flat children, or null if no node with the given uuid exists
+     */
+    ChildPage getChildPage(String parentUuid, long afterPosition, int limit);
+
     /**
      * Find child nodes of a given parent node
      * 
@@ -57,7 +114,8 @@ public interface TreeService
     List<Neo4jNode> findByParent(Neo4jNode parent);
 
     /**
-     * Update the node with the given nodeUuid
+     * Update the node with the given nodeUuid, see {@link #renameNode(String, String)}. The changed
+     * node is loaded afterwards.
      * 
      * @param form node form data
      * @param nodeUuid node identifier
@@ -66,24 +124,127 @@ public interface TreeService
     Neo4jNode updateNode(TreeNodeForm form, String nodeUuid);
 
     /**
-     * Removes the node with the given nodeUuid
+     * Renames the node with the given nodeUuid in place, the node is not loaded
      * 
      * @param nodeUuid node identifier
+     * @param name new name
+     * @return identifier of the tree of the node
+     */
+    String renameNode(String nodeUuid, String name);
+
+    /**
+     * Get the flat view of a node with the name of its parent and a page of its children, ordered
+     * by position, without loading node entities
+     * 
+     * @param uuid node identifier
+     * @param afterPosition position the children have to follow, 0 for the first page
+     * @param childLimit maximum number of children
+     * @return node detail, or null if no node with the given uuid exists
+     */
+    NodeDetail getNodeDetail(String uuid, long afterPosition, int childLimit);
+
+    /**
+     * Removes the node with the given nodeUuid and all its descendants. Large subtrees are deleted
+     * in batches, each batch only sweeps nodes of this subtree, so concurrent deletes do not delete
+     * or count the nodes of each other. The subtree is hidden from all queries as soon as it is
+     * detached, sweeps that were interrupted are finished by {@link #resumeDeletes()}.
+     * 
+     * @param nodeUuid node identifier
+     * @return number of deleted nodes
+     */
+    long deleteNode(String nodeUuid);
+
+    /**
+     * Finishes the deletes whose subtree was detached but not completely swept, e.g. because the
+     * application stopped. Called on startup.
+     * 
+     * @return number of deleted nodes
+     */
+    long resumeDeletes();
+
+    /**
+     * Moves the node with the given nodeUuid and its descendants below a new parent, which may be
+     * part of another tree. Uuids and audit dates are kept, depth, path and tree id of the subtree
+     * are recomputed in the transaction that attaches it to the new parent.
+     * 
+     * @param nodeUuid identifier of the node to move
+     * @param newParentUuid identifier of the new parent node, must not be a descendant of the node
+     * @return number of moved nodes, 0 if the node already is a child of the new parent
      */
-    void deleteNode(String nodeUuid);
+    long moveNode(String nodeUuid, String newParentUuid);
 
     /**
-     * Get a 'depth-first' ordered list, beginnig from the given start node
+     * Get a 'depth-first' ordered list of flat nodes, beginnig from the node with the given uuid.
+     * The traversal runs in the database, no node entities are loaded.
      * 
-     * @param start traversal start
+     * @param startUuid identifier of the traversal start
      * @return result list
      */
-    List<Neo4jNode> getPreordered(Neo4jNode start);
+    List<NodeProjection> getPreordered(String startUuid);
+
+    /**
+     * Get a window of the 'depth-first' ordered subtree of the node with the given uuid. Nodes below
+     * maxDepth are collapsed and not traversed. The subtree is walked from the start node up to the
+     * window, so later windows take longer.
+     * 
+     * @param startUuid identifier of the traversal start
+     * @param maxDepth deepest level to include, relative to the start node
+     * @param offset preorder position of the first node
+     * @param limit maximum number of nodes
+     * @return page of flat nodes
+     */
+    NodePage getPreordered(String startUuid, int maxDepth, int offset, int limit);
+
+    /**
+     * Get the flat root nodes of all trees, without loading node entities
+     * 
+     * @return root nodes, ordered by name
+     */
+    List<NodeProjection> getRootNodes();
+
+    /**
+     * Find the root node of a tree
+     * 
+     * @param treeId tree identifier, the uuid of the root node
+     * @return root node, or null if no tree with the given id exists
+     */
+    Neo4jNode getRootNode(String treeId);
+
+    /**
+     * Get node count and root identifier of a tree, without loading node entities
+     * 
+     * @param treeId tree identifier, the uuid of the root node
+     * @return tree summary, empty if no tree with the given id exists
+     */
+    TreeSummary getTreeSummary(String treeId);
+
+    /**
+     * Search nodes by the words of their names in the full-text name index, without loading node
+     * entities
+     * 
+     * @param text search words, separated by whitespace
+     * @param mode how the search words are matched
+     * @param treeId identifier of the tree to search in, null to search all trees
+     * @param offset rank of the first hit
+     * @param limit maximum number of hits
+     * @return hits with the ancestor names of each node, most relevant first, empty for blank text
+     */
+    List<SearchHit> search(String text, SearchMode mode, String treeId, int offset, int limit);
+
+    /**
+     * Get the stored descendant count, leaf count and height of the subtree below a node, without
+     * touching the subtree
+     * 
+     * @param uuid node identifier
+     * @return aggregates, or null if no node with the given uuid exists
+     */
+    SubtreeAggregates getAggregates(String uuid);
 
     /**
-     * Find root node of the tree structure
+     * Recomputes the aggregates and child counts of all nodes of a tree from scratch
      * 
-     * @return unique node with no parent
+     * @param treeId tree identifier, the uuid of the root node
+     * @return number of nodes whose aggregates or child counts were corrected
      */
-    Neo4jNode getRootNode();
+    long repairAggregates(String treeId);
 }
@@ -0,0 +1,36 @@
+/**
+ * 
+ */
+package neo4j.tree.service;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Service boundary for bursts of small writes. The writes are queued and committed in batches,
+ * so the cost of a commit is shared by many of them. A write that fails does not fail the other
+ * writes of its batch.
+ * 
+ * @author Markus Lamm
+ */
+public interface TreeWriteService
+{
+    /**
+     * Queues the creation of a node
+     * 
+     * @param name name of the node
+     * @param parentUuid identifier of the parent node
+     * @return completed with the uuid of the created node once it is committed, or with the
+     * exception that prevented the creation
+     */
+    ListenableFuture<String> addNode(String name, String parentUuid);
+
+    /**
+     * Queues the renaming of a node
+     * 
+     * @param uuid identifier of the node
+     * @param name new name
+     * @return completed with the uuid of the node once the new name is committed, or with the
+     * exception that prevented the renaming
+     */
+    ListenableFuture<String> renameNode(String uuid, String name);
+}
@@ -0,0 +1,500 @@
+/**
+ * 
+ */
+package neo4j.tree.service.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.repository.TreeNodeRepository;
+import neo4j.tree.service.TreeService;
+import neo4j.tree.service.TreeWriteService;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Service implementation of TreeWriteService interface. A single writer thread takes the queued
+ * writes and runs them through the TreeService in one transaction per batch. A batch is committed
+ * when it is full or when the first write of the batch waited for the maximum time. The writes of
+ * a batch are validated before it is committed. A batch chosen as deadlock victim is retried, if a
+ * write of the batch fails anyway, it reports the error and the other writes are committed
+ * without it.
+ * <p>
+ * A batch only locks the parents of its inserts and the renamed nodes. The aggregates of the
+ * ancestors of the inserted nodes are applied in a transaction of its own after the commit.
+ * <p>
+ * Group commit is opt-in. While it is disabled, every write is committed in its own transaction
+ * by the calling thread and the returned future is already completed.
+ * 
+ * @author Markus Lamm
+ */
+@Service
+public class GroupCommitTreeWriteService implements TreeWriteService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(GroupCommitTreeWriteService.class);
+
+    /**
+     * How often an idle writer checks whether it was stopped. The writer is not interrupted,
+     * interrupts close the file channels of the database.
+     */
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private TreeService treeService;
+
+    private TreeNodeRepository repository;
+
+    private TransactionTemplate transactionTemplate;
+
+    private boolean enabled;
+
+    private int batchSize;
+
+    private long maxWaitMillis;
+
+    private int queueCapacity;
+
+    private int writeRetries;
+
+    private BlockingQueue<Write> queue;
+
+    private Thread writer;
+
+    private volatile boolean running;
+
+    private final AtomicLong batchCount = new AtomicLong();
+
+    private final AtomicLong writeCount = new AtomicLong();
+
+    /**
+     * @see neo4j.tree.service.TreeWriteService#addNode(java.lang.String, java.lang.String)
+     */
+    @Override
+    public ListenableFuture<String> addNode(final String name, final String parentUuid) {
+        return submit(new Write() {
+            @Override
+            protected void validate() {
+                if (StringUtils.isEmpty(name)) {
+                    final String msg = String.format("name is [%s]. Unable to add new node", name);
+                    throw new IllegalArgumentException(msg);
+                }
+                if (StringUtils.isBlank(parentUuid) || null == repository.findProjection(parentUuid)) {
+                    final String msg = String.format("No node for uuid [%s] found. Unable to add new node", parentUuid);
+                    throw new IllegalArgumentException(msg);
+                }
+            }
+
+            @Override
+            protected String apply() {
+                return treeService.addNode(new Neo4jNode(name), parentUuid).getUuid();
+            }
+        });
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeWriteService#renameNode(java.lang.String, java.lang.String)
+     */
+    @Override
+    public ListenableFuture<String> renameNode(final String uuid, final String name) {
+        return submit(new Write() {
+            @Override
+            protected void validate() {
+                if (StringUtils.isEmpty(name)) {
+                    final String msg = String.format("name is [%s]. Unable to rename node", name);
+                    throw new IllegalArgumentException(msg);
+                }
+                if (StringUtils.isBlank(uuid) || null == repository.findProjection(uuid)) {
+                    final String msg = String.format("Invalid nodeUuid %s. No node to update found", uuid);
+                    throw new IllegalArgumentException(msg);
+                }
+            }
+
+            @Override
+            protected String apply() {
+                treeService.renameNode(uuid, name);
+                return uuid;
+            }
+        });
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            start();
+        }
+    }
+
+    /**
+     * Starts the writer thread, writes are queued from now on
+     */
+    public synchronized void start() {
+        if (null != writer) {
+            return;
+        }
+        queue = new LinkedBlockingQueue<Write>(queueCapacity);
+        running = true;
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processQueue();
+            }
+        }, "tree-group-commit");
+        writer.setDaemon(true);
+        writer.start();
+        LOG.info("Group commit started, batch size {}, max wait {} ms", batchSize, maxWaitMillis);
+    }
+
+    /**
+     * Stops the writer thread after the current batch. Writes still queued fail, writes are
+     * committed one by one from now on.
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (null == writer) {
+            return;
+        }
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+        final List<Write> pending = Lists.newArrayList();
+        queue.drainTo(pending);
+        for (final Write write : pending) {
+            write.future.setException(new RejectedExecutionException("Group commit stopped before the write was committed"));
+        }
+        LOG.info("Group commit stopped, {} queued writes failed", pending.size());
+    }
+
+    /**
+     * Number of committed batches, writes committed one by one included
+     * 
+     * @return batches since start
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Number of processed writes, failed ones included
+     * 
+     * @return writes since start
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * Helper method. Queues a write, or commits it at once while group commit is disabled. The
+     * write is queued under the monitor of {@link #stop()}, so it is either queued before the queue
+     * is drained or committed at once, never left in a drained queue.
+     * 
+     * @param write the write
+     * @return future of the write
+     */
+    private ListenableFuture<String> submit(final Write write) {
+        final boolean queued;
+        synchronized (this) {
+            if (null != writer && !queue.offer(write)) {
+                final String msg = String.format("Write queue is full (%d writes). Unable to queue write", queueCapacity);
+                return Futures.immediateFailedFuture(new RejectedExecutionException(msg));
+            }
+            queued = (null != writer);
+        }
+        if (!queued) {
+            commit(Collections.singletonList(write));
+        }
+        return write.future;
+    }
+
+    /**
+     * Helper method. Loop of the writer thread, collects and commits batches until it is stopped.
+     */
+    private void processQueue() {
+        final long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        try {
+            while (running) {
+                final Write first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (null == first) {
+                    continue;
+                }
+                final List<Write> batch = Lists.newArrayListWithCapacity(batchSize);
+                batch.add(first);
+                final long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    final Write next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (null == next) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commit(batch);
+            }
+        }
+        catch (final InterruptedException e) {
+            LOG.debug("Group commit writer interrupted");
+        }
+    }
+
+    /**
+     * Helper method. Runs the valid writes in one transaction and completes their futures after
+     * the commit. A batch chosen as deadlock victim is retried. If a write fails, it reports the
+     * error and the other writes are committed again without it. A single write runs in the
+     * transaction of the TreeService, which validates and retries it itself.
+     * 
+     * @param writes writes
+     */
+    private void commit(final List<Write> writes) {
+        if (1 == writes.size()) {
+            commit(writes.get(0));
+            return;
+        }
+        final List<Write> batch;
+        try {
+            batch = validate(writes);
+        }
+        catch (final RuntimeException e) {
+            LOG.debug("Validation of {} writes failed, committing them one by one: {}", writes.size(), e.getMessage());
+            for (final Write write : writes) {
+                commit(write);
+            }
+            return;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (int attempt = 1;; attempt++) {
+            final BatchTransaction transaction = new BatchTransaction(batch);
+            try {
+                final List<String> results = transactionTemplate.execute(transaction);
+                batchCount.incrementAndGet();
+                writeCount.addAndGet(batch.size());
+                applyAggregates(transaction.inserted);
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).future.set(results.get(i));
+                }
+                return;
+            }
+            catch (final RuntimeException e) {
+                if (attempt <= writeRetries && Neo4jTreeService.isDeadlock(e)) {
+                    LOG.debug("Batch of {} writes chosen as deadlock victim, attempt {} of {}", batch.size(), attempt, writeRetries + 1);
+                    Neo4jTreeService.backOff(attempt);
+                    continue;
+                }
+                if (transaction.applied == batch.size() || Neo4jTreeService.isDeadlock(e)) {
+                    // no write to blame, the commit itself failed or the retries are used up
+                    LOG.debug("Batch of {} writes failed, committing them one by one: {}", batch.size(), e.getMessage());
+                    for (final Write write : batch) {
+                        commit(write);
+                    }
+                    return;
+                }
+                final Write failed = batch.get(transaction.applied);
+                writeCount.incrementAndGet();
+                failed.future.setException(e);
+                final List<Write> remaining = Lists.newArrayList(batch);
+                remaining.remove(transaction.applied);
+                commit(remaining);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Helper method. Validates writes in one read transaction, invalid writes report the error.
+     * 
+     * @param writes writes
+     * @return valid writes
+     */
+    private List<Write> validate(final List<Write> writes) {
+        return transactionTemplate.execute(new TransactionCallback<List<Write>>() {
+            @Override
+            public List<Write> doInTransaction(final TransactionStatus status) {
+                final List<Write> valid = Lists.newArrayListWithCapacity(writes.size());
+                for (final Write write : writes) {
+                    try {
+                        write.validate();
+                        valid.add(write);
+                    }
+                    catch (final IllegalArgumentException e) {
+                        writeCount.incrementAndGet();
+                        write.future.setException(e);
+                    }
+                }
+                return valid;
+            }
+        });
+    }
+
+    /**
+     * Helper method. Commits a single write in the transaction of the TreeService.
+     * 
+     * @param write the write
+     */
+    private void commit(final Write write) {
+        try {
+            final String result = write.apply();
+            batchCount.incrementAndGet();
+            writeCount.incrementAndGet();
+            write.future.set(result);
+        }
+        catch (final RuntimeException e) {
+            batchCount.incrementAndGet();
+            writeCount.incrementAndGet();
+            write.future.setException(e);
+        }
+    }
+
+    /**
+     * Helper method. Adds the aggregates of the nodes inserted by a committed batch to their
+     * ancestors in one transaction. If this fails, the nodes stay pending until the next delete or
+     * move in their tree or the next start applies them.
+     * 
+     * @param uuids identifiers of the inserted nodes
+     */
+    private void applyAggregates(final List<String> uuids) {
+        if (uuids.isEmpty()) {
+            return;
+        }
+        for (int attempt = 1;; attempt++) {
+            try {
+                transactionTemplate.execute(new TransactionCallback<Long>() {
+                    @Override
+                    public Long doInTransaction(final TransactionStatus status) {
+                        return repository.applyPendingAggregates(uuids);
+                    }
+                });
+                return;
+            }
+            catch (final RuntimeException e) {
+                if (attempt > writeRetries || !Neo4jTreeService.isDeadlock(e)) {
+                    LOG.warn("Aggregates of {} inserted nodes stay pending: {}", uuids.size(), e.getMessage());
+                    return;
+                }
+                Neo4jTreeService.backOff(attempt);
+            }
+        }
+    }
+
+    @Inject
+    protected void setTreeService(final TreeService treeService) {
+        this.treeService = treeService;
+    }
+
+    @Inject
+    protected void setRepository(final TreeNodeRepository repository) {
+        this.repository = repository;
+    }
+
+    @Inject
+    protected void setTransactionManager(final PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Value("${tree.groupCommit.enabled:false}")
+    protected void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Value("${tree.groupCommit.batchSize:500}")
+    protected void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Value("${tree.groupCommit.maxWaitMillis:5}")
+    protected void setMaxWaitMillis(final long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    @Value("${tree.groupCommit.queueCapacity:10000}")
+    protected void setQueueCapacity(final int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Value("${tree.write.retries:5}")
+    protected void setWriteRetries(final int writeRetries) {
+        this.writeRetries = writeRetries;
+    }
+
+    /**
+     * A queued write and the future of its result
+     */
+    private abstract static class Write
+    {
+        private final SettableFuture<String> future = SettableFuture.create();
+
+        /**
+         * Checks the arguments and the nodes the write refers to before its batch is committed
+         * 
+         * @throws IllegalArgumentException if the write is invalid
+         */
+        protected abstract void validate();
+
+        /**
+         * Runs the write within the current transaction
+         * 
+         * @return uuid of the written node
+         */
+        protected abstract String apply();
+    }
+
+    /**
+     * Transaction of a batch. Tracks how many writes were applied, so a failing write can be told
+     * apart, and collects the inserted nodes whose aggregates are applied after the commit.
+     */
+    private static final class BatchTransaction implements TransactionCallback<List<String>>
+    {
+        private final List<Write> batch;
+        private final List<String> inserted = Lists.newArrayList();
+        private int applied;
+
+        private BatchTransaction(final List<Write> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public List<String> doInTransaction(final TransactionStatus status) {
+            final List<String> results = Lists.newArrayListWithCapacity(batch.size());
+            TransactionSynchronizationManager.bindResource(Neo4jTreeService.DEFERRED_AGGREGATES, inserted);
+            try {
+                for (final Write write : batch) {
+                    results.add(write.apply());
+                    applied++;
+                }
+            }
+            finally {
+                TransactionSynchronizationManager.unbindResource(Neo4jTreeService.DEFERRED_AGGREGATES);
+            }
+            return results;
+        }
+    }
+}
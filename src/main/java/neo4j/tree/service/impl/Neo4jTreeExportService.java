@@ -0,0 +1,161 @@
+/**
+ * 
+ */
+package neo4j.tree.service.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Iterator;
+
+import javax.inject.Inject;
+
+import neo4j.tree.domain.NodeProjection;
+import neo4j.tree.repository.TreeNodeRepository;
+import neo4j.tree.service.TreeExportService;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DateFormatUtils;
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Service implementation of TreeExportService interface. Reads the lazy preorder traversal of the
+ * repository and writes every node as soon as it is read, open JSON objects are closed when the
+ * traversal returns to a lower depth.
+ * 
+ * @author Markus Lamm
+ */
+@Service
+@Transactional(readOnly = true)
+public class Neo4jTreeExportService implements TreeExportService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(Neo4jTreeExportService.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final FastDateFormat DATE_FORMAT = DateFormatUtils.ISO_DATETIME_TIME_ZONE_FORMAT;
+
+    private static final String CSV_HEADER = "uuid,parentUuid,name,depth,created,modified,childCount";
+
+    private TreeNodeRepository repository;
+
+    /**
+     * @see neo4j.tree.service.TreeExportService#exportJson(java.lang.String, java.io.OutputStream)
+     */
+    @Override
+    public long exportJson(final String startUuid, final OutputStream out) throws IOException {
+        final Iterator<NodeProjection> nodes = getPreordered(startUuid);
+        final JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        long count = 0;
+        int openDepth = -1;
+        while (nodes.hasNext()) {
+            final NodeProjection node = nodes.next();
+            for (; openDepth >= node.getDepth(); openDepth--) {
+                endNode(generator);
+            }
+            generator.writeStartObject();
+            generator.writeStringField("uuid", node.getUuid());
+            generator.writeStringField("parentUuid", node.getParentUuid());
+            generator.writeStringField("name", node.getName());
+            generator.writeNumberField("depth", node.getDepth());
+            generator.writeNumberField("childCount", node.getChildCount());
+            generator.writeStringField("created", formatDate(node.getCreatedDate()));
+            generator.writeStringField("modified", formatDate(node.getLastModifiedDate()));
+            generator.writeArrayFieldStart("children");
+            openDepth = node.getDepth();
+            count++;
+        }
+        for (; openDepth >= 0; openDepth--) {
+            endNode(generator);
+        }
+        generator.close();
+        LOG.debug("{} nodes exported as JSON, start node {}", count, startUuid);
+        return count;
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeExportService#exportCsv(java.lang.String, java.io.OutputStream)
+     */
+    @Override
+    public long exportCsv(final String startUuid, final OutputStream out) throws IOException {
+        final Iterator<NodeProjection> nodes = getPreordered(startUuid);
+        final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write(CSV_HEADER);
+        writer.write('\n');
+        long count = 0;
+        while (nodes.hasNext()) {
+            final NodeProjection node = nodes.next();
+            writer.write(node.getUuid());
+            writer.write(',');
+            writer.write(StringUtils.defaultString(node.getParentUuid()));
+            writer.write(',');
+            writer.write(StringEscapeUtils.escapeCsv(node.getName()));
+            writer.write(',');
+            writer.write(String.valueOf(node.getDepth()));
+            writer.write(',');
+            writer.write(StringUtils.defaultString(formatDate(node.getCreatedDate())));
+            writer.write(',');
+            writer.write(StringUtils.defaultString(formatDate(node.getLastModifiedDate())));
+            writer.write(',');
+            writer.write(String.valueOf(node.getChildCount()));
+            writer.write('\n');
+            count++;
+        }
+        writer.flush();
+        LOG.debug("{} nodes exported as CSV, start node {}", count, startUuid);
+        return count;
+    }
+
+    /**
+     * Helper method. Starts the traversal and checks that the start node exists before anything is
+     * written.
+     * 
+     * @param startUuid identifier of the top node of the export
+     * @return lazy preorder iterator
+     */
+    private Iterator<NodeProjection> getPreordered(final String startUuid) {
+        if (StringUtils.isBlank(startUuid)) {
+            final String msg = String.format("startUuid is [%s]. Unable to export nodes", startUuid);
+            throw new IllegalArgumentException(msg);
+        }
+        final Iterator<NodeProjection> nodes = repository.findPreordered(startUuid).iterator();
+        if (!nodes.hasNext()) {
+            final String msg = String.format("No node for uuid [%s] found. Unable to export nodes", startUuid);
+            throw new IllegalArgumentException(msg);
+        }
+        return nodes;
+    }
+
+    /**
+     * Helper method. Closes the children array and the object of a node.
+     * 
+     * @param generator JSON target
+     * @throws IOException if writing fails
+     */
+    private static void endNode(final JsonGenerator generator) throws IOException {
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private static String formatDate(final Date date) {
+        return (null == date) ? null : DATE_FORMAT.format(date);
+    }
+
+    @Inject
+    protected void setRepository(final TreeNodeRepository repository) {
+        this.repository = repository;
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * 
+ */
+package neo4j.tree.service.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import neo4j.tree.domain.ImportResult;
+import neo4j.tree.domain.NodeProjection;
+import neo4j.tree.repository.TreeNodeRepository;
+import neo4j.tree.service.TreeImportService;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Service implementation of TreeImportService interface. Nodes are created without the mapping
+ * layer, each batch of lines is written in its own transaction when called without a surrounding
+ * transaction. The aggregates of a node are applied in the batch that completes its subtree, so
+ * the ancestors above the imported nodes are written once per batch instead of once per node.
+ * 
+ * @author Markus Lamm
+ */
+@Service
+public class Neo4jTreeImportService implements TreeImportService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(Neo4jTreeImportService.class);
+
+    private static final int SPACES_PER_LEVEL = 2;
+
+    private TreeNodeRepository repository;
+
+    private TreeStructureCache cache;
+
+    private TransactionTemplate transactionTemplate;
+
+    private int importBatchSize;
+
+    /**
+     * @see neo4j.tree.service.TreeImportService#importOutline(java.io.Reader, java.lang.String)
+     */
+    @Override
+    public ImportResult importOutline(final Reader outline, final String parentUuid) throws IOException {
+        if (null == outline) {
+            throw new IllegalArgumentException("outline is NULL. Unable to import nodes");
+        }
+        final long start = System.currentTimeMillis();
+        // ancestors.get(level + offset - 1) is the parent of a line on that level
+        final List<NodeProjection> ancestors = Lists.newArrayList();
+        if (null != parentUuid) {
+            final NodeProjection parent = transactionTemplate.execute(new TransactionCallback<NodeProjection>() {
+                @Override
+                public NodeProjection doInTransaction(final TransactionStatus status) {
+                    return repository.findProjection(parentUuid);
+                }
+            });
+            if (null == parent) {
+                final String msg = String.format("No node with path for uuid [%s] found. Unable to import nodes", parentUuid);
+                throw new IllegalArgumentException(msg);
+            }
+            ancestors.add(parent);
+        }
+        final int offset = ancestors.size();
+        final BufferedReader reader = new BufferedReader(outline);
+        long nodeCount = 0;
+        int batchCount = 0;
+        String rootUuid = parentUuid;
+        List<String> batch = readBatch(reader);
+        while (!batch.isEmpty()) {
+            final List<String> currentBatch = batch;
+            nodeCount += transactionTemplate.execute(new TransactionCallback<Integer>() {
+                @Override
+                public Integer doInTransaction(final TransactionStatus status) {
+                    if (null != parentUuid) {
+                        cache.invalidateTree(ancestors.get(0).getTreeId());
+                    }
+                    final List<String> completed = Lists.newArrayList();
+                    final int created = importLines(currentBatch, ancestors, offset, completed);
+                    repository.applyPendingAggregates(completed);
+                    return created;
+                }
+            });
+            batchCount++;
+            if (null == rootUuid) {
+                rootUuid = ancestors.get(0).getUuid();
+            }
+            LOG.debug("Import batch {} written, {} nodes so far", batchCount, nodeCount);
+            batch = readBatch(reader);
+        }
+        if (ancestors.size() > offset) {
+            transactionTemplate.execute(new TransactionCallback<Long>() {
+                @Override
+                public Long doInTransaction(final TransactionStatus status) {
+                    final List<String> open = Lists.newArrayList();
+                    for (final NodeProjection node : ancestors.subList(offset, ancestors.size())) {
+                        open.add(node.getUuid());
+                    }
+                    return repository.applyPendingAggregates(open);
+                }
+            });
+        }
+        final ImportResult result = new ImportResult(rootUuid, nodeCount, batchCount, System.currentTimeMillis() - start);
+        LOG.info("Outline imported: {}", result);
+        return result;
+    }
+
+    /**
+     * Helper method. Reads the next batch of non-blank lines.
+     * 
+     * @param reader outline
+     * @return lines, empty at the end of the outline
+     * @throws IOException if the outline cannot be read
+     */
+    private List<String> readBatch(final BufferedReader reader) throws IOException {
+        final List<String> batch = Lists.newArrayListWithCapacity(importBatchSize);
+        String line;
+        while (batch.size() < importBatchSize && null != (line = reader.readLine())) {
+            if (StringUtils.isNotBlank(line)) {
+                batch.add(line);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Helper method. Creates a node for every line and keeps the chain of ancestors of the last
+     * created node. A node leaving the chain has its subtree complete.
+     * 
+     * @param batch non-blank lines
+     * @param ancestors chain of ancestors, updated in place
+     * @param offset number of ancestors that are not part of the outline
+     * @param completed identifiers of the nodes whose subtree was completed, filled in place
+     * @return number of created nodes
+     */
+    private int importLines(final List<String> batch, final List<NodeProjection> ancestors, final int offset,
+            final List<String> completed) {
+        for (final String line : batch) {
+            final int parentIndex = getLevel(line) + offset - 1;
+            if (parentIndex >= ancestors.size() || (parentIndex < 0 && !ancestors.isEmpty())) {
+                final String msg = String.format("Invalid indentation of line [%s]. Unable to import nodes", line);
+                throw new IllegalArgumentException(msg);
+            }
+            final NodeProjection parent = (parentIndex < 0) ? null : ancestors.get(parentIndex);
+            final List<NodeProjection> closed = ancestors.subList(parentIndex + 1, ancestors.size());
+            for (final NodeProjection node : closed) {
+                completed.add(node.getUuid());
+            }
+            closed.clear();
+            ancestors.add(repository.createNode(line.trim(), parent));
+        }
+        return batch.size();
+    }
+
+    /**
+     * Helper method. Counts the indentation levels of a line.
+     * 
+     * @param line outline line
+     * @return level, 0 for lines without indentation
+     */
+    private static int getLevel(final String line) {
+        int tabs = 0;
+        int spaces = 0;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == '\t') {
+                tabs++;
+            }
+            else if (c == ' ') {
+                spaces++;
+            }
+            else {
+                break;
+            }
+        }
+        return tabs + spaces / SPACES_PER_LEVEL;
+    }
+
+    @Inject
+    protected void setRepository(final TreeNodeRepository repository) {
+        this.repository = repository;
+    }
+
+    @Inject
+    protected void setCache(final TreeStructureCache cache) {
+        this.cache = cache;
+    }
+
+    @Inject
+    protected void setTransactionManager(final PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Value("${tree.import.batchSize:10000}")
+    protected void setImportBatchSize(final int importBatchSize) {
+        this.importBatchSize = importBatchSize;
+    }
+}
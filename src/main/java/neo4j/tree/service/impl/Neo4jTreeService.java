@@ -3,23 +3,47 @@
  */
 package neo4j.tree.service.impl;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.inject.Inject;
 
+import neo4j.tree.domain.ChildPage;
 import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.domain.NodeDetail;
+import neo4j.tree.domain.NodePage;
+import neo4j.tree.domain.NodeProjection;
+import neo4j.tree.domain.SearchHit;
+import neo4j.tree.domain.SearchMode;
+import neo4j.tree.domain.SubtreeAggregates;
+import neo4j.tree.domain.TreeSummary;
 import neo4j.tree.repository.TreeNodeRepository;
 import neo4j.tree.service.TreeService;
 import neo4j.tree.web.TreeNodeForm;
 
 import org.apache.commons.lang3.StringUtils;
+import org.neo4j.kernel.DeadlockDetectedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 
+import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 /**
  * Service implementation of TreeService interface
@@ -32,8 +56,32 @@ public class Neo4jTreeService implements TreeService
 {
     private static final Logger LOG = LoggerFactory.getLogger(Neo4jTreeService.class);
 
+    private static final int DEFAULT_FETCH_DEPTH = 1;
+
+    /**
+     * Upper bound of the wait before the first retry of a write, grows with each attempt
+     */
+    private static final long WRITE_BACK_OFF_MILLIS = 10;
+
+    /**
+     * Transaction resource of the uuids of inserted nodes whose aggregates the owner of the
+     * transaction applies after the commit. Bound by writers that insert many nodes in one
+     * transaction, so the transaction does not lock the ancestors up to the root.
+     */
+    static final String DEFERRED_AGGREGATES = Neo4jTreeService.class.getName() + ".deferredAggregates";
+
     private TreeNodeRepository repository;
 
+    private Neo4jTemplate template;
+
+    private TreeStructureCache cache;
+
+    private TransactionTemplate transactionTemplate;
+
+    private int deleteBatchSize;
+
+    private int writeRetries;
+
     /**
      * @see neo4j.tree.service.TreeService#createTree(java.lang.String)
      */
@@ -47,35 +95,110 @@ public class Neo4jTreeService implements TreeService
     }
 
     /**
+     * Writes only the new node and its relationship to the parent, so concurrent inserts below the
+     * same parent hold the lock of the parent for a short transaction only. The aggregates of the
+     * ancestors are updated afterwards, see {@link #applyAggregates(String)}.
+     * 
      * @see neo4j.tree.service.TreeService#addNode(neo4j.tree.domain.Neo4jNode,
      * java.lang.String)
      */
     @Override
-    public Neo4jNode addNode(Neo4jNode node, String parentUuid) {
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Neo4jNode addNode(final Neo4jNode node, final String parentUuid) {
+        return insert(node, parentUuid, null);
+    }
+
+    /**
+     * Helper method. Validates and inserts a node, then applies its aggregates
+     * 
+     * @param node node to add
+     * @param parentUuid identifier of the parent node
+     * @param index index among the siblings, null to append the node
+     * @return the added node
+     */
+    private Neo4jNode insert(final Neo4jNode node, final String parentUuid, final Integer index) {
         if (null == node) {
             throw new IllegalArgumentException("node is NULL. Unable to add new node");
         }
+        if (StringUtils.isEmpty(node.getName())) {
+            final String msg = String.format("name is [%s]. Unable to add new node", node.getName());
+            throw new IllegalArgumentException(msg);
+        }
         if (StringUtils.isBlank(parentUuid)) {
             final String msg = String.format("parentUuid is [%s]. Unable to add new node", parentUuid);
             throw new IllegalArgumentException(msg);
         }
-        Neo4jNode parentNode = repository.findByUuid(parentUuid);
-        if (null == parentNode) {
-            final String msg = String.format("No node for uuid [%s] found. Unable to add new node", parentUuid);
-            throw new IllegalArgumentException(msg);
+        final Neo4jNode added = execute(new TransactionCallback<Neo4jNode>() {
+            @Override
+            public Neo4jNode doInTransaction(final TransactionStatus status) {
+                final NodeProjection created = repository.addChild(node.getName(), parentUuid);
+                if (null == created) {
+                    final String msg = String.format("No node for uuid [%s] found. Unable to add new node", parentUuid);
+                    throw new IllegalArgumentException(msg);
+                }
+                final Neo4jNode added = repository.findOne(created.getNodeId());
+                if (null == index) {
+                    cache.nodeAdded(added.getTreeId(), parentUuid, created.getNodeId(), created.getUuid(), created.getName(),
+                            created.getPosition());
+                }
+                else {
+                    repository.placeChild(created.getUuid(), index);
+                    // placing may renumber the siblings, the cached child order is read again
+                    cache.invalidateTree(added.getTreeId());
+                }
+                return added;
+            }
+        });
+        applyAggregates(added.getUuid());
+        node.setNodeId(added.getNodeId());
+        node.setUuid(added.getUuid());
+        node.setDepth(added.getDepth());
+        node.setPath(added.getPath());
+        node.setTreeId(added.getTreeId());
+        node.setCreatedDate(added.getCreatedDate());
+        node.setLastModifiedDate(added.getLastModifiedDate());
+        LOG.debug("new node created: {}", added);
+        return added;
+    }
+
+    /**
+     * Helper method. Adds the aggregates of an inserted node to its ancestors, in a transaction of
+     * its own without a surrounding transaction, so the insert does not hold the locks of the
+     * ancestors up to the root. If the surrounding transaction bound {@link #DEFERRED_AGGREGATES},
+     * the node is only collected there. If this fails, the node stays pending until the next
+     * delete or move in its tree or the next start applies it.
+     * 
+     * @param uuid identifier of the inserted node
+     */
+    private void applyAggregates(final String uuid) {
+        @SuppressWarnings("unchecked")
+        final List<String> deferred = (List<String>) TransactionSynchronizationManager.getResource(DEFERRED_AGGREGATES);
+        if (null != deferred) {
+            deferred.add(uuid);
+            return;
+        }
+        try {
+            execute(new TransactionCallback<Long>() {
+                @Override
+                public Long doInTransaction(final TransactionStatus status) {
+                    return repository.applyPendingAggregates(Collections.singletonList(uuid));
+                }
+            });
+        }
+        catch (final RuntimeException e) {
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                throw e;
+            }
+            LOG.warn("Aggregates of node {} stay pending: {}", uuid, e.getMessage());
         }
-        parentNode = parentNode.addChild(node);
-        parentNode = repository.save(parentNode);
-        LOG.debug("new node created: {}");
-        return parentNode;
     }
 
     /**
-     * @see neo4j.tree.service.TreeService#findAll()
+     * @see neo4j.tree.service.TreeService#findAll(java.lang.String)
      */
     @Override
-    public List<Neo4jNode> findAll() {
-        return Lists.newArrayList(repository.findAll());
+    public List<Neo4jNode> findAll(final String treeId) {
+        return Lists.newArrayList(repository.findByTreeId(treeId));
     }
 
     /**
@@ -83,7 +206,88 @@ public class Neo4jTreeService implements TreeService
      */
     @Override
     public Neo4jNode findByUuid(final String uuid) {
-        return repository.findByUuid(uuid);
+        return findByUuid(uuid, DEFAULT_FETCH_DEPTH);
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeService#findByUuid(java.lang.String, int)
+     */
+    @Override
+    public Neo4jNode findByUuid(final String uuid, final int depth) {
+        if (depth < 0) {
+            final String msg = String.format("depth is [%d]. Unable to load node", depth);
+            throw new IllegalArgumentException(msg);
+        }
+        final Long nodeId = cache.getNodeId(uuid);
+        final Neo4jNode node = (null == nodeId) ? repository.findByUuid(uuid) : repository.findOne(nodeId);
+        if (null != node && depth > 0) {
+            if (null != node.getParent()) {
+                template.fetch(node.getParent());
+            }
+            fetchChildren(node, depth);
+        }
+        return node;
+    }
+
+    /**
+     * Inserts and places the node in one transaction, like {@link #addNode(Neo4jNode, String)}.
+     * 
+     * @see neo4j.tree.service.TreeService#addNode(neo4j.tree.domain.Neo4jNode, java.lang.String,
+     * int)
+     */
+    @Override
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Neo4jNode addNode(final Neo4jNode node, final String parentUuid, final int index) {
+        if (index < 0) {
+            final String msg = String.format("index is [%d]. Unable to add new node", index);
+            throw new IllegalArgumentException(msg);
+        }
+        return insert(node, parentUuid, Integer.valueOf(index));
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeService#reorderNode(java.lang.String, int)
+     */
+    @Override
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public long reorderNode(final String nodeUuid, final int index) {
+        if (StringUtils.isBlank(nodeUuid) || index < 0) {
+            final String msg = String.format("nodeUuid is [%s], index is [%d]. Unable to reorder node", nodeUuid, index);
+            throw new IllegalArgumentException(msg);
+        }
+        final Long position = execute(new TransactionCallback<Long>() {
+            @Override
+            public Long doInTransaction(final TransactionStatus status) {
+                final Long position = repository.placeChild(nodeUuid, index);
+                if (null != position) {
+                    cache.invalidateTree(repository.findTreeId(nodeUuid));
+                }
+                return position;
+            }
+        });
+        if (null == position) {
+            final String msg = String.format("Invalid nodeUuid %s. No child node to reorder found", nodeUuid);
+            throw new IllegalArgumentException(msg);
+        }
+        LOG.debug("Node with uuid {} placed at index {}, position {}", nodeUuid, index, position);
+        return position;
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeService#getChildPage(java.lang.String, long, int)
+     */
+    @Override
+    public ChildPage getChildPage(final String parentUuid, final long afterPosition, final int limit) {
+        if (afterPosition < 0 || limit < 1) {
+            final String msg = String.format("afterPosition is [%d], limit is [%d]. Unable to load children", afterPosition, limit);
+            throw new IllegalArgumentException(msg);
+        }
+        final List<NodeProjection> children = repository.findChildren(parentUuid, afterPosition, limit + 1);
+        if (null == children) {
+            return null;
+        }
+        final boolean hasMore = children.size() > limit;
+        return new ChildPage(parentUuid, afterPosition, limit, hasMore ? children.subList(0, limit) : children, hasMore);
     }
 
     /**
@@ -91,7 +295,15 @@ public class Neo4jTreeService implements TreeService
      */
     @Override
     public List<Neo4jNode> findByParent(final Neo4jNode parent) {
-        return Lists.newArrayList(repository.findByParent(parent));
+        final long[] childIds = cache.getChildNodeIds(parent.getUuid());
+        if (null == childIds) {
+            return Lists.newArrayList(repository.findByParent(parent));
+        }
+        final List<Neo4jNode> children = Lists.newArrayListWithCapacity(childIds.length);
+        for (final long childId : childIds) {
+            children.add(repository.findOne(childId));
+        }
+        return children;
     }
 
     /**
@@ -103,62 +315,373 @@ public class Neo4jTreeService implements TreeService
         if (null == form) {
             throw new IllegalArgumentException("form is NULL. Unable to update node");
         }
+        renameNode(nodeUuid, form.getName());
+        final Neo4jNode node = repository.findByUuid(nodeUuid);
+        LOG.debug("Node updated: {}", node);
+        return node;
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeService#renameNode(java.lang.String, java.lang.String)
+     */
+    @Override
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public String renameNode(final String nodeUuid, final String name) {
         if (StringUtils.isBlank(nodeUuid)) {
-            final String msg = String.format("nodeUuid is [{}]. Unable to update node", nodeUuid);
+            final String msg = String.format("nodeUuid is [%s]. Unable to rename node", nodeUuid);
             throw new IllegalArgumentException(msg);
         }
-        Neo4jNode node = repository.findByUuid(nodeUuid);
-        if (null == node) {
+        if (StringUtils.isEmpty(name)) {
+            final String msg = String.format("name is [%s]. Unable to rename node", name);
+            throw new IllegalArgumentException(msg);
+        }
+        final String treeId = execute(new TransactionCallback<String>() {
+            @Override
+            public String doInTransaction(final TransactionStatus status) {
+                final String treeId = repository.rename(nodeUuid, name, String.valueOf(System.currentTimeMillis()));
+                if (null != treeId) {
+                    cache.nodeRenamed(treeId, nodeUuid, name);
+                }
+                return treeId;
+            }
+        });
+        if (null == treeId) {
             final String msg = String.format("Invalid nodeUuid %s. No node to update found", nodeUuid);
             throw new IllegalArgumentException(msg);
         }
-        node.setName(form.getName());
-        node = repository.save(node);
-        LOG.debug("Node updated: {}", node);
-        return node;
+        return treeId;
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeService#getNodeDetail(java.lang.String, long, int)
+     */
+    @Override
+    public NodeDetail getNodeDetail(final String uuid, final long afterPosition, final int childLimit) {
+        if (afterPosition < 0 || childLimit < 0) {
+            final String msg = String.format("afterPosition is [%d], childLimit is [%d]. Unable to load node", afterPosition, childLimit);
+            throw new IllegalArgumentException(msg);
+        }
+        return repository.findDetail(uuid, afterPosition, childLimit);
     }
 
     /**
+     * Deletes the subtree in batches, each batch in its own transaction when called without a
+     * surrounding transaction. The subtree is detached from the tree in the first transaction, so it
+     * disappears at once, even while the batches are still running.
+     * 
      * @see neo4j.tree.service.TreeService#deleteNode(java.lang.String)
      */
     @Override
-    public void deleteNode(final String nodeUuid) {
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public long deleteNode(final String nodeUuid) {
         if (StringUtils.isBlank(nodeUuid)) {
             final String msg = String.format("nodeUuid is [{}]. Unable to delete node", nodeUuid);
             throw new IllegalArgumentException(msg);
         }
-        final Neo4jNode node = repository.findByUuid(nodeUuid);
-        if (null == node) {
+        final long marked = execute(new TransactionCallback<Long>() {
+            @Override
+            public Long doInTransaction(final TransactionStatus status) {
+                cache.invalidateTree(repository.findTreeId(nodeUuid));
+                repository.subtractFromAncestors(nodeUuid);
+                return repository.markForDeletion(nodeUuid);
+            }
+        });
+        if (marked < 1) {
             final String msg = String.format("Invalid nodeUuid %s. No node to delete found", nodeUuid);
             throw new IllegalArgumentException(msg);
         }
-        if (node.isRoot()) {
-            repository.deleteAll();
+        final long deleted = sweep(nodeUuid);
+        LOG.debug("Node with uuid {} and sub nodes deleted. {} nodes in total", nodeUuid, deleted);
+        return deleted;
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeService#resumeDeletes()
+     */
+    @Override
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public long resumeDeletes() {
+        final List<String> uuids = execute(new TransactionCallback<List<String>>() {
+            @Override
+            public List<String> doInTransaction(final TransactionStatus status) {
+                return repository.findMarkedUuids();
+            }
+        });
+        long deleted = 0;
+        for (final String uuid : uuids) {
+            deleted += sweep(uuid);
         }
-        else {
-            node.getParent().removeChild(node);
-            final List<Neo4jNode> subNodes = getPreordered(node);
-            repository.delete(subNodes);
+        if (deleted > 0) {
+            LOG.info("Interrupted deletes of {} subtrees finished, {} nodes in total", uuids.size(), deleted);
         }
-        LOG.debug("Node with uuid {} and sub nodes deleted", nodeUuid);
+        return deleted;
     }
 
     /**
-     * @see neo4j.tree.service.TreeService#getPreordered()
+     * Helper method. Deletes the subtree below a marked node batchwise, each batch in its own
+     * transaction when called without a surrounding transaction.
+     * 
+     * @param uuid identifier of the node that was marked for deletion
+     * @return number of deleted nodes
+     */
+    private long sweep(final String uuid) {
+        long deleted = 0;
+        long batch;
+        do {
+            batch = execute(new TransactionCallback<Long>() {
+                @Override
+                public Long doInTransaction(final TransactionStatus status) {
+                    return repository.deleteMarked(uuid, deleteBatchSize);
+                }
+            });
+            deleted += batch;
+        } while (batch > 0);
+        return deleted;
+    }
+
+    /**
+     * The subtree is attached to the new parent and its paths, depths and tree ids are rewritten in
+     * one transaction, so readers and inserts below the subtree never see it half moved. Without a
+     * surrounding transaction the move is retried when it is chosen as deadlock victim.
+     * 
+     * @see neo4j.tree.service.TreeService#moveNode(java.lang.String, java.lang.String)
      */
     @Override
-    public List<Neo4jNode> getPreordered(final Neo4jNode start) {
-        final List<Neo4jNode> nodes = start.preOrder();
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public long moveNode(final String nodeUuid, final String newParentUuid) {
+        if (StringUtils.isBlank(nodeUuid) || StringUtils.isBlank(newParentUuid)) {
+            final String msg = String.format("nodeUuid is [%s], newParentUuid is [%s]. Unable to move node", nodeUuid, newParentUuid);
+            throw new IllegalArgumentException(msg);
+        }
+        final long moved = execute(new TransactionCallback<Long>() {
+            @Override
+            public Long doInTransaction(final TransactionStatus status) {
+                return reparent(nodeUuid, newParentUuid);
+            }
+        });
+        if (0 == moved) {
+            LOG.debug("Node with uuid {} already is a child of {}", nodeUuid, newParentUuid);
+            return 0;
+        }
+        LOG.debug("Node with uuid {} and sub nodes moved to {}. {} nodes in total", nodeUuid, newParentUuid, moved);
+        return moved;
+    }
+
+    /**
+     * Helper method. Validates a move, replaces the parent relationship of the node and rewrites
+     * the paths of the subtree. Both chains of ancestors are locked before the paths are read, so
+     * a concurrent move that would close a cycle sees the result of this one.
+     * 
+     * @param nodeUuid identifier of the node to move
+     * @param newParentUuid identifier of the new parent node
+     * @return number of moved nodes, 0 if the node already is a child of the new parent
+     */
+    private long reparent(final String nodeUuid, final String newParentUuid) {
+        repository.lockAncestors(nodeUuid, newParentUuid);
+        final NodeProjection node = repository.findProjection(nodeUuid);
+        if (null == node) {
+            final String msg = String.format("Invalid nodeUuid %s. No node to move found", nodeUuid);
+            throw new IllegalArgumentException(msg);
+        }
+        final NodeProjection newParent = repository.findProjection(newParentUuid);
+        if (null == newParent) {
+            final String msg = String.format("Invalid newParentUuid %s. No parent node found", newParentUuid);
+            throw new IllegalArgumentException(msg);
+        }
+        if (null == node.getParentUuid()) {
+            final String msg = String.format("Node %s is the root node. Unable to move node", nodeUuid);
+            throw new IllegalArgumentException(msg);
+        }
+        // the new parent must not be part of the moved subtree, this includes the node itself
+        if (nodeUuid.equals(newParentUuid) || repository.isAncestorOf(nodeUuid, newParentUuid)) {
+            final String msg = String.format("Node %s is part of the subtree of node %s. Unable to move node", newParentUuid, nodeUuid);
+            throw new IllegalArgumentException(msg);
+        }
+        if (newParentUuid.equals(node.getParentUuid())) {
+            return 0;
+        }
+        cache.invalidateTree(node.getTreeId());
+        cache.invalidateTree(newParent.getTreeId());
+        repository.subtractFromAncestors(nodeUuid);
+        repository.reparent(nodeUuid, newParentUuid, String.valueOf(System.currentTimeMillis()));
+        repository.addToAncestors(nodeUuid);
+        return repository.rewritePaths(nodeUuid);
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeService#getAggregates(java.lang.String)
+     */
+    @Override
+    public SubtreeAggregates getAggregates(final String uuid) {
+        return repository.findAggregates(uuid);
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeService#repairAggregates(java.lang.String)
+     */
+    @Override
+    public long repairAggregates(final String treeId) {
+        if (StringUtils.isBlank(treeId)) {
+            final String msg = String.format("treeId is [%s]. Unable to repair aggregates", treeId);
+            throw new IllegalArgumentException(msg);
+        }
+        final long repaired = repository.repairAggregates(treeId);
+        LOG.info("Aggregates of tree {} repaired, {} nodes corrected", treeId, repaired);
+        return repaired;
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeService#getPreordered(java.lang.String)
+     */
+    @Override
+    public List<NodeProjection> getPreordered(final String startUuid) {
+        final List<NodeProjection> cached = cache.getPreordered(startUuid, Integer.MAX_VALUE, 0, Integer.MAX_VALUE);
+        if (null != cached) {
+            return cached;
+        }
+        final List<NodeProjection> nodes = Lists.newArrayList(repository.findPreordered(startUuid));
         return nodes;
     }
 
     /**
-     * @see neo4j.tree.service.TreeService#getRootNode()
+     * @see neo4j.tree.service.TreeService#getPreordered(java.lang.String, int, int, int)
      */
     @Override
-    public Neo4jNode getRootNode() {
-        final Neo4jNode rootNode = repository.findRootNode();
-        return rootNode;
+    public NodePage getPreordered(final String startUuid, final int maxDepth, final int offset, final int limit) {
+        if (maxDepth < 0 || offset < 0 || limit < 1) {
+            final String msg = String.format("Invalid window maxDepth=%d, offset=%d, limit=%d. Unable to load nodes", maxDepth, offset,
+                    limit);
+            throw new IllegalArgumentException(msg);
+        }
+        // one additional node tells whether a next page exists
+        List<NodeProjection> nodes = cache.getPreordered(startUuid, maxDepth, offset, limit + 1);
+        if (null == nodes) {
+            nodes = Lists.newArrayList(repository.findPreordered(startUuid, maxDepth, offset, limit + 1));
+        }
+        final boolean hasMore = nodes.size() > limit;
+        if (hasMore) {
+            nodes.remove(limit);
+        }
+        return new NodePage(startUuid, maxDepth, offset, limit, nodes, hasMore);
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeService#getRootNodes()
+     */
+    @Override
+    public List<NodeProjection> getRootNodes() {
+        return repository.findRootNodes();
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeService#getRootNode(java.lang.String)
+     */
+    @Override
+    public Neo4jNode getRootNode(final String treeId) {
+        return repository.findRootNode(treeId);
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeService#getTreeSummary(java.lang.String)
+     */
+    @Override
+    public TreeSummary getTreeSummary(final String treeId) {
+        final TreeSummary cached = cache.getTreeSummary(treeId);
+        if (null != cached) {
+            return cached;
+        }
+        final String rootUuid = repository.findRootUuid(treeId);
+        if (null == rootUuid) {
+            return TreeSummary.empty();
+        }
+        return new TreeSummary(repository.countNodes(treeId), rootUuid);
+    }
+
+    /**
+     * @see neo4j.tree.service.TreeService#search(java.lang.String, neo4j.tree.domain.SearchMode,
+     * java.lang.String, int, int)
+     */
+    @Override
+    public List<SearchHit> search(final String text, final SearchMode mode, final String treeId, final int offset, final int limit) {
+        if (null == mode || offset < 0 || limit < 1) {
+            final String msg = String.format("Invalid search mode=%s, offset=%d, limit=%d. Unable to search nodes", mode, offset, limit);
+            throw new IllegalArgumentException(msg);
+        }
+        if (StringUtils.isBlank(text)) {
+            return Lists.newArrayList();
+        }
+        return repository.searchByName(text, mode, treeId, offset, limit);
+    }
+
+    /**
+     * Helper method. Checks whether a transaction failed because it was chosen as deadlock victim,
+     * the exception may be wrapped by the mapping layer or the transaction manager.
+     * 
+     * @param e exception thrown by the transaction
+     * @return true for deadlocks
+     */
+    static boolean isDeadlock(final Throwable e) {
+        return Iterables.any(Throwables.getCausalChain(e), Predicates.instanceOf(DeadlockDetectedException.class));
+    }
+
+    /**
+     * Helper method. Waits a random time that grows with the attempts before a transaction is
+     * retried, so the transactions of a deadlock do not collide again.
+     * 
+     * @param attempt number of failed attempts
+     */
+    static void backOff(final int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(1, 1 + attempt * WRITE_BACK_OFF_MILLIS));
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while retrying a write", e);
+        }
+    }
+
+    /**
+     * Helper method. Runs a write in a transaction. Without a surrounding transaction the write
+     * runs in its own transaction and is retried when it is chosen as deadlock victim, otherwise it
+     * joins the surrounding one.
+     * 
+     * @param write the write
+     * @return result of the write
+     */
+    private <T> T execute(final TransactionCallback<T> write) {
+        final boolean retry = !TransactionSynchronizationManager.isActualTransactionActive();
+        for (int attempt = 1;; attempt++) {
+            try {
+                return transactionTemplate.execute(write);
+            }
+            catch (final RuntimeException e) {
+                if (!retry || attempt > writeRetries || !isDeadlock(e)) {
+                    throw e;
+                }
+                LOG.debug("Deadlock, attempt {} of {}", attempt, writeRetries + 1);
+                backOff(attempt);
+            }
+        }
+    }
+
+    /**
+     * Resolves the shallow loaded children of the given node down to the given number of levels.
+     * The child set is rebuilt, because loading changes the hash codes of its elements.
+     * 
+     * @param node parent node
+     * @param depth number of levels to load
+     */
+    private void fetchChildren(final Neo4jNode node, final int depth) {
+        if (depth < 1 || node.isLeaf()) {
+            return;
+        }
+        final Set<Neo4jNode> children = Sets.newHashSet();
+        for (final Neo4jNode child : node.getChildren()) {
+            final Neo4jNode loaded = template.fetch(child);
+            fetchChildren(loaded, depth - 1);
+            children.add(loaded);
+        }
+        node.setChildren(children);
     }
 
     @Inject
@@ -166,4 +689,28 @@ public class Neo4jTreeService implements TreeService
         this.repository = repository;
     }
 
+    @Inject
+    protected void setTemplate(final Neo4jTemplate template) {
+        this.template = template;
+    }
+
+    @Inject
+    protected void setCache(final TreeStructureCache cache) {
+        this.cache = cache;
+    }
+
+    @Inject
+    protected void setTransactionManager(final PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Value("${tree.delete.batchSize:1000}")
+    protected void setDeleteBatchSize(final int deleteBatchSize) {
+        this.deleteBatchSize = deleteBatchSize;
+    }
+
+    @Value("${tree.write.retries:5}")
+    protected void setWriteRetries(final int writeRetries) {
+        this.writeRetries = writeRetries;
+    }
 }
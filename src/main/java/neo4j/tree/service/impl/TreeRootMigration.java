@@ -0,0 +1,114 @@
+/**
+ * 
+ */
+package neo4j.tree.service.impl;
+
+import javax.inject.Inject;
+
+import neo4j.tree.event.NodeNameIndexer;
+import neo4j.tree.event.SiblingPositionIndexer;
+import neo4j.tree.repository.TreeNodeRepository;
+import neo4j.tree.service.TreeService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Sets the root label, the tree ids and the subtree aggregates and builds the name and sibling
+ * position indexes on databases that were written before they were maintained. Runs on startup,
+ * but only scans the nodes if the database contains tree nodes and no labeled root at all or one of
+ * the indexes is missing, and only
+ * traverses the trees whose root has no tree id or no aggregates, so it does its work once.
+ * Afterwards finishes the deletes that were interrupted by the last shutdown.
+ * 
+ * @author Markus Lamm
+ */
+@Component
+public class TreeRootMigration implements ApplicationListener<ContextRefreshedEvent>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TreeRootMigration.class);
+
+    private TreeNodeRepository repository;
+
+    private TreeService treeService;
+
+    private NodeNameIndexer nameIndexer;
+
+    private SiblingPositionIndexer positionIndexer;
+
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * Runs once the root context is refreshed. The refresh of a child context, like the one of the
+     * dispatcher servlet, is propagated to the root context and ignored.
+     * 
+     * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+     */
+    @Override
+    public void onApplicationEvent(final ContextRefreshedEvent event) {
+        if (null != event.getApplicationContext().getParent()) {
+            return;
+        }
+        final long labeled = transactionTemplate.execute(new TransactionCallback<Long>() {
+            @Override
+            public Long doInTransaction(final TransactionStatus status) {
+                return migrate();
+            }
+        });
+        if (labeled > 0) {
+            LOG.info("Root label, tree id, aggregates, name or position index entries set on {} nodes", labeled);
+        }
+        treeService.resumeDeletes();
+    }
+
+    /**
+     * Builds the name index and the position index if they do not exist, labels all nodes without
+     * parent, if no labeled root exists yet, then sets the tree id on the nodes of all trees whose
+     * root has none and computes the aggregates of all trees whose root has none. Finally applies
+     * the aggregates of nodes left pending by writers that stopped after their insert. The tree ids
+     * set here are indexed on commit. Has to be called within a transaction.
+     * 
+     * @return number of updated nodes
+     */
+    public long migrate() {
+        long updated = nameIndexer.rebuild() + positionIndexer.rebuild();
+        if (repository.countRootNodes() < 1 && repository.countNodes() > 0) {
+            updated += repository.labelRootNodes();
+        }
+        updated += repository.setMissingTreeIds();
+        updated += repository.repairMissingAggregates();
+        return updated + repository.applyAllPendingAggregates(null);
+    }
+
+    @Inject
+    protected void setRepository(final TreeNodeRepository repository) {
+        this.repository = repository;
+    }
+
+    @Inject
+    protected void setTreeService(final TreeService treeService) {
+        this.treeService = treeService;
+    }
+
+    @Inject
+    protected void setNameIndexer(final NodeNameIndexer nameIndexer) {
+        this.nameIndexer = nameIndexer;
+    }
+
+    @Inject
+    protected void setPositionIndexer(final SiblingPositionIndexer positionIndexer) {
+        this.positionIndexer = positionIndexer;
+    }
+
+    @Inject
+    protected void setTransactionManager(final PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+}
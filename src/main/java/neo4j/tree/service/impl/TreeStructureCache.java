@@ -0,0 +1,702 @@
+/**
+ * 
+ */
+package neo4j.tree.service.impl;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.inject.Inject;
+
+import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.domain.NodeProjection;
+import neo4j.tree.domain.SubtreeAggregates;
+import neo4j.tree.domain.TreeSummary;
+import neo4j.tree.repository.TreeNodeRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Read-through cache of tree structures. Holds names and the parent/children adjacency of the nodes
+ * of recently read trees, every node is identified by an int index into primitive arrays of its
+ * tree. A tree is loaded with one traversal on the first read of one of its nodes, concurrent
+ * misses of the same tree wait for that load. Trees are patched by the services after their
+ * transactions commit, maxNodes bounds the number of nodes of all cached trees. A rolled back write
+ * drops the trees it touched, a transaction with pending writes always reads from the database.
+ * Writes that bypass the services have to call {@link #invalidateTree(String)} or
+ * {@link #invalidate()}.
+ * 
+ * @author Markus Lamm
+ */
+@Component
+public class TreeStructureCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TreeStructureCache.class);
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final int[] NO_CHILDREN = new int[0];
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Cached trees by tree id, the tree loaded first is evicted first
+     */
+    private final Map<String, TreeStructure> trees = Maps.newLinkedHashMap();
+
+    /**
+     * Cached trees by the uuids of their nodes
+     */
+    private final Map<String, TreeStructure> owners = Maps.newHashMap();
+
+    /**
+     * Running loads by tree id, a write to a tree that is being loaded makes the load stale
+     */
+    private final Map<String, TreeLoad> loads = Maps.newHashMap();
+
+    private TreeNodeRepository repository;
+
+    private volatile boolean enabled;
+
+    private int maxNodes;
+
+    /**
+     * Number of nodes of all cached trees
+     */
+    private int size;
+
+    /**
+     * Cached summary of a tree
+     * 
+     * @param treeId tree identifier, the uuid of the root node
+     * @return summary, or null if not cached or the tree does not exist
+     */
+    public TreeSummary getTreeSummary(final String treeId) {
+        final TreeStructure tree = acquire(treeId, true);
+        if (null == tree) {
+            return null;
+        }
+        try {
+            return new TreeSummary(tree.size, tree.treeId);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Graph id of the node with the given uuid
+     * 
+     * @param uuid node identifier
+     * @return graph id, or null if not cached or unknown
+     */
+    public Long getNodeId(final String uuid) {
+        final TreeStructure tree = acquire(uuid, false);
+        if (null == tree) {
+            return null;
+        }
+        try {
+            return tree.nodeIds[tree.indexes.get(uuid)];
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Graph ids of the children of the node with the given uuid
+     * 
+     * @param uuid node identifier
+     * @return graph ids, or null if not cached or unknown
+     */
+    public long[] getChildNodeIds(final String uuid) {
+        final TreeStructure tree = acquire(uuid, false);
+        if (null == tree) {
+            return null;
+        }
+        try {
+            final int index = tree.indexes.get(uuid);
+            final long[] result = new long[tree.childCounts[index]];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = tree.nodeIds[tree.children[index][i]];
+            }
+            return result;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Window of the preordered subtree of the node with the given uuid, the children of a node in
+     * sibling order, see TreeNodeRepositoryCustom#findPreordered(String, int, int, int). The
+     * projections carry no audit dates.
+     * 
+     * @param startUuid identifier of the traversal start
+     * @param maxDepth deepest level to include, relative to the start node
+     * @param offset preorder position of the first node
+     * @param limit maximum number of nodes
+     * @return flat nodes in preorder, or null if not cached or the start node is unknown
+     */
+    public List<NodeProjection> getPreordered(final String startUuid, final int maxDepth, final int offset, final int limit) {
+        final TreeStructure tree = acquire(startUuid, false);
+        if (null == tree) {
+            return null;
+        }
+        try {
+            final int start = tree.indexes.get(startUuid);
+            final List<NodeProjection> result = Lists.newArrayListWithCapacity(Math.min(limit, tree.size));
+            final Deque<Integer> nodes = new ArrayDeque<>();
+            final Deque<Integer> depths = new ArrayDeque<>();
+            final Deque<String> paths = new ArrayDeque<>();
+            nodes.push(start);
+            depths.push(0);
+            paths.push(tree.getPath(start));
+            int position = 0;
+            while (!nodes.isEmpty() && result.size() < limit) {
+                final int node = nodes.pop();
+                final int depth = depths.pop();
+                final String path = paths.pop();
+                if (position++ >= offset) {
+                    result.add(tree.toProjection(node, depth, path));
+                }
+                if (depth < maxDepth) {
+                    // pushed in reverse, so the first child is visited first
+                    for (int i = tree.childCounts[node] - 1; i >= 0; i--) {
+                        final int child = tree.children[node][i];
+                        nodes.push(child);
+                        depths.push(depth + 1);
+                        paths.push(path + tree.uuids[child] + Neo4jNode.PATH_SEPARATOR);
+                    }
+                }
+            }
+            return result;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a created node once the current transaction commits
+     * 
+     * @param treeId identifier of the tree of the node
+     * @param parentUuid identifier of the parent node
+     * @param nodeId graph id of the created node
+     * @param uuid identifier of the created node
+     * @param name name of the created node
+     * @param position position of the created node among its siblings
+     */
+    public void nodeAdded(final String treeId, final String parentUuid, final long nodeId, final String uuid, final String name,
+            final long position) {
+        afterCommit(treeId, new Runnable() {
+            @Override
+            public void run() {
+                final TreeStructure tree = trees.get(treeId);
+                if (null == tree) {
+                    return;
+                }
+                // a load that already read the node, or a tree that does not fit anymore
+                if (owners.containsKey(uuid) || !tree.indexes.containsKey(parentUuid) || size >= maxNodes) {
+                    drop(tree);
+                    return;
+                }
+                final int parent = tree.indexes.get(parentUuid);
+                tree.addChild(parent, tree.append(nodeId, uuid, name, position, parent));
+                owners.put(uuid, tree);
+                size++;
+            }
+        });
+    }
+
+    /**
+     * Renames a node once the current transaction commits
+     * 
+     * @param treeId identifier of the tree of the node
+     * @param uuid node identifier
+     * @param name new name
+     */
+    public void nodeRenamed(final String treeId, final String uuid, final String name) {
+        afterCommit(treeId, new Runnable() {
+            @Override
+            public void run() {
+                final TreeStructure tree = trees.get(treeId);
+                if (null != tree && tree.indexes.containsKey(uuid)) {
+                    tree.names[tree.indexes.get(uuid)] = name;
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops a cached tree once the current transaction completes, immediately if no transaction is
+     * active. Other cached trees are kept, the next read loads the tree again.
+     * 
+     * @param treeId tree identifier, the uuid of the root node, null is ignored
+     */
+    public void invalidateTree(final String treeId) {
+        if (null == treeId) {
+            return;
+        }
+        afterCommit(treeId, new Runnable() {
+            @Override
+            public void run() {
+                drop(trees.get(treeId));
+            }
+        });
+    }
+
+    /**
+     * Drops all cached trees once the current transaction completes, immediately if no transaction
+     * is active. The next reads load the trees again.
+     */
+    public void invalidate() {
+        afterCommit(null, new Runnable() {
+            @Override
+            public void run() {
+                clear();
+            }
+        });
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Number of cached nodes
+     * 
+     * @return nodes of all cached trees
+     */
+    public int getSize() {
+        lock.readLock().lock();
+        try {
+            return size;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Switches the cache on or off, the cached trees are dropped
+     * 
+     * @param enabled whether reads are served from the cache
+     */
+    @Value("${tree.cache.enabled:true}")
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+        lock.writeLock().lock();
+        try {
+            clear();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Value("${tree.cache.maxNodes:100000}")
+    public void setMaxNodes(final int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Helper method. Takes the read lock on the cached tree of a node, loads the tree if necessary.
+     * 
+     * @param uuid node identifier, or tree identifier if byTreeId is set
+     * @param byTreeId whether the uuid identifies a tree
+     * @return the tree, the read lock is held, or null if the node cannot be read from the cache
+     */
+    private TreeStructure acquire(final String uuid, final boolean byTreeId) {
+        if (!enabled || null == uuid || TransactionSynchronizationManager.hasResource(this)) {
+            return null;
+        }
+        final Map<String, TreeStructure> lookup = byTreeId ? trees : owners;
+        lock.readLock().lock();
+        TreeStructure tree = lookup.get(uuid);
+        if (null != tree) {
+            hitCount.incrementAndGet();
+            return tree;
+        }
+        lock.readLock().unlock();
+        missCount.incrementAndGet();
+        final String treeId = byTreeId ? uuid : repository.findTreeId(uuid);
+        if (null == treeId || !load(treeId)) {
+            return null;
+        }
+        lock.readLock().lock();
+        tree = lookup.get(uuid);
+        if (null == tree) {
+            lock.readLock().unlock();
+        }
+        return tree;
+    }
+
+    /**
+     * Helper method. Loads a tree unless it is cached already. Only one thread loads a tree, the
+     * others wait for its load and read from the database if it was not installed.
+     * 
+     * @param treeId tree identifier, the uuid of the root node
+     * @return true, if the tree is cached
+     */
+    private boolean load(final String treeId) {
+        TreeLoad running;
+        final TreeLoad load;
+        lock.writeLock().lock();
+        try {
+            if (trees.containsKey(treeId)) {
+                return true;
+            }
+            running = loads.get(treeId);
+            load = (null == running) ? new TreeLoad() : null;
+            if (null != load) {
+                loads.put(treeId, load);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        if (null != running) {
+            return awaitLoad(treeId, running);
+        }
+        try {
+            final List<NodeProjection> nodes = read(treeId);
+            return null != nodes && install(treeId, nodes, load);
+        }
+        finally {
+            lock.writeLock().lock();
+            try {
+                loads.remove(treeId);
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+            load.done.countDown();
+        }
+    }
+
+    /**
+     * Helper method. Waits for the load of another thread
+     * 
+     * @param treeId tree identifier
+     * @param running the load
+     * @return true, if the tree is cached afterwards
+     */
+    private boolean awaitLoad(final String treeId, final TreeLoad running) {
+        try {
+            running.done.await();
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            return trees.containsKey(treeId);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Helper method. Reads a whole tree in preorder. Trees whose root counts more than maxNodes
+     * nodes are not read, the traversal stops at maxNodes in case the counts are not up to date.
+     * 
+     * @param treeId tree identifier, the uuid of the root node
+     * @return the nodes, or null if the tree does not exist or does not fit
+     */
+    private List<NodeProjection> read(final String treeId) {
+        final SubtreeAggregates aggregates = (null == repository.findRootUuid(treeId)) ? null : repository.findAggregates(treeId);
+        if (null == aggregates) {
+            return null;
+        }
+        if (aggregates.getDescendantCount() >= maxNodes) {
+            LOG.debug("Tree {} exceeds {} nodes, structure is not cached", treeId, maxNodes);
+            return null;
+        }
+        final List<NodeProjection> nodes = Lists.newArrayList();
+        for (final NodeProjection node : repository.findPreordered(treeId)) {
+            if (nodes.size() >= maxNodes) {
+                LOG.info("Tree {} exceeds {} nodes, structure is not cached", treeId, maxNodes);
+                return null;
+            }
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    /**
+     * Helper method. Installs a loaded tree, unless a write to the tree was applied meanwhile.
+     * Evicts the trees loaded first, until the nodes of all trees fit into maxNodes.
+     * 
+     * @param treeId tree identifier, the uuid of the root node
+     * @param nodes nodes of the tree in preorder
+     * @param load the load, stale if a write was applied meanwhile
+     * @return true, if the tree is installed
+     */
+    private boolean install(final String treeId, final List<NodeProjection> nodes, final TreeLoad load) {
+        lock.writeLock().lock();
+        try {
+            if (load.stale) {
+                return false;
+            }
+            final TreeStructure tree = new TreeStructure(treeId);
+            for (final NodeProjection node : nodes) {
+                final Integer parent = (null == node.getParentUuid()) ? null : tree.indexes.get(node.getParentUuid());
+                final int index = tree.append(node.getNodeId(), node.getUuid(), node.getName(), node.getPosition(),
+                        (null == parent) ? -1 : parent);
+                if (null != parent) {
+                    tree.addChild(parent, index);
+                }
+            }
+            while (size + tree.size > maxNodes && !trees.isEmpty()) {
+                drop(trees.values().iterator().next());
+            }
+            trees.put(treeId, tree);
+            for (int i = 0; i < tree.size; i++) {
+                owners.put(tree.uuids[i], tree);
+            }
+            size += tree.size;
+            LOG.debug("Tree structure {} cached, {} nodes", treeId, tree.size);
+            return true;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Helper method. Applies the change after the current transaction committed, or drops the
+     * changed tree after a rollback. Until then reads in the transaction bypass the cache.
+     * 
+     * @param treeId identifier of the changed tree, null for all trees
+     * @param change structural change, runs under the write lock
+     */
+    private void afterCommit(final String treeId, final Runnable change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(treeId, change, true);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        List<TreeChange> changes = (List<TreeChange>) TransactionSynchronizationManager.getResource(this);
+        if (null == changes) {
+            changes = Lists.newArrayList();
+            TransactionSynchronizationManager.bindResource(this, changes);
+            final List<TreeChange> pending = changes;
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(TreeStructureCache.this);
+                    final boolean committed = status == TransactionSynchronization.STATUS_COMMITTED;
+                    for (final TreeChange pendingChange : pending) {
+                        apply(pendingChange.treeId, pendingChange.change, committed);
+                    }
+                }
+            });
+        }
+        changes.add(new TreeChange(treeId, change));
+    }
+
+    private void apply(final String treeId, final Runnable change, final boolean committed) {
+        lock.writeLock().lock();
+        try {
+            if (null == treeId) {
+                for (final TreeLoad load : loads.values()) {
+                    load.stale = true;
+                }
+            }
+            else if (loads.containsKey(treeId)) {
+                loads.get(treeId).stale = true;
+            }
+            if (committed) {
+                change.run();
+            }
+            else if (null == treeId) {
+                clear();
+            }
+            else {
+                drop(trees.get(treeId));
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Helper method. Drops all trees, must be called under the write lock.
+     */
+    private void clear() {
+        trees.clear();
+        owners.clear();
+        size = 0;
+        for (final TreeLoad load : loads.values()) {
+            load.stale = true;
+        }
+    }
+
+    /**
+     * Helper method. Drops one tree, must be called under the write lock.
+     * 
+     * @param tree cached tree, or null
+     */
+    private void drop(final TreeStructure tree) {
+        if (null == tree) {
+            return;
+        }
+        trees.remove(tree.treeId);
+        for (int i = 0; i < tree.size; i++) {
+            owners.remove(tree.uuids[i]);
+        }
+        size -= tree.size;
+    }
+
+    @Inject
+    protected void setRepository(final TreeNodeRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * A load of a tree by one thread, others wait until it is done
+     */
+    private static final class TreeLoad
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * Set under the write lock when a write to the tree is applied during the load
+         */
+        private boolean stale;
+    }
+
+    /**
+     * A change of a cached tree that waits for the end of its transaction
+     */
+    private static final class TreeChange
+    {
+        private final String treeId;
+        private final Runnable change;
+
+        private TreeChange(final String treeId, final Runnable change) {
+            this.treeId = treeId;
+            this.change = change;
+        }
+    }
+
+    /**
+     * Structure of one cached tree
+     */
+    private static final class TreeStructure
+    {
+        private final String treeId;
+        private final Map<String, Integer> indexes = Maps.newHashMap();
+        private String[] uuids = new String[INITIAL_CAPACITY];
+        private String[] names = new String[INITIAL_CAPACITY];
+        private long[] nodeIds = new long[INITIAL_CAPACITY];
+        private long[] positions = new long[INITIAL_CAPACITY];
+        private int[] parents = new int[INITIAL_CAPACITY];
+        private int[][] children = new int[INITIAL_CAPACITY][];
+        private int[] childCounts = new int[INITIAL_CAPACITY];
+        private int size;
+
+        private TreeStructure(final String treeId) {
+            this.treeId = treeId;
+        }
+
+        private int append(final long nodeId, final String uuid, final String name, final long position, final int parent) {
+            if (size == uuids.length) {
+                final int capacity = size * 2;
+                uuids = Arrays.copyOf(uuids, capacity);
+                names = Arrays.copyOf(names, capacity);
+                nodeIds = Arrays.copyOf(nodeIds, capacity);
+                positions = Arrays.copyOf(positions, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                children = Arrays.copyOf(children, capacity);
+                childCounts = Arrays.copyOf(childCounts, capacity);
+            }
+            final int index = size++;
+            uuids[index] = uuid;
+            names[index] = name;
+            nodeIds[index] = nodeId;
+            positions[index] = position;
+            parents[index] = parent;
+            children[index] = NO_CHILDREN;
+            childCounts[index] = 0;
+            indexes.put(uuid, index);
+            return index;
+        }
+
+        /**
+         * Inserts a child behind the siblings with a lower or equal position, a preorder load adds
+         * the children in their order, so they are appended.
+         */
+        private void addChild(final int parent, final int child) {
+            final int count = childCounts[parent];
+            if (children[parent].length == count) {
+                children[parent] = Arrays.copyOf(children[parent], Math.max(1, count * 2));
+            }
+            final int[] siblings = children[parent];
+            int insertAt = count;
+            while (insertAt > 0 && positions[siblings[insertAt - 1]] > positions[child]) {
+                insertAt--;
+            }
+            System.arraycopy(siblings, insertAt, siblings, insertAt + 1, count - insertAt);
+            siblings[insertAt] = child;
+            childCounts[parent] = count + 1;
+        }
+
+        private String getPath(final int index) {
+            final StringBuilder path = new StringBuilder(Neo4jNode.PATH_SEPARATOR);
+            final Deque<String> ancestors = new ArrayDeque<>();
+            for (int node = index; node >= 0; node = parents[node]) {
+                ancestors.push(uuids[node]);
+            }
+            for (final String uuid : ancestors) {
+                path.append(uuid).append(Neo4jNode.PATH_SEPARATOR);
+            }
+            return path.toString();
+        }
+
+        private NodeProjection toProjection(final int index, final int depth, final String path) {
+            final NodeProjection projection = new NodeProjection();
+            projection.setNodeId(nodeIds[index]);
+            projection.setUuid(uuids[index]);
+            projection.setName(names[index]);
+            projection.setParentUuid((parents[index] < 0) ? null : uuids[parents[index]]);
+            projection.setDepth(depth);
+            projection.setPath(path);
+            projection.setChildCount(childCounts[index]);
+            projection.setPosition(positions[index]);
+            return projection;
+        }
+    }
+}
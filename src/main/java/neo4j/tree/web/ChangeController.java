@@ -0,0 +1,194 @@
+/**
+ * 
+ */
+package neo4j.tree.web;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
+
+import neo4j.tree.domain.ChangeEvent;
+import neo4j.tree.domain.ChangePage;
+import neo4j.tree.event.ChangeLog;
+
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Serves the change log to clients that follow it from a cursor. A request with a cursor at the
+ * end of the log waits until new events are written or the timeout passes, without holding a
+ * thread. The events are available as JSON page or in the Server-Sent Events format. The event
+ * stream ends after each answer and asks the client to reconnect at once, EventSource clients
+ * continue with the Last-Event-ID they were sent.
+ * 
+ * @author Markus Lamm
+ */
+@Controller
+@RequestMapping("/changes")
+public class ChangeController
+{
+    private static final String DEFAULT_LIMIT = "100";
+
+    private static final String DEFAULT_TIMEOUT = "30000";
+
+    private static final int MAX_LIMIT = 1000;
+
+    private static final long MAX_TIMEOUT = 60000;
+
+    /**
+     * Milliseconds an EventSource client waits before it reconnects
+     */
+    private static final int RECONNECT_MILLIS = 100;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private ChangeLog changeLog;
+
+    /**
+     * Long-poll for change events
+     * 
+     * @param after sequence number of the last event the client has, 0 to read from the start
+     * @param limit maximum number of events
+     * @param timeout milliseconds to wait for new events, at least 1
+     * @return the events after the cursor, empty after the timeout
+     */
+    @RequestMapping(value = "", method = RequestMethod.GET)
+    @ResponseBody
+    public DeferredResult<ChangePage> getChanges(final @RequestParam(value = "after", defaultValue = "0") long after,
+            final @RequestParam(value = "limit", defaultValue = DEFAULT_LIMIT) int limit,
+            final @RequestParam(value = "timeout", defaultValue = DEFAULT_TIMEOUT) long timeout) {
+        validate(after, limit, timeout);
+        final DeferredResult<ChangePage> result = new DeferredResult<ChangePage>(timeout, new ChangePage(
+                Collections.<ChangeEvent> emptyList(), after));
+        await(result, after, limit, new PageRenderer<ChangePage>() {
+            @Override
+            public ChangePage render(final List<ChangeEvent> events) {
+                return new ChangePage(events, events.get(events.size() - 1).getSequence());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Change events in the Server-Sent Events format, the sequence number is the event id
+     * 
+     * @param lastEventId sequence number of the last event an EventSource client received
+     * @param after sequence number of the last event the client has, if it did not send the header
+     * @param limit maximum number of events
+     * @param timeout milliseconds to wait for new events, at least 1
+     * @return the events after the cursor, only the reconnection time after the timeout
+     */
+    @RequestMapping(value = "/stream", method = RequestMethod.GET, produces = "text/event-stream;charset=UTF-8")
+    @ResponseBody
+    public DeferredResult<String> streamChanges(final @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+            final @RequestParam(value = "after", defaultValue = "0") long after,
+            final @RequestParam(value = "limit", defaultValue = DEFAULT_LIMIT) int limit,
+            final @RequestParam(value = "timeout", defaultValue = DEFAULT_TIMEOUT) long timeout) {
+        final long cursor = (null == lastEventId) ? after : lastEventId;
+        validate(cursor, limit, timeout);
+        final String retry = String.format("retry: %d\n\n", RECONNECT_MILLIS);
+        final DeferredResult<String> result = new DeferredResult<String>(timeout, retry);
+        await(result, cursor, limit, new PageRenderer<String>() {
+            @Override
+            public String render(final List<ChangeEvent> events) throws IOException {
+                final StringBuilder stream = new StringBuilder(retry);
+                for (final ChangeEvent event : events) {
+                    stream.append("id: ").append(event.getSequence()).append('\n');
+                    stream.append("event: ").append(event.getType().name().toLowerCase(Locale.ENGLISH)).append('\n');
+                    stream.append("data: ").append(MAPPER.writeValueAsString(event)).append("\n\n");
+                }
+                return stream.toString();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Answers invalid cursors and windows with bad request, clients are expected to correct them
+     * instead of retrying
+     * 
+     * @param response the response
+     * @param e validation failure
+     * @throws IOException if writing the response fails
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    public void handleIllegalArgument(final HttpServletResponse response, final IllegalArgumentException e) throws IOException {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+    }
+
+    /**
+     * Helper method. Checks the cursor and window of a request
+     * 
+     * @param after cursor
+     * @param limit maximum number of events
+     * @param timeout milliseconds to wait, at least 1 as 0 would never time out
+     */
+    private static void validate(final long after, final int limit, final long timeout) {
+        if (after < 0 || limit < 1 || limit > MAX_LIMIT || timeout < 1 || timeout > MAX_TIMEOUT) {
+            final String format = "after is [%d], limit is [%d], timeout is [%d]. Unable to read changes";
+            throw new IllegalArgumentException(String.format(format, after, limit, timeout));
+        }
+    }
+
+    /**
+     * Helper method. Completes the result with the events after the cursor as soon as there are
+     * any. The listener is added before the first read, so no event written in between is missed.
+     * 
+     * @param result the deferred result
+     * @param after cursor
+     * @param limit maximum number of events
+     * @param renderer renders the events
+     */
+    private <T> void await(final DeferredResult<T> result, final long after, final int limit, final PageRenderer<T> renderer) {
+        final Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                if (result.isSetOrExpired() || changeLog.getLastSequence() <= after) {
+                    return;
+                }
+                final List<ChangeEvent> events = changeLog.read(after, limit);
+                if (!events.isEmpty()) {
+                    try {
+                        result.setResult(renderer.render(events));
+                    }
+                    catch (final IOException e) {
+                        result.setErrorResult(e);
+                    }
+                }
+            }
+        };
+        result.onCompletion(new Runnable() {
+            @Override
+            public void run() {
+                changeLog.removeListener(listener);
+            }
+        });
+        changeLog.addListener(listener);
+        listener.run();
+    }
+
+    @Inject
+    public void setChangeLog(final ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    /**
+     * Renders the events of an answer
+     */
+    private interface PageRenderer<T>
+    {
+        T render(List<ChangeEvent> events) throws IOException;
+    }
+}
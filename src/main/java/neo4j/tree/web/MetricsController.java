@@ -0,0 +1,55 @@
+/**
+ * 
+ */
+package neo4j.tree.web;
+
+import java.util.List;
+
+import javax.inject.Inject;
+
+import neo4j.tree.metrics.MetricsRegistry;
+import neo4j.tree.metrics.OperationMetrics;
+
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Exposes the operation statistics as JSON, for monitoring without JMX access
+ * 
+ * @author Markus Lamm
+ */
+@Controller
+@RequestMapping("/metrics")
+public class MetricsController
+{
+    private MetricsRegistry registry;
+
+    /**
+     * Lists the statistics of all operations called since start or the last reset
+     * 
+     * @return statistics, ordered by operation name
+     */
+    @RequestMapping(value = "", method = RequestMethod.GET)
+    @ResponseBody
+    public List<OperationMetrics> getMetrics() {
+        return registry.getAll();
+    }
+
+    /**
+     * Resets the statistics of all operations
+     * 
+     * @return redirects to the statistics
+     */
+    @RequestMapping(value = "/reset", method = RequestMethod.POST)
+    public String reset() {
+        registry.reset();
+        return "redirect:/metrics";
+    }
+
+    @Inject
+    public void setRegistry(final MetricsRegistry registry) {
+        this.registry = registry;
+    }
+}
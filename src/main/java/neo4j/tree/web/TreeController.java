@@ -3,30 +3,57 @@
  */
 package neo4j.tree.web;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 import javax.inject.Inject;
+import javax.inject.Named;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.ConstraintViolation;
 import javax.validation.Validator;
 
+import neo4j.tree.domain.ChildPage;
 import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.domain.NodeDetail;
+import neo4j.tree.domain.NodeProjection;
+import neo4j.tree.domain.SearchHit;
+import neo4j.tree.domain.SearchMode;
+import neo4j.tree.domain.TreeSummary;
+import neo4j.tree.event.TreeVersion;
+import neo4j.tree.service.TreeExportService;
 import neo4j.tree.service.TreeService;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.core.task.support.TaskExecutorAdapter;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
-import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.WebAsyncTask;
 
 
 import com.google.common.collect.Lists;
 
 /**
- * Web controller for tree operations. Uses Thymeleaf templates as view resolver
+ * Web controller for tree operations. Uses Thymeleaf templates as view resolver. Requests that may
+ * touch whole trees are processed asynchronously on bounded executors, separate ones for reads and
+ * writes, so they do not block servlet threads. Read requests carry an ETag derived from the tree
+ * version and are answered with 304 before the database is touched, as long as no write was
+ * committed since.
  * 
  * @author Markus Lamm
  */
@@ -36,30 +63,206 @@ public class TreeController
 {
     private static final Logger LOG = LoggerFactory.getLogger(TreeController.class);
 
+    private static final String DEFAULT_PAGE_SIZE = "100";
+
+    private static final String DEFAULT_SEARCH_SIZE = "10";
+
+    /**
+     * Number of children shown when a form is displayed again because of validation errors
+     */
+    private static final int ERROR_PAGE_CHILD_LIMIT = 100;
+
+    /**
+     * Number of levels shown below the first node of a window, deeper nodes have to be expanded
+     */
+    private static final int DEFAULT_WINDOW_DEPTH = 3;
+
+    private static final String EXPORT_FORMAT_JSON = "json";
+    private static final String EXPORT_FORMAT_CSV = "csv";
+
     private TreeService service;
 
+    private TreeExportService exportService;
+
     private Validator validator;
 
-    @ModelAttribute("allNodes")
-    public List<Neo4jNode> getAllNodes() {
-        List<Neo4jNode> result = service.findAll();
-        return result;
-    }
+    private AsyncTaskExecutor readExecutor;
+
+    private AsyncTaskExecutor writeExecutor;
+
+    private TreeVersion treeVersion;
+
+    private long longRunningTimeout;
 
     /**
-     * Shows index page, lists the tree structure or links to a form to create the root node
+     * Shows index page, lists the trees and a window of one tree or links to a form to create a
+     * tree
      * 
+     * @param request conditional request
      * @param model view model
-     * @return view name
+     * @param treeId identifier of the shown tree, the tree of the start node or the first tree if
+     * not set
+     * @param startUuid identifier of the node the window starts with, the root node if not set
+     * @param offset preorder position of the first displayed node
+     * @param limit maximum number of displayed nodes
+     * @return view name, produced by the read executor, null if not modified
      */
     @RequestMapping(value = "", method = RequestMethod.GET)
-    public String index(final Model model) {
-        final Neo4jNode rootNode = service.getRootNode();
-        if (null != rootNode) {
-            final List<Neo4jNode> ordereredNodes = service.getPreordered(rootNode);
-            model.addAttribute("orderedNodes", ordereredNodes);
+    public WebAsyncTask<String> index(final ServletWebRequest request, final Model model,
+            final @RequestParam(value = "tree", required = false) String treeId,
+            final @RequestParam(value = "start", required = false) String startUuid,
+            final @RequestParam(value = "offset", defaultValue = "0") int offset,
+            final @RequestParam(value = "limit", defaultValue = DEFAULT_PAGE_SIZE) int limit) {
+        if (isNotModified(request)) {
+            return null;
+        }
+        return submit(readExecutor, new Callable<String>() {
+            @Override
+            public String call() {
+                final List<NodeProjection> rootNodes = service.getRootNodes();
+                model.addAttribute("rootNodes", rootNodes);
+                final String shownTreeId = getTreeId(treeId, startUuid, rootNodes);
+                final TreeSummary summary = (null == shownTreeId) ? TreeSummary.empty() : service.getTreeSummary(shownTreeId);
+                model.addAttribute("treeSummary", summary);
+                if (!summary.isEmpty()) {
+                    final String windowStart = StringUtils.isBlank(startUuid) ? summary.getRootUuid() : startUuid;
+                    model.addAttribute("nodePage", service.getPreordered(windowStart, DEFAULT_WINDOW_DEPTH, offset, limit));
+                }
+                return ViewNames.INDEX;
+            }
+        });
+    }
+
+    /**
+     * Partial load of the subtree below the node with the given nodeUuid. Renders just the node
+     * list fragment of the index page, its expand links insert it below the expanded node.
+     * 
+     * @param request conditional request
+     * @param model view model
+     * @param nodeUuid node identifier
+     * @param offset preorder position of the first displayed node
+     * @param limit maximum number of displayed nodes
+     * @return view name, null if not modified
+     */
+    @RequestMapping(value = "/node/{nodeUuid}/expand", method = RequestMethod.GET)
+    public String expandNode(final ServletWebRequest request, final Model model, final @PathVariable String nodeUuid,
+            final @RequestParam(value = "offset", defaultValue = "0") int offset,
+            final @RequestParam(value = "limit", defaultValue = DEFAULT_PAGE_SIZE) int limit) {
+        if (isNotModified(request)) {
+            return null;
+        }
+        model.addAttribute("nodePage", service.getPreordered(nodeUuid, DEFAULT_WINDOW_DEPTH, offset, limit));
+        return ViewNames.NODES_FRAGMENT;
+    }
+
+    /**
+     * Streams the subtree of a node to the response, as nested JSON or flat CSV. The format is
+     * checked before, the export runs on the read executor, by default without the timeout of
+     * asynchronous requests, as it writes to the response until it is done.
+     * 
+     * @param request conditional request
+     * @param response servlet response the export is written to
+     * @param treeId identifier of the exported tree, the first tree if neither tree nor start node
+     * are set
+     * @param startUuid identifier of the top node of the export, the root node if not set
+     * @param format json or csv
+     * @return export task, writes the response itself, null if not modified
+     */
+    @RequestMapping(value = "/export", method = RequestMethod.GET)
+    @ResponseBody
+    public WebAsyncTask<Void> export(final ServletWebRequest request, final HttpServletResponse response,
+            final @RequestParam(value = "tree", required = false) String treeId,
+            final @RequestParam(value = "start", required = false) String startUuid,
+            final @RequestParam(value = "format", defaultValue = EXPORT_FORMAT_JSON) String format) {
+        final boolean json = EXPORT_FORMAT_JSON.equalsIgnoreCase(format);
+        if (!json && !EXPORT_FORMAT_CSV.equalsIgnoreCase(format)) {
+            final String msg = String.format("format is [%s]. Unable to export nodes", format);
+            throw new IllegalArgumentException(msg);
+        }
+        if (isNotModified(request)) {
+            return null;
+        }
+        return submit(readExecutor, longRunningTimeout, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                final String exportStart = StringUtils.isBlank(startUuid) ? getTreeId(treeId, null, service.getRootNodes()) : startUuid;
+                if (null == exportStart) {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND, "No tree to export found");
+                    return null;
+                }
+                final long exported;
+                if (json) {
+                    response.setContentType("application/json;charset=UTF-8");
+                    response.setHeader("Content-Disposition", "attachment; filename=\"tree.json\"");
+                    exported = exportService.exportJson(exportStart, response.getOutputStream());
+                }
+                else {
+                    response.setContentType("text/csv;charset=UTF-8");
+                    response.setHeader("Content-Disposition", "attachment; filename=\"tree.csv\"");
+                    exported = exportService.exportCsv(exportStart, response.getOutputStream());
+                }
+                LOG.debug("{} nodes exported", exported);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Searches nodes by name and returns the ranked hits as JSON, meant to be called while typing
+     * 
+     * @param request conditional request
+     * @param text search words
+     * @param treeId identifier of the tree to search in, all trees if not set
+     * @param mode prefix, substring or fuzzy
+     * @param offset rank of the first hit
+     * @param limit maximum number of hits
+     * @return hits with the ancestor names of each node, null if not modified
+     */
+    @RequestMapping(value = "/search", method = RequestMethod.GET)
+    @ResponseBody
+    public List<SearchHit> search(final ServletWebRequest request, final @RequestParam(value = "q", defaultValue = "") String text,
+            final @RequestParam(value = "tree", required = false) String treeId,
+            final @RequestParam(value = "mode", defaultValue = "prefix") String mode,
+            final @RequestParam(value = "offset", defaultValue = "0") int offset,
+            final @RequestParam(value = "limit", defaultValue = DEFAULT_SEARCH_SIZE) int limit) {
+        final SearchMode searchMode;
+        try {
+            searchMode = SearchMode.valueOf(mode.toUpperCase(Locale.ENGLISH));
         }
-        return ViewNames.INDEX;
+        catch (final IllegalArgumentException e) {
+            final String msg = String.format("mode is [%s]. Unable to search nodes", mode);
+            throw new IllegalArgumentException(msg, e);
+        }
+        if (isNotModified(request)) {
+            return null;
+        }
+        return service.search(text, searchMode, StringUtils.trimToNull(treeId), offset, limit);
+    }
+
+    /**
+     * Pages through the children of a node in the order of their positions, for scrolling through
+     * nodes with many children. The next page starts after the nextPosition of the returned page.
+     * 
+     * @param request conditional request
+     * @param nodeUuid the parent identifier
+     * @param afterPosition position the children follow, 0 for the first page
+     * @param limit maximum number of children
+     * @return page of flat children, null if not modified
+     */
+    @RequestMapping(value = "/node/{nodeUuid}/children", method = RequestMethod.GET)
+    @ResponseBody
+    public ChildPage children(final ServletWebRequest request, final @PathVariable String nodeUuid,
+            final @RequestParam(value = "after", defaultValue = "0") long afterPosition,
+            final @RequestParam(value = "limit", defaultValue = DEFAULT_PAGE_SIZE) int limit) {
+        if (isNotModified(request)) {
+            return null;
+        }
+        final ChildPage page = service.getChildPage(nodeUuid, afterPosition, limit);
+        if (null == page) {
+            final String msg = String.format("Invalid nodeUuid %s. No node found", nodeUuid);
+            throw new IllegalArgumentException(msg);
+        }
+        return page;
     }
 
     /**
@@ -91,32 +294,32 @@ public class TreeController
             return ViewNames.CREATE_TREE;
         }
         Neo4jNode node = service.createTree(form.getName());
-        return "redirect:/";
+        return redirectToTree(node.getTreeId());
     }
 
     /**
      * Creates a command object for node with the given nodeUuid
      * 
+     * @param request conditional request
      * @param model view model
      * @param nodeUuid node identifier
-     * @return view name
+     * @param afterPosition position the displayed children follow
+     * @param limit maximum number of displayed children
+     * @return view name, null if not modified
      */
     @RequestMapping(value = "/node/{nodeUuid}", method = RequestMethod.GET)
-    public String editNodeForm(final Model model, final @PathVariable String nodeUuid) {
-        final Neo4jNode node = service.findByUuid(nodeUuid);
-        model.addAttribute("treeNodeForm", createForm(node));
-        List<Neo4jNode> children = service.findByParent(node);
-        model.addAttribute("children", children);
-        model.addAttribute("parentUuid", node.getUuid());
-        final String parentName = (node.getParent() == null) ? "null" : node.getParent().getName();
-        model.addAttribute("parentName", parentName);
-        model.addAttribute("isRoot", node.isRoot());
-        model.addAttribute("childUuid", node.getUuid());
+    public String editNodeForm(final ServletWebRequest request, final Model model, final @PathVariable String nodeUuid,
+            final @RequestParam(value = "after", defaultValue = "0") long afterPosition,
+            final @RequestParam(value = "limit", defaultValue = DEFAULT_PAGE_SIZE) int limit) {
+        if (isNotModified(request)) {
+            return null;
+        }
+        addNodeDetail(model, nodeUuid, afterPosition, limit);
         return ViewNames.EDIT_NODE;
     }
 
     /**
-     * Edit node form submission
+     * Edit node form submission. The node is renamed in place, without loading it.
      * 
      * @param form the command object
      * @param model view model
@@ -126,32 +329,36 @@ public class TreeController
     @RequestMapping(value = "/node/{nodeUuid}", method = RequestMethod.POST)
     public String submitEditNodeForm(final TreeNodeForm form, final Model model, final @PathVariable String nodeUuid) {
         final Set<? extends ConstraintViolation<?>> violations = validator.validate(form);
-        Neo4jNode node = service.findByUuid(nodeUuid);
-        node.setName(form.getName());
-        node = service.updateNode(form, nodeUuid);
-        return "redirect:/";
+        if (violations.size() > 0) {
+            LOG.debug("Validation errors occured");
+            model.addAttribute("nodeHasErrors", true);
+            model.addAttribute("errorList", getErrorMessages(violations));
+            addNodeDetail(model, nodeUuid, 0, ERROR_PAGE_CHILD_LIMIT);
+            return ViewNames.EDIT_NODE;
+        }
+        return redirectToTree(service.renameNode(nodeUuid, form.getName()));
     }
 
     /**
      * Creates a command object for creating a child note for a node with the given nodeUuid
      * 
+     * @param request conditional request
      * @param model view model
      * @param nodeUuid the parent identifier
-     * @return view name
+     * @param afterPosition position the displayed children follow
+     * @param limit maximum number of displayed children
+     * @return view name, null if not modified
      */
     @RequestMapping(value = "/node/{nodeUuid}/add", method = RequestMethod.GET)
-    public String addChildForm(final Model model, final @PathVariable String nodeUuid) {
-        final Neo4jNode node = service.findByUuid(nodeUuid);
-        model.addAttribute("treeNodeForm", createForm(node));
-        List<Neo4jNode> children = service.findByParent(node);
-        model.addAttribute("children", children);
+    public String addChildForm(final ServletWebRequest request, final Model model, final @PathVariable String nodeUuid,
+            final @RequestParam(value = "after", defaultValue = "0") long afterPosition,
+            final @RequestParam(value = "limit", defaultValue = DEFAULT_PAGE_SIZE) int limit) {
+        if (isNotModified(request)) {
+            return null;
+        }
+        addNodeDetail(model, nodeUuid, afterPosition, limit);
         model.addAttribute("addChild", true);
-        model.addAttribute("parentUuid", node.getUuid());
         model.addAttribute("childNodeForm", new TreeNodeForm());
-        model.addAttribute("isRoot", node.isRoot());
-        final String parentName = (node.getParent() == null) ? "null" : node.getParent().getName();
-        model.addAttribute("parentName", parentName);
-        model.addAttribute("isRoot", node.isRoot());
         return ViewNames.EDIT_NODE;
     }
 
@@ -167,24 +374,16 @@ public class TreeController
     public String submitAddChildNodeForm(final TreeNodeForm childNodeForm, final Model model, final @PathVariable String parentUuid) {
         final Set<? extends ConstraintViolation<?>> violations = validator.validate(childNodeForm);
         if (violations.size() > 0) {
-            final Neo4jNode node = service.findByUuid(parentUuid);
             LOG.debug("Validation errors occured");
             model.addAttribute("childHasErrors", true);
             model.addAttribute("errorList", getErrorMessages(violations));
-            model.addAttribute("treeNodeForm", createForm(node));
-            List<Neo4jNode> children = service.findByParent(node);
-            model.addAttribute("children", children);
-            model.addAttribute("parentUuid", node.getUuid());
-            final String parentName = (node.getParent() == null) ? "null" : node.getParent().getName();
-            model.addAttribute("parentName", parentName);
-            model.addAttribute("isRoot", node.isRoot());
-            model.addAttribute("childUuid", node.getUuid());
+            addNodeDetail(model, parentUuid, 0, ERROR_PAGE_CHILD_LIMIT);
             return ViewNames.EDIT_NODE;
 
         }
         Neo4jNode node = new Neo4jNode(childNodeForm.getName());
         Neo4jNode added = service.addNode(node, parentUuid);
-        return "redirect:/";
+        return redirectToTree(added.getTreeId());
     }
 
     /**
@@ -192,12 +391,116 @@ public class TreeController
      * 
      * @param model view model
      * @param nodeUuid node identifier
-     * @return redirects to index
+     * @return redirects to index, produced by the write executor
      */
     @RequestMapping(value = "/node/{nodeUuid}/remove", method = RequestMethod.GET)
-    public String deleteChildNode(final Model model, final @PathVariable String nodeUuid) {
-        service.deleteNode(nodeUuid);
-        return "redirect:/";
+    public WebAsyncTask<String> deleteChildNode(final Model model, final @PathVariable String nodeUuid) {
+        return submit(writeExecutor, longRunningTimeout, new Callable<String>() {
+            @Override
+            public String call() {
+                final Neo4jNode node = service.findByUuid(nodeUuid, 0);
+                final long deleted = service.deleteNode(nodeUuid);
+                LOG.debug("{} nodes deleted", deleted);
+                return (null == node || node.isRoot()) ? "redirect:/" : redirectToTree(node.getTreeId());
+            }
+        });
+    }
+
+    /**
+     * Handles move requests, the node with the given nodeUuid and its subtree become children of the
+     * node with the given parentUuid
+     * 
+     * @param nodeUuid node identifier
+     * @param parentUuid identifier of the new parent node
+     * @return redirects to index, produced by the write executor
+     */
+    @RequestMapping(value = "/node/{nodeUuid}/move", method = RequestMethod.POST)
+    public WebAsyncTask<String> moveNode(final @PathVariable String nodeUuid, final @RequestParam("parentUuid") String parentUuid) {
+        return submit(writeExecutor, longRunningTimeout, new Callable<String>() {
+            @Override
+            public String call() {
+                final long moved = service.moveNode(nodeUuid, parentUuid);
+                LOG.debug("{} nodes moved", moved);
+                return redirectToTree(service.findByUuid(parentUuid, 0).getTreeId());
+            }
+        });
+    }
+
+    /**
+     * Handles reorder requests, the node with the given nodeUuid is placed at the given index among
+     * its siblings
+     * 
+     * @param nodeUuid node identifier
+     * @param index new index among the siblings, 0 for the first place
+     * @return redirects to index, produced by the write executor
+     */
+    @RequestMapping(value = "/node/{nodeUuid}/reorder", method = RequestMethod.POST)
+    public WebAsyncTask<String> reorderNode(final @PathVariable String nodeUuid, final @RequestParam("index") int index) {
+        return submit(writeExecutor, new Callable<String>() {
+            @Override
+            public String call() {
+                final long position = service.reorderNode(nodeUuid, index);
+                LOG.debug("Node placed at position {}", position);
+                return redirectToTree(service.findByUuid(nodeUuid, 0).getTreeId());
+            }
+        });
+    }
+
+    /**
+     * Answers requests with 503, if the queue of the executor they were submitted to is full
+     * 
+     * @param response servlet response
+     * @param e rejection of the executor
+     * @throws IOException if writing the response fails
+     */
+    @ExceptionHandler(TaskRejectedException.class)
+    public void handleTaskRejected(final HttpServletResponse response, final TaskRejectedException e) throws IOException {
+        LOG.warn("Request rejected: {}", e.getMessage());
+        response.setHeader("Retry-After", "1");
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many requests in progress, try again later");
+    }
+
+    /**
+     * Helper method. Wraps a task that Spring MVC submits to an executor once the request has
+     * switched to asynchronous processing, so the task never writes to a response that is not
+     * asynchronous yet.
+     * 
+     * @param executor read or write executor
+     * @param task the request processing
+     * @return asynchronous task
+     */
+    private static <T> WebAsyncTask<T> submit(final AsyncTaskExecutor executor, final Callable<T> task) {
+        return submit(executor, null, task);
+    }
+
+    /**
+     * Helper method. Wraps a task that may run longer than the default timeout of asynchronous
+     * requests, like a streamed export or a large delete. Answering such a request with 503 would
+     * neither stop the task nor keep it from writing to a completed response.
+     * 
+     * @param executor read or write executor
+     * @param timeout milliseconds until the request is answered with 503, 0 or less for none, null
+     * for the default timeout
+     * @param task the request processing
+     * @return asynchronous task
+     */
+    private static <T> WebAsyncTask<T> submit(final AsyncTaskExecutor executor, final Long timeout, final Callable<T> task) {
+        final RejectableTask<T> rejectable = new RejectableTask<T>(executor, task);
+        return new WebAsyncTask<T>(timeout, new TaskExecutorAdapter(rejectable), rejectable);
+    }
+
+    /**
+     * Helper method. Checks the ETag of a conditional request against the current tree version,
+     * without touching the database, and sets the status 304 if it matches. Otherwise the ETag of
+     * the response is set. Caches have to revalidate every time, so they never serve a stale page.
+     * 
+     * @param request the request
+     * @return true if the client has the current version
+     */
+    private boolean isNotModified(final ServletWebRequest request) {
+        request.getResponse().setHeader("Cache-Control", "no-cache");
+        final String eTag = String.format("\"%d-%d\"", treeVersion.getStartTime(), treeVersion.getVersion());
+        return request.checkNotModified(eTag);
     }
 
     /**
@@ -218,21 +521,76 @@ public class TreeController
         return msgs;
     }
 
+    /**
+     * Helper method. Determines the tree to show, the requested one, the one of the start node or
+     * the first one.
+     * 
+     * @param treeId requested tree identifier, may be blank
+     * @param startUuid requested start node identifier, may be blank
+     * @param rootNodes root nodes of all trees
+     * @return tree identifier, or null if there is no tree at all
+     */
+    private String getTreeId(final String treeId, final String startUuid, final List<NodeProjection> rootNodes) {
+        if (StringUtils.isNotBlank(treeId)) {
+            return treeId;
+        }
+        if (StringUtils.isNotBlank(startUuid)) {
+            final Neo4jNode start = service.findByUuid(startUuid, 0);
+            if (null != start) {
+                return start.getTreeId();
+            }
+        }
+        return rootNodes.isEmpty() ? null : rootNodes.get(0).getUuid();
+    }
+
+    /**
+     * Helper method. Redirects to the index page showing the given tree.
+     * 
+     * @param treeId tree identifier
+     * @return redirect to index
+     */
+    private static String redirectToTree(final String treeId) {
+        return (null == treeId) ? "redirect:/" : "redirect:/?tree=" + treeId;
+    }
+
+    /**
+     * Helper method. Adds the node, its parent name and a page of its children to the model of the
+     * edit page
+     * 
+     * @param model view model
+     * @param nodeUuid node identifier
+     * @param afterPosition position the children follow
+     * @param limit maximum number of children
+     */
+    private void addNodeDetail(final Model model, final String nodeUuid, final long afterPosition, final int limit) {
+        final NodeDetail detail = service.getNodeDetail(nodeUuid, afterPosition, limit);
+        if (null == detail) {
+            final String msg = String.format("Invalid nodeUuid %s. No node found", nodeUuid);
+            throw new IllegalArgumentException(msg);
+        }
+        final NodeProjection node = detail.getNode();
+        model.addAttribute("treeNodeForm", createForm(node));
+        model.addAttribute("nodeDetail", detail);
+        model.addAttribute("children", detail.getChildren());
+        model.addAttribute("parentUuid", node.getUuid());
+        model.addAttribute("parentName", (null == detail.getParentName()) ? "null" : detail.getParentName());
+        model.addAttribute("isRoot", node.isRoot());
+        model.addAttribute("childUuid", node.getUuid());
+    }
+
     /**
      * Helper method to initialize the command object
      * 
      * @param node the node with required data
      * @return initialized command object
      */
-    private static TreeNodeForm createForm(final Neo4jNode node) {
+    private static TreeNodeForm createForm(final NodeProjection node) {
         final TreeNodeForm form = new TreeNodeForm();
         form.setNodeId(node.getNodeId());
         form.setUuid(node.getUuid());
         form.setCreatedDate(node.getCreatedDate().toString());
         form.setLastModifiedDate(node.getLastModifiedDate().toString());
         form.setName(node.getName());
-        form.setChildren(node.getChildren());
-        form.setParent(node.getParent());
         return form;
     }
 
@@ -241,8 +599,69 @@ public class TreeController
         this.service = service;
     }
 
+    @Inject
+    public void setExportService(final TreeExportService exportService) {
+        this.exportService = exportService;
+    }
+
     @Inject
     public void setValidator(final Validator validator) {
         this.validator = validator;
     }
+
+    @Inject
+    public void setReadExecutor(final @Named("readExecutor") AsyncTaskExecutor readExecutor) {
+        this.readExecutor = readExecutor;
+    }
+
+    @Inject
+    public void setWriteExecutor(final @Named("writeExecutor") AsyncTaskExecutor writeExecutor) {
+        this.writeExecutor = writeExecutor;
+    }
+
+    @Inject
+    public void setTreeVersion(final TreeVersion treeVersion) {
+        this.treeVersion = treeVersion;
+    }
+
+    @Value("${tree.web.longRunningTimeout:0}")
+    public void setLongRunningTimeout(final long longRunningTimeout) {
+        this.longRunningTimeout = longRunningTimeout;
+    }
+
+    /**
+     * Request processing that is executed by a read or write executor. If the executor queue is
+     * full, the task runs on the servlet thread instead and fails at once with the rejection, so
+     * the asynchronous dispatch answers it with 503.
+     */
+    private static final class RejectableTask<T> implements Callable<T>, Executor
+    {
+        private final AsyncTaskExecutor executor;
+        private final Callable<T> task;
+        private volatile TaskRejectedException rejection;
+
+        private RejectableTask(final AsyncTaskExecutor executor, final Callable<T> task) {
+            this.executor = executor;
+            this.task = task;
+        }
+
+        @Override
+        public void execute(final Runnable processing) {
+            try {
+                executor.execute(processing);
+            }
+            catch (final TaskRejectedException e) {
+                rejection = e;
+                processing.run();
+            }
+        }
+
+        @Override
+        public T call() throws Exception {
+            if (null != rejection) {
+                throw rejection;
+            }
+            return task.call();
+        }
+    }
 }
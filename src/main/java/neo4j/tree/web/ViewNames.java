@@ -15,5 +15,6 @@ public class ViewNames
     public static final String INDEX = "index";
     public static final String CREATE_TREE = "createTree";
     public static final String EDIT_NODE = "edit";
+    public static final String NODES_FRAGMENT = "index :: nodes";
 
 }
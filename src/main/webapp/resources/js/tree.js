@@ -0,0 +1,34 @@
+/*
+ * Expands a node of the index page in place. The subtree is loaded as node list fragment and
+ * inserted below the node, the expand link opens the subtree as new page if loading fails.
+ */
+document.addEventListener('click', function(event) {
+	var link = event.target;
+	var fragmentUrl = link.getAttribute ? link.getAttribute('data-fragment') : null;
+	if (!fragmentUrl) {
+		return;
+	}
+	event.preventDefault();
+	var request = new XMLHttpRequest();
+	request.open('GET', fragmentUrl);
+	request.onload = function() {
+		if (request.status !== 200) {
+			window.location = link.href;
+			return;
+		}
+		var container = document.createElement('div');
+		container.innerHTML = request.responseText;
+		var subtree = container.firstElementChild;
+		// the first row is the expanded node itself, it is shown already
+		subtree.removeChild(subtree.querySelector('div'));
+		subtree.removeAttribute('id');
+		subtree.className = 'subtree';
+		var row = link.parentNode;
+		row.parentNode.insertBefore(subtree, row.nextSibling);
+		row.removeChild(link);
+	};
+	request.onerror = function() {
+		window.location = link.href;
+	};
+	request.send();
+});
@@ -3,6 +3,8 @@
  */
 package proventis.tree.config;
 
+import neo4j.tree.config.Neo4jConfig;
+
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.test.TestGraphDatabaseFactory;
 import org.slf4j.Logger;
@@ -48,8 +50,8 @@ public class Neo4jTestConfig extends Neo4jConfiguration
      */
     @Bean(name = "graphDatabaseService", destroyMethod = "shutdown")
     public GraphDatabaseService graphDatabaseService() {
-        final GraphDatabaseService graphDB = new
-                TestGraphDatabaseFactory().newImpermanentDatabase();
+        final GraphDatabaseService graphDB = Neo4jConfig.configureAutoIndex(
+                new TestGraphDatabaseFactory().newImpermanentDatabaseBuilder()).newGraphDatabase();
         LOG.debug("Impermanent test graphdatabase created: [{}]", graphDB.toString());
         return graphDB;
     }
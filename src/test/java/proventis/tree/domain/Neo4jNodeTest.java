@@ -10,6 +10,8 @@ import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
+import java.util.Date;
+
 import neo4j.tree.domain.Neo4jNode;
 
 import org.junit.Test;
@@ -140,8 +142,7 @@ public class Neo4jNodeTest
         assertThat(Integer.valueOf(node1.hashCode()), is(Integer.valueOf(node2.hashCode())));
 
         node1.setName(NAME);
-        assertThat(Integer.valueOf(node1.hashCode()), not(Integer.valueOf(node2.hashCode())));
-        node2.setName(NAME);
+        node1.setLastModifiedDate(new Date());
         assertThat(Integer.valueOf(node1.hashCode()), is(Integer.valueOf(node2.hashCode())));
     }
 }
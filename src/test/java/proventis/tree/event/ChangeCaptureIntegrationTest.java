@@ -0,0 +1,226 @@
+/**
+ * 
+ */
+package proventis.tree.event;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import neo4j.tree.domain.ChangeEvent;
+import neo4j.tree.domain.ChangeEvent.Type;
+import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.event.ChangeLog;
+import neo4j.tree.event.TreeVersion;
+import neo4j.tree.service.TreeService;
+import neo4j.tree.web.TreeNodeForm;
+
+import org.junit.After;
+import org.junit.Test;
+
+import proventis.tree.AbstractIntegrationTest;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Events are captured on commit, so the test tree is committed, the test removes it itself.
+ * 
+ * @author Markus Lamm
+ */
+public class ChangeCaptureIntegrationTest extends AbstractIntegrationTest
+{
+    private static final int TAIL_SIZE = 10000;
+
+    private static final long WAIT_MILLIS = 5000;
+
+    @Inject
+    private TreeService service;
+
+    @Inject
+    private ChangeLog changeLog;
+
+    @Inject
+    private TreeVersion treeVersion;
+
+    @After
+    public void tearDown() {
+        changeLog.setTailSize(TAIL_SIZE);
+    }
+
+    @Test
+    public void testChangeEvents() throws Exception {
+        final long cursor = changeLog.getLastSequence();
+        final long version = treeVersion.getVersion();
+        final Neo4jNode root = service.createTree("root");
+        final Neo4jNode a = service.addNode(new Neo4jNode("a"), root.getUuid());
+        final TreeNodeForm form = new TreeNodeForm();
+        form.setName("renamed");
+        service.updateNode(form, a.getUuid());
+        final Neo4jNode b = service.addNode(new Neo4jNode("b"), root.getUuid());
+        service.moveNode(b.getUuid(), a.getUuid());
+        service.deleteNode(a.getUuid());
+        service.deleteNode(root.getUuid());
+
+        final List<ChangeEvent> events = awaitEvents(cursor, Sets.newHashSet(root.getUuid(), a.getUuid(), b.getUuid()), 7);
+        assertEvent(events.get(0), Type.CREATED, root.getUuid(), null, "root");
+        assertEvent(events.get(1), Type.CREATED, a.getUuid(), root.getUuid(), "a");
+        assertEvent(events.get(2), Type.RENAMED, a.getUuid(), null, "renamed");
+        assertEvent(events.get(3), Type.CREATED, b.getUuid(), root.getUuid(), "b");
+        assertEvent(events.get(4), Type.MOVED, b.getUuid(), a.getUuid(), null);
+        assertEvent(events.get(5), Type.DELETED, a.getUuid(), root.getUuid(), null);
+        assertEvent(events.get(6), Type.DELETED, root.getUuid(), null, null);
+        assertThat(events.get(0).getTreeVersion(), is(greaterThan(version)));
+        for (int i = 1; i < events.size(); i++) {
+            assertThat(events.get(i).getSequence(), is(greaterThan(events.get(i - 1).getSequence())));
+        }
+    }
+
+    /**
+     * Trees created concurrently, each in its own transaction, are tagged with the version of
+     * their own transaction
+     */
+    @Test
+    public void testChangeEvents_Concurrent() throws Exception {
+        final int writers = 4;
+        final long cursor = changeLog.getLastSequence();
+        final ExecutorService executor = Executors.newFixedThreadPool(writers);
+        final Set<String> rootUuids = Sets.newConcurrentHashSet();
+        try {
+            final List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < writers; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < 10; j++) {
+                            rootUuids.add(service.createTree("root").getUuid());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            final Set<Long> versions = Sets.newHashSet();
+            for (final ChangeEvent event : awaitEvents(cursor, rootUuids, rootUuids.size())) {
+                assertThat(event.toString(), versions.add(event.getTreeVersion()), is(true));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            for (final String rootUuid : rootUuids) {
+                service.deleteNode(rootUuid);
+            }
+        }
+    }
+
+    /**
+     * A blocked listener does not stall the writer, it is notified again of the events written
+     * while it was blocked
+     */
+    @Test
+    public void testListener() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final AtomicLong notifiedSequence = new AtomicLong();
+        final Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                blocked.countDown();
+                try {
+                    released.await();
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                notifiedSequence.set(changeLog.getLastSequence());
+            }
+        };
+        changeLog.addListener(listener);
+        final Neo4jNode root = service.createTree("root");
+        try {
+            assertThat(blocked.await(WAIT_MILLIS, TimeUnit.MILLISECONDS), is(true));
+            final long cursor = changeLog.getLastSequence();
+            final Neo4jNode a = service.addNode(new Neo4jNode("a"), root.getUuid());
+            awaitEvents(cursor, Sets.newHashSet(a.getUuid()), 1);
+            released.countDown();
+            final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            while (notifiedSequence.get() <= cursor && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(notifiedSequence.get(), is(greaterThan(cursor)));
+        }
+        finally {
+            released.countDown();
+            changeLog.removeListener(listener);
+            service.deleteNode(root.getUuid());
+        }
+    }
+
+    @Test
+    public void testReadFromFile() throws Exception {
+        changeLog.setTailSize(1);
+        final long cursor = changeLog.getLastSequence();
+        final Neo4jNode root = service.createTree("root");
+        final Neo4jNode a = service.addNode(new Neo4jNode("a"), root.getUuid());
+        final Neo4jNode b = service.addNode(new Neo4jNode("b"), root.getUuid());
+        service.deleteNode(root.getUuid());
+        final List<ChangeEvent> events = awaitEvents(cursor, Sets.newHashSet(root.getUuid(), a.getUuid(), b.getUuid()), 4);
+        assertEvent(events.get(1), Type.CREATED, a.getUuid(), root.getUuid(), "a");
+        assertEvent(events.get(2), Type.CREATED, b.getUuid(), root.getUuid(), "b");
+        final List<ChangeEvent> page = changeLog.read(events.get(1).getSequence(), 1);
+        assertThat(page.size(), is(1));
+        assertThat(page.get(0).getSequence(), is(events.get(1).getSequence() + 1));
+    }
+
+    /**
+     * Helper method. Reads the events of the given nodes after the cursor until the expected
+     * number arrived, events of other tests are skipped.
+     */
+    private List<ChangeEvent> awaitEvents(final long cursor, final Set<String> uuids, final int expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        final List<ChangeEvent> events = Lists.newArrayList();
+        long after = cursor;
+        while (events.size() < expected && System.currentTimeMillis() < deadline) {
+            final List<ChangeEvent> page = changeLog.read(after, 100);
+            for (final ChangeEvent event : page) {
+                if (uuids.contains(event.getUuid())) {
+                    events.add(event);
+                }
+                after = event.getSequence();
+            }
+            if (page.isEmpty()) {
+                Thread.sleep(10);
+            }
+        }
+        assertThat(events.toString(), events.size(), is(expected));
+        return events;
+    }
+
+    private static void assertEvent(final ChangeEvent event, final Type type, final String uuid, final String parentUuid,
+            final String name) {
+        assertThat(event.toString(), event.getType(), is(type));
+        assertThat(event.getUuid(), is(uuid));
+        if (null == parentUuid) {
+            assertThat(event.getParentUuid(), is(nullValue()));
+        }
+        else {
+            assertThat(event.getParentUuid(), is(parentUuid));
+        }
+        assertThat(event.getName(), is(name));
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * 
+ */
+package proventis.tree.metrics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.lang.management.ManagementFactory;
+
+import javax.inject.Inject;
+import javax.management.ObjectName;
+
+import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.metrics.MetricsRegistry;
+import neo4j.tree.metrics.OperationMetrics;
+import neo4j.tree.service.TreeService;
+
+import org.junit.Test;
+import org.springframework.transaction.annotation.Transactional;
+
+import proventis.tree.AbstractIntegrationTest;
+
+/**
+ * @author Markus Lamm
+ * 
+ */
+public class MetricsIntegrationTest extends AbstractIntegrationTest
+{
+    private static final long MILLIS = 1000000L;
+
+    @Inject
+    private TreeService service;
+
+    @Inject
+    private MetricsRegistry registry;
+
+    @Test
+    @Transactional
+    public void testRecord() {
+        final OperationMetrics preordered = registry.getMetrics("TreeService.getPreordered(String)");
+        final OperationMetrics rootUuid = registry.getMetrics("TreeNodeRepository.findRootUuid(String)");
+        final long calls = preordered.getCount();
+        final long nodes = preordered.getNodeCount();
+        final long repositoryCalls = rootUuid.getCount();
+        final Neo4jNode root = service.createTree("root");
+        service.addNode(new Neo4jNode("node_1"), root.getUuid());
+        service.getPreordered(root.getUuid());
+        service.getTreeSummary(root.getUuid());
+        assertThat(preordered.getCount(), is(calls + 1));
+        assertThat(preordered.getNodeCount(), is(nodes + 2));
+        assertThat(rootUuid.getCount(), is(repositoryCalls + 1));
+    }
+
+    @Test
+    @Transactional
+    public void testRecord_Error() {
+        final OperationMetrics delete = registry.getMetrics("TreeService.deleteNode(String)");
+        final long errors = delete.getErrorCount();
+        try {
+            service.deleteNode("67h4c7n9z43432049");
+        }
+        catch (final IllegalArgumentException e) {
+            // expected
+        }
+        assertThat(delete.getErrorCount(), is(errors + 1));
+    }
+
+    @Test
+    public void testPercentiles() {
+        final OperationMetrics metrics = new OperationMetrics("test");
+        for (int i = 0; i < 98; i++) {
+            metrics.record(MILLIS, 1, false);
+        }
+        metrics.record(10 * MILLIS, 1, false);
+        metrics.record(100 * MILLIS, 1, true);
+        assertThat(metrics.getCount(), is(100L));
+        assertThat(metrics.getErrorCount(), is(1L));
+        assertThat(metrics.getP50Millis(), is(closeTo(1, 0.2)));
+        assertThat(metrics.getP99Millis(), is(closeTo(10, 2)));
+        assertThat(metrics.getMaxMillis(), is(closeTo(100, 0.001)));
+        assertThat(metrics.getMeanNodes(), is(closeTo(1, 0.001)));
+        metrics.reset();
+        assertThat(metrics.getCount(), is(0L));
+        assertThat(metrics.getP99Millis(), is(closeTo(0, 0.001)));
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        registry.getMetrics("TreeService.getRootNodes()");
+        service.getRootNodes();
+        final ObjectName name = new ObjectName("neo4j.tree:type=OperationMetrics,name="
+                + ObjectName.quote("TreeService.getRootNodes()"));
+        final Object count = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Count");
+        assertThat((Long) count >= 1, is(true));
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * 
+ */
+package proventis.tree.repository;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import neo4j.tree.metrics.QueryProfile;
+import neo4j.tree.metrics.QueryProfiler;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Test helper. Asserts that the annotated queries of a repository look up their start nodes by an
+ * index or by id instead of scanning a label.
+ * 
+ * @author Markus Lamm
+ */
+public final class QueryPlanAssert
+{
+    /**
+     * Passed for all string parameters, usable as uuid as well as index query
+     */
+    private static final String STRING_PARAM = "path:/0/*";
+
+    private QueryPlanAssert() {
+    }
+
+    /**
+     * Profiles every annotated query of the repository type and fails on the first one that scans.
+     * Updating queries are executed, so this has to run within a transaction that is rolled back.
+     * 
+     * @param profiler query profiler
+     * @param repositoryType repository interface
+     * @param scanningMethods methods that scan by design, like name(String,int)
+     * @throws AssertionError if a query scans
+     */
+    public static void assertIndexLookups(final QueryProfiler profiler, final Class<?> repositoryType, final String... scanningMethods) {
+        final List<String> allowed = Arrays.asList(scanningMethods);
+        for (final Method method : repositoryType.getMethods()) {
+            final String query = QueryProfiler.getQuery(method);
+            if (null == query || allowed.contains(getSignature(method))) {
+                continue;
+            }
+            final QueryProfile profile = profiler.profile(query, getParams(method));
+            if (profile.isScan()) {
+                throw new AssertionError(String.format("Query of %s scans nodes: %s", getSignature(method), profile));
+            }
+        }
+    }
+
+    /**
+     * Helper method. Signature of a method with simple parameter type names
+     * 
+     * @param method repository method
+     * @return signature like name(String,int)
+     */
+    private static String getSignature(final Method method) {
+        final StringBuilder signature = new StringBuilder(method.getName()).append('(');
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            signature.append((i > 0) ? "," : "").append(parameterTypes[i].getSimpleName());
+        }
+        return signature.append(')').toString();
+    }
+
+    /**
+     * Helper method. Sample parameters by parameter type, entities are passed by node id
+     * 
+     * @param method repository method
+     * @return parameters named 0, 1, ...
+     */
+    private static Map<String, Object> getParams(final Method method) {
+        final Map<String, Object> params = Maps.newHashMap();
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            final Class<?> type = parameterTypes[i];
+            params.put(String.valueOf(i), (String.class.equals(type)) ? STRING_PARAM : (Object) Long.valueOf(1));
+        }
+        return params;
+    }
+}
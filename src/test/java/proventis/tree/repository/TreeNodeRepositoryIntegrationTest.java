@@ -3,7 +3,9 @@
  */
 package proventis.tree.repository;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.Matchers.empty;
@@ -17,9 +19,17 @@ import javax.inject.Inject;
 import javax.validation.ValidationException;
 
 import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.domain.NodeProjection;
+import neo4j.tree.domain.SearchHit;
+import neo4j.tree.domain.SearchMode;
+import neo4j.tree.domain.SubtreeAggregates;
+import neo4j.tree.metrics.QueryProfile;
+import neo4j.tree.metrics.QueryProfiler;
 import neo4j.tree.repository.TreeNodeRepository;
 
 import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.Transaction;
 import org.springframework.data.neo4j.support.Neo4jTemplate;
 import org.springframework.transaction.annotation.Transactional;
@@ -40,6 +50,9 @@ public class TreeNodeRepositoryIntegrationTest extends AbstractIntegrationTest
     @Inject
     private Neo4jTemplate neo4jTemplate;
 
+    @Inject
+    private QueryProfiler profiler;
+
     private void createTestTree() {
         try (final Transaction tx = neo4jTemplate.getGraphDatabaseService().beginTx()) {
             Neo4jNode nodeRoot = createNode("root");
@@ -121,8 +134,285 @@ public class TreeNodeRepositoryIntegrationTest extends AbstractIntegrationTest
         root = root.addChild(node_1);
         root = root.addChild(node_2);
         root = repository.save(root);
-        Neo4jNode result = repository.findRootNode();
+        Neo4jNode result = repository.findRootNode(root.getUuid());
         assertThat(result, is(root));
+        assertThat(repository.findRootNode(node_1.getUuid()), is(nullValue()));
+    }
+
+    @Test
+    @Transactional
+    public void testFindRootUuid() {
+        Neo4jNode root = createNode("root");
+        root = root.addChild(createNode("node_1"));
+        root = repository.save(root);
+        assertThat(repository.findRootUuid(root.getUuid()), is(root.getUuid()));
+    }
+
+    @Test
+    @Transactional
+    public void testFindRootUuid_CreatedNode() {
+        final NodeProjection root = repository.createNode("root", null);
+        final NodeProjection node_1 = repository.createNode("node_1", root);
+        assertThat(repository.findRootUuid(root.getUuid()), is(root.getUuid()));
+        assertThat(repository.findTreeId(node_1.getUuid()), is(root.getUuid()));
+    }
+
+    /**
+     * Created nodes only reach the aggregates of their ancestors once they are applied, a node
+     * below a pending parent is carried up by the parent
+     */
+    @Test
+    @Transactional
+    public void testApplyPendingAggregates() {
+        final NodeProjection root = repository.createNode("root", null);
+        final NodeProjection node_1 = repository.createNode("node_1", root);
+        final NodeProjection node_1_1 = repository.createNode("node_1_1", node_1);
+        repository.createNode("node_2", root);
+        assertAggregates(root.getUuid(), 0, 1, 0);
+
+        assertThat(repository.applyPendingAggregates(Lists.newArrayList(node_1.getUuid(), node_1_1.getUuid())), is(2L));
+        assertAggregates(root.getUuid(), 2, 1, 2);
+        assertAggregates(node_1.getUuid(), 1, 1, 1);
+
+        assertThat(repository.applyAllPendingAggregates(root.getUuid()), is(1L));
+        assertAggregates(root.getUuid(), 3, 2, 2);
+        assertThat(repository.applyAllPendingAggregates(root.getUuid()), is(0L));
+        assertThat(repository.repairAggregates(root.getUuid()), is(0L));
+    }
+
+    @Test
+    @Transactional
+    public void testQueryPlans() throws NoSuchMethodException {
+        Neo4jNode root = createNode("root");
+        root = root.addChild(createNode("node_1"));
+        root = repository.save(root);
+        final String rootPlan = profile("findRootUuid", root.getUuid()).getPlan();
+        assertThat(rootPlan, containsString("SchemaIndex"));
+        assertThat(rootPlan, containsString("property=\"uuid\""));
+        assertThat(rootPlan, not(containsString("PathExpression")));
+        final String treePlan = profile("countNodes", root.getUuid()).getPlan();
+        assertThat(treePlan, containsString("SchemaIndex"));
+        assertThat(treePlan, containsString("property=\"treeId\""));
+        final String findPlan = profile("findByTreeId", root.getUuid()).getPlan();
+        assertThat(findPlan, containsString("SchemaIndex"));
+        assertThat(findPlan, containsString("property=\"treeId\""));
+        final QueryProfile scan = profile("findTreeId", root.getUuid());
+        assertThat(scan.isScan(), is(false));
+        assertThat(scan.getRows(), is(1L));
+        assertThat(scan.getDbHits() > 0, is(true));
+    }
+
+    /**
+     * Queries by tree id only scan the PendingDelete label, which is set on the few nodes whose
+     * subtree is being deleted
+     */
+    @Test
+    @Transactional
+    public void testIndexLookups() {
+        QueryPlanAssert.assertIndexLookups(profiler, TreeNodeRepository.class, "countNodes()", "countRootNodes()", "labelRootNodes()",
+                "setMissingTreeIds()", "countNodes(String)", "findByTreeId(String)", "findMarkedUuids()");
+    }
+
+    @Test
+    @Transactional
+    public void testLabelRootNodes() {
+        Neo4jNode root = createNode("root");
+        root = root.addChild(createNode("node_1"));
+        root = repository.save(root);
+        getNeo4jTemplate().query("MATCH (n:TreeRoot) REMOVE n:TreeRoot", null);
+        assertThat(repository.findRootUuid(root.getUuid()), is(nullValue()));
+        assertThat(repository.labelRootNodes(), is(1L));
+        assertThat(repository.findRootUuid(root.getUuid()), is(root.getUuid()));
+        assertThat(repository.labelRootNodes(), is(0L));
+    }
+
+    @Test
+    @Transactional
+    public void testCountNodes() {
+        createTestTree();
+        assertThat(repository.countNodes(), is(6L));
+    }
+
+    @Test
+    @Transactional
+    public void testFindPreordered() {
+        Neo4jNode root = createNode("root");
+        Neo4jNode node_1 = createNode("node_1");
+        final Neo4jNode node_1_1 = createNode("node_1_1");
+        node_1 = node_1.addChild(node_1_1);
+        root = root.addChild(node_1);
+        root = repository.save(root);
+        final List<NodeProjection> result = Lists.newArrayList(repository.findPreordered(node_1.getUuid()));
+        assertThat(result.size(), is(2));
+        assertThat(result.get(0).getUuid(), is(node_1.getUuid()));
+        assertThat(result.get(0).getParentUuid(), is(root.getUuid()));
+        assertThat(result.get(0).getDepth(), is(0));
+        assertThat(result.get(1).getName(), is("node_1_1"));
+        assertThat(result.get(1).getDepth(), is(1));
+    }
+
+    @Test
+    @Transactional
+    public void testFindPreordered_NotFound() {
+        createTestTree();
+        assertThat(repository.findPreordered("67h4c7n9z43432049").iterator().hasNext(), is(false));
+    }
+
+    @Test
+    @Transactional
+    public void testSave_Path() {
+        Neo4jNode root = createNode("root");
+        final Neo4jNode node_1 = createNode("node_1");
+        final Neo4jNode node_1_1 = createNode("node_1_1");
+        node_1.addChild(node_1_1);
+        root = root.addChild(node_1);
+        root = repository.save(root);
+        final Neo4jNode result = repository.findByUuid(node_1_1.getUuid());
+        assertThat(result.getPath(), is("/" + root.getUuid() + "/" + node_1.getUuid() + "/" + node_1_1.getUuid() + "/"));
+        assertThat(result.getDepth(), is(2));
+    }
+
+    @Test
+    @Transactional
+    public void testFindDescendants() {
+        Neo4jNode root = createNode("root");
+        Neo4jNode node_1 = createNode("node_1");
+        final Neo4jNode node_1_1 = createNode("node_1_1");
+        final Neo4jNode node_1_1_1 = createNode("node_1_1_1");
+        final Neo4jNode node_2 = createNode("node_2");
+        node_1_1.addChild(node_1_1_1);
+        node_1 = node_1.addChild(node_1_1);
+        root = root.addChild(node_1).addChild(node_2);
+        root = repository.save(root);
+        final List<NodeProjection> result = Lists.newArrayList(repository.findDescendants(node_1.getUuid()));
+        assertThat(result.size(), is(2));
+        for (final NodeProjection descendant : result) {
+            if (descendant.getUuid().equals(node_1_1_1.getUuid())) {
+                assertThat(descendant.getParentUuid(), is(node_1_1.getUuid()));
+                assertThat(descendant.getDepth(), is(3));
+            }
+            else {
+                assertThat(descendant.getUuid(), is(node_1_1.getUuid()));
+            }
+        }
+        assertThat(Lists.newArrayList(repository.findDescendants(node_2.getUuid())), is(empty()));
+        assertThat(Lists.newArrayList(repository.findDescendants(root.getUuid())).size(), is(4));
+    }
+
+    @Test
+    @Transactional
+    public void testFindAncestors() {
+        Neo4jNode root = createNode("root");
+        Neo4jNode node_1 = createNode("node_1");
+        final Neo4jNode node_1_1 = createNode("node_1_1");
+        node_1 = node_1.addChild(node_1_1);
+        root = root.addChild(node_1);
+        root = repository.save(root);
+        final List<NodeProjection> result = Lists.newArrayList(repository.findAncestors(node_1_1.getUuid()));
+        assertThat(result.size(), is(2));
+        assertThat(result.get(0).getUuid(), is(root.getUuid()));
+        assertThat(result.get(0).isRoot(), is(true));
+        assertThat(result.get(1).getUuid(), is(node_1.getUuid()));
+        assertThat(result.get(1).getDepth(), is(1));
+        assertThat(Lists.newArrayList(repository.findAncestors(root.getUuid())), is(empty()));
+    }
+
+    @Test
+    @Transactional
+    public void testIsAncestorOf() {
+        Neo4jNode root = createNode("root");
+        Neo4jNode node_1 = createNode("node_1");
+        final Neo4jNode node_1_1 = createNode("node_1_1");
+        final Neo4jNode node_2 = createNode("node_2");
+        node_1 = node_1.addChild(node_1_1);
+        root = root.addChild(node_1).addChild(node_2);
+        root = repository.save(root);
+        assertThat(repository.isAncestorOf(root.getUuid(), node_1_1.getUuid()), is(true));
+        assertThat(repository.isAncestorOf(node_1.getUuid(), node_1_1.getUuid()), is(true));
+        assertThat(repository.isAncestorOf(node_1_1.getUuid(), node_1.getUuid()), is(false));
+        assertThat(repository.isAncestorOf(node_2.getUuid(), node_1_1.getUuid()), is(false));
+        assertThat(repository.isAncestorOf(node_1.getUuid(), node_1.getUuid()), is(false));
+    }
+
+    /**
+     * The name index is written on commit, so the test tree is committed and removed afterwards
+     */
+    @Test
+    public void testSearchByName() {
+        final NodeProjection root;
+        final NodeProjection alpha;
+        final NodeProjection alphabet;
+        try (final Transaction tx = neo4jTemplate.getGraphDatabaseService().beginTx()) {
+            Neo4jNode rootNode = createNode("search root");
+            Neo4jNode alphaNode = createNode("Alpha Centauri");
+            alphaNode = alphaNode.addChild(createNode("beta"));
+            rootNode = repository.save(rootNode.addChild(alphaNode));
+            root = repository.findProjection(rootNode.getUuid());
+            alpha = repository.findProjection(alphaNode.getUuid());
+            alphabet = repository.createNode("alphabet soup", alpha);
+            tx.success();
+        }
+        final String treeId = root.getUuid();
+        try {
+            try (final Transaction tx = neo4jTemplate.getGraphDatabaseService().beginTx()) {
+                List<SearchHit> result = repository.searchByName("ALP", SearchMode.PREFIX, treeId, 0, 10);
+                assertThat(result.size(), is(2));
+                // whole word matches rank first
+                result = repository.searchByName("alpha", SearchMode.PREFIX, treeId, 0, 10);
+                assertThat(result.size(), is(2));
+                assertThat(result.get(0).getNode().getUuid(), is(alpha.getUuid()));
+                assertThat(result.get(1).getNode().getUuid(), is(alphabet.getUuid()));
+                assertThat(result.get(1).getBreadcrumb(), is((List<String>) Lists.newArrayList("search root", "Alpha Centauri")));
+                assertThat(result.get(1).getBreadcrumbString(), is("search root / Alpha Centauri / alphabet soup"));
+                // both names match equally, the second page holds the second hit of the first page
+                final List<SearchHit> firstPage = repository.searchByName("alp", SearchMode.PREFIX, treeId, 0, 2);
+                result = repository.searchByName("alp", SearchMode.PREFIX, treeId, 1, 1);
+                assertThat(result.size(), is(1));
+                assertThat(result.get(0).getNode().getUuid(), is(firstPage.get(1).getNode().getUuid()));
+                result = repository.searchByName("alpha cent", SearchMode.PREFIX, treeId, 0, 10);
+                assertThat(result.size(), is(1));
+                assertThat(result.get(0).getNode().getUuid(), is(alpha.getUuid()));
+                result = repository.searchByName("phab", SearchMode.SUBSTRING, treeId, 0, 10);
+                assertThat(result.size(), is(1));
+                assertThat(result.get(0).getNode().getUuid(), is(alphabet.getUuid()));
+                result = repository.searchByName("bta", SearchMode.FUZZY, treeId, 0, 10);
+                assertThat(result.size(), is(1));
+                assertThat(result.get(0).getNode().getName(), is("beta"));
+                assertThat(result.get(0).getNode().getDepth(), is(2));
+                assertThat(repository.searchByName("alpha", SearchMode.PREFIX, "unknown", 0, 10), is(empty()));
+                assertThat(repository.searchByName(" ", SearchMode.PREFIX, null, 0, 10), is(empty()));
+                tx.success();
+            }
+            try (final Transaction tx = neo4jTemplate.getGraphDatabaseService().beginTx()) {
+                final Neo4jNode renamed = repository.findByUuid(alpha.getUuid());
+                renamed.setName("gamma");
+                repository.save(renamed);
+                tx.success();
+            }
+            try (final Transaction tx = neo4jTemplate.getGraphDatabaseService().beginTx()) {
+                assertThat(repository.searchByName("centauri", SearchMode.PREFIX, treeId, 0, 10), is(empty()));
+                final List<SearchHit> result = repository.searchByName("gamma", SearchMode.PREFIX, treeId, 0, 10);
+                assertThat(result.size(), is(1));
+                assertThat(result.get(0).getNode().getUuid(), is(alpha.getUuid()));
+                tx.success();
+            }
+        }
+        finally {
+            try (final Transaction tx = neo4jTemplate.getGraphDatabaseService().beginTx()) {
+                for (final NodeProjection node : Lists.newArrayList(repository.findPreordered(treeId))) {
+                    final Node graphNode = neo4jTemplate.getGraphDatabaseService().getNodeById(node.getNodeId());
+                    for (final Relationship relationship : graphNode.getRelationships()) {
+                        relationship.delete();
+                    }
+                    graphNode.delete();
+                }
+                tx.success();
+            }
+        }
+        try (final Transaction tx = neo4jTemplate.getGraphDatabaseService().beginTx()) {
+            assertThat(repository.searchByName("alphabet", SearchMode.PREFIX, null, 0, 10), is(empty()));
+            tx.success();
+        }
     }
 
     @Test
@@ -146,6 +436,21 @@ public class TreeNodeRepositoryIntegrationTest extends AbstractIntegrationTest
         assertThat(existing.size(), is(--count));
     }
 
+    @Test
+    @Transactional
+    public void testDeleteMarked() {
+        createTestTree();
+        final Neo4jNode node_1 = repository.findByName("node_1").iterator().next();
+        assertThat(repository.markForDeletion(node_1.getUuid()), is(1L));
+        assertThat(repository.countNodes(node_1.getTreeId()), is(1L));
+        assertThat(Lists.newArrayList(repository.findByTreeId(node_1.getTreeId())).size(), is(1));
+        assertThat(repository.deleteMarked(node_1.getUuid(), 3), is(3L));
+        assertThat(repository.deleteMarked(node_1.getUuid(), 3), is(1L));
+        assertThat(repository.deleteMarked(node_1.getUuid(), 3), is(1L));
+        assertThat(repository.deleteMarked(node_1.getUuid(), 3), is(0L));
+        assertThat(getExistingNodes().size(), is(1));
+    }
+
     @Test
     @Transactional
     public void testEntityIsInResultsAfterSave() {
@@ -154,6 +459,26 @@ public class TreeNodeRepositoryIntegrationTest extends AbstractIntegrationTest
         assertThat(getExistingNodes(), hasItem(root));
     }
 
+    /**
+     * Profiles the query of a repository method with a single string parameter
+     * 
+     * @param methodName name of the annotated repository method
+     * @param param query parameter
+     * @return execution plan
+     * @throws NoSuchMethodException if the repository has no such method
+     */
+    private QueryProfile profile(final String methodName, final String param) throws NoSuchMethodException {
+        final String query = QueryProfiler.getQuery(TreeNodeRepository.class.getMethod(methodName, String.class));
+        return profiler.profile(query, QueryProfiler.toParams(new Object[] { param }));
+    }
+
+    private void assertAggregates(final String uuid, final long descendantCount, final long leafCount, final int height) {
+        final SubtreeAggregates aggregates = repository.findAggregates(uuid);
+        assertThat(aggregates.getDescendantCount(), is(descendantCount));
+        assertThat(aggregates.getLeafCount(), is(leafCount));
+        assertThat(aggregates.getHeight(), is(height));
+    }
+
     private static Neo4jNode createNode(String title) {
         return new Neo4jNode(title);
     }
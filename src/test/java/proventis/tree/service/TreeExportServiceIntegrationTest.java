@@ -0,0 +1,88 @@
+/**
+ * 
+ */
+package proventis.tree.service;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.inject.Inject;
+
+import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.service.TreeExportService;
+
+import org.junit.Test;
+import org.springframework.transaction.annotation.Transactional;
+
+import proventis.tree.AbstractIntegrationTest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * @author Markus Lamm
+ * 
+ */
+public class TreeExportServiceIntegrationTest extends AbstractIntegrationTest
+{
+    @Inject
+    private TreeExportService exportService;
+
+    private Neo4jNode createTestTree() {
+        Neo4jNode root = new Neo4jNode("root");
+        Neo4jNode node_1 = new Neo4jNode("node_1");
+        node_1 = node_1.addChild(new Neo4jNode("node_1_1"));
+        root = root.addChild(node_1);
+        root = root.addChild(new Neo4jNode("node, \"2\""));
+        return getNeo4jTemplate().save(root);
+    }
+
+    @Test
+    @Transactional
+    public void testExportJson() throws IOException {
+        final Neo4jNode root = createTestTree();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(exportService.exportJson(root.getUuid(), out), is(4L));
+        final JsonNode json = new ObjectMapper().readTree(out.toByteArray());
+        assertThat(json.get("uuid").asText(), is(root.getUuid()));
+        assertThat(json.get("parentUuid").isNull(), is(true));
+        assertThat(json.get("created").isTextual(), is(true));
+        assertThat(json.get("children").size(), is(2));
+        assertThat(json.get("childCount").asInt(), is(2));
+        int grandChildren = 0;
+        for (final JsonNode child : json.get("children")) {
+            assertThat(child.get("parentUuid").asText(), is(root.getUuid()));
+            assertThat(child.get("depth").asInt(), is(1));
+            assertThat(child.get("childCount").asInt(), is(child.get("children").size()));
+            grandChildren += child.get("children").size();
+        }
+        assertThat(grandChildren, is(1));
+    }
+
+    @Test
+    @Transactional
+    public void testExportCsv() throws IOException {
+        final Neo4jNode root = createTestTree();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(exportService.exportCsv(root.getUuid(), out), is(4L));
+        final String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\\n");
+        assertThat(lines.length, is(5));
+        assertThat(lines[0], is("uuid,parentUuid,name,depth,created,modified,childCount"));
+        assertThat(lines[1].startsWith(root.getUuid() + ",,root,0,"), is(true));
+        boolean quoted = false;
+        for (final String line : lines) {
+            quoted |= line.contains(",\"node, \"\"2\"\"\",1,");
+        }
+        assertThat(quoted, is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @Transactional
+    public void testExportJson_NotFound() throws IOException {
+        exportService.exportJson("67h4c7n9z43432049", new ByteArrayOutputStream());
+    }
+}
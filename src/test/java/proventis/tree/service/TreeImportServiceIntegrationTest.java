@@ -0,0 +1,103 @@
+/**
+ * 
+ */
+package proventis.tree.service;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import neo4j.tree.domain.ImportResult;
+import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.domain.NodeProjection;
+import neo4j.tree.domain.SubtreeAggregates;
+import neo4j.tree.service.TreeImportService;
+import neo4j.tree.service.TreeService;
+
+import org.junit.Test;
+import org.springframework.transaction.annotation.Transactional;
+
+import proventis.tree.AbstractIntegrationTest;
+
+/**
+ * @author Markus Lamm
+ * 
+ */
+public class TreeImportServiceIntegrationTest extends AbstractIntegrationTest
+{
+    private static final String OUTLINE = "root\n  node_1\n    node_1_1\n\n    node_1_2\n  node_2\n\tnode_3\n\t\tnode_3_1\n";
+
+    @Inject
+    private TreeImportService importService;
+
+    @Inject
+    private TreeService service;
+
+    @Test
+    @Transactional
+    public void testImportOutline() throws IOException {
+        final ImportResult result = importService.importOutline(new StringReader(OUTLINE), null);
+        assertThat(result.getNodeCount(), is(7L));
+        assertThat(result.getBatchCount(), is(4));
+        assertThat(service.getTreeSummary(result.getRootUuid()).getNodeCount(), is(7L));
+        assertThat(service.getTreeSummary(result.getRootUuid()).getRootUuid(), is(result.getRootUuid()));
+        final List<NodeProjection> nodes = service.getPreordered(result.getRootUuid());
+        assertThat(nodes.size(), is(7));
+        assertThat(nodes.get(0).getName(), is("root"));
+        assertThat(nodes.get(0).getChildCount(), is(3));
+        for (final NodeProjection node : nodes) {
+            if (node.getName().equals("node_3_1")) {
+                assertThat(node.getDepth(), is(2));
+            }
+        }
+        assertAggregates(result.getRootUuid(), 6, 4, 2);
+        assertThat(service.repairAggregates(result.getRootUuid()), is(0L));
+    }
+
+    @Test
+    @Transactional
+    public void testImportOutline_Parent() throws IOException {
+        Neo4jNode root = service.createTree("root");
+        final ImportResult result = importService.importOutline(new StringReader("node_1\n  node_1_1\nnode_2\n"), root.getUuid());
+        assertThat(result.getNodeCount(), is(3L));
+        assertThat(result.getRootUuid(), is(root.getUuid()));
+        root = service.findByUuid(root.getUuid());
+        assertThat(root.getChildren().size(), is(2));
+        for (final Neo4jNode child : root.getChildren()) {
+            assertThat(child.getPath(), is(root.getPath() + child.getUuid() + "/"));
+            assertThat(child.getDepth(), is(1));
+            assertThat(child.getCreatedDate() != null, is(true));
+        }
+        assertAggregates(root.getUuid(), 3, 2, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @Transactional
+    public void testImportOutline_InvalidIndentation() throws IOException {
+        importService.importOutline(new StringReader("root\n    node_1\n"), null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @Transactional
+    public void testImportOutline_SecondRoot() throws IOException {
+        importService.importOutline(new StringReader("root\nroot_2\n"), null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @Transactional
+    public void testImportOutline_ParentNotFound() throws IOException {
+        importService.importOutline(new StringReader("node_1\n"), "67h4c7n9z43432049");
+    }
+
+    private void assertAggregates(final String uuid, final long descendantCount, final long leafCount, final int height) {
+        final SubtreeAggregates aggregates = service.getAggregates(uuid);
+        assertThat(aggregates.getDescendantCount(), is(descendantCount));
+        assertThat(aggregates.getLeafCount(), is(leafCount));
+        assertThat(aggregates.getHeight(), is(height));
+    }
+}
@@ -5,25 +5,47 @@ package proventis.tree.service;
 
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasItem;
 import static org.junit.Assert.assertThat;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
+import neo4j.tree.domain.ChildPage;
 import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.domain.NodeDetail;
+import neo4j.tree.domain.NodePage;
+import neo4j.tree.domain.NodeProjection;
+import neo4j.tree.domain.SearchMode;
+import neo4j.tree.domain.SubtreeAggregates;
+import neo4j.tree.domain.TreeSummary;
+import neo4j.tree.event.TreeVersion;
+import neo4j.tree.repository.TreeNodeRepository;
 import neo4j.tree.service.TreeService;
 import neo4j.tree.web.TreeNodeForm;
 
 import org.junit.Test;
+import org.neo4j.graphdb.Transaction;
 import org.springframework.transaction.annotation.Transactional;
 
 import proventis.tree.AbstractIntegrationTest;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * @author Markus Lamm
@@ -34,6 +56,12 @@ public class TreeNodeServiceIntegrationTest extends AbstractIntegrationTest
     @Inject
     private TreeService service;
 
+    @Inject
+    private TreeVersion treeVersion;
+
+    @Inject
+    private TreeNodeRepository repository;
+
     @Test
     @Transactional
     public void testFindByUuid() {
@@ -43,11 +71,37 @@ public class TreeNodeServiceIntegrationTest extends AbstractIntegrationTest
         assertThat(result, is(node));
     }
 
+    @Test
+    @Transactional
+    public void testFindByUuid_Depth() {
+        Neo4jNode root = createNode("root");
+        Neo4jNode node1 = createNode("node1");
+        Neo4jNode node1_1 = createNode("node1_1");
+        node1 = node1.addChild(node1_1);
+        node1_1.addChild(createNode("node1_1_1"));
+        root = root.addChild(node1);
+        root = getNeo4jTemplate().save(root);
+
+        Neo4jNode result = service.findByUuid(node1.getUuid(), 0);
+        assertThat(result.getName(), is("node1"));
+        assertThat(result.getParent().getName(), is(nullValue()));
+        assertThat(result.getChildren().iterator().next().getName(), is(nullValue()));
+
+        result = service.findByUuid(node1.getUuid(), 1);
+        assertThat(result.getParent().getName(), is("root"));
+        final Neo4jNode child = result.getChildren().iterator().next();
+        assertThat(child.getName(), is("node1_1"));
+        assertThat(child.getChildren().iterator().next().getName(), is(nullValue()));
+
+        result = service.findByUuid(node1.getUuid(), 2);
+        assertThat(result.getChildren().iterator().next().getChildren().iterator().next().getName(), is("node1_1_1"));
+    }
+
     @Test
     @Transactional
     public void testFindAll() {
-        createTestTree();
-        final List<Neo4jNode> result = service.findAll();
+        final String treeId = createTestTree();
+        final List<Neo4jNode> result = service.findAll(treeId);
         assertThat(result.size(), is(6));
     }
 
@@ -69,8 +123,234 @@ public class TreeNodeServiceIntegrationTest extends AbstractIntegrationTest
         root = getNeo4jTemplate().save(root);
         final String parentUuid = root.getUuid();
         Neo4jNode node1 = createNode("node1");
-        root = service.addNode(node1, parentUuid);
+        final Neo4jNode added = service.addNode(node1, parentUuid);
+        assertThat(added, is(node1));
+        assertThat(added.getParent().getNodeId(), is(root.getNodeId()));
+        assertThat(added.getDepth(), is(1));
+        assertThat(added.getTreeId(), is(root.getUuid()));
+        root = service.findByUuid(parentUuid);
         assertThat(root.getChildren(), hasItem(node1));
+        assertThat(service.findByUuid(node1.getUuid()).getPath(), is(root.getPath() + node1.getUuid() + "/"));
+    }
+
+    /**
+     * Inserts of several writers below the same parent, each in its own committed transaction. The
+     * tree is removed afterwards.
+     */
+    @Test
+    public void testAddNode_Concurrent() throws Exception {
+        final int writers = 4;
+        final int nodesPerWriter = 25;
+        final String rootUuid = service.createTree("concurrent root").getUuid();
+        final ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            final List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < writers; i++) {
+                final int writer = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < nodesPerWriter; j++) {
+                            service.addNode(createNode("node_" + writer + "_" + j), rootUuid);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            final TreeSummary summary = service.getTreeSummary(rootUuid);
+            assertThat(summary.getNodeCount(), is((long) writers * nodesPerWriter + 1));
+            assertThat(service.findByParent(service.findByUuid(rootUuid)).size(), is(writers * nodesPerWriter));
+            assertThat(service.getNodeDetail(rootUuid, 0, 0).getNode().getChildCount(), is(writers * nodesPerWriter));
+        }
+        finally {
+            executor.shutdownNow();
+            service.deleteNode(rootUuid);
+        }
+    }
+
+    /**
+     * Inserts of several writers below different parents, each in its own committed transaction.
+     * The aggregates of the shared ancestors must not lose updates. The tree is removed afterwards.
+     */
+    @Test
+    public void testAddNode_ConcurrentParents() throws Exception {
+        final int writers = 4;
+        final int nodesPerWriter = 25;
+        final String rootUuid = service.createTree("concurrent root").getUuid();
+        final String middleUuid = service.addNode(createNode("middle"), rootUuid).getUuid();
+        final List<String> parentUuids = Lists.newArrayList();
+        for (int i = 0; i < writers; i++) {
+            parentUuids.add(service.addNode(createNode("parent_" + i), middleUuid).getUuid());
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            final List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < writers; i++) {
+                final int writer = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < nodesPerWriter; j++) {
+                            service.addNode(createNode("node_" + writer + "_" + j), parentUuids.get(writer));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            assertAggregates(rootUuid, writers * nodesPerWriter + writers + 1, writers * nodesPerWriter, 3);
+            assertThat(service.repairAggregates(rootUuid), is(0L));
+        }
+        finally {
+            executor.shutdownNow();
+            service.deleteNode(rootUuid);
+        }
+    }
+
+    /**
+     * Moves between two branches while other writers insert below both branches and the moved
+     * node, each in its own committed transaction. Neither write may fail with a deadlock and the
+     * aggregates must match the tree afterwards. The tree is removed afterwards.
+     */
+    @Test
+    public void testMoveNode_ConcurrentInserts() throws Exception {
+        final int writers = 3;
+        final int nodesPerWriter = 20;
+        final String rootUuid = service.createTree("concurrent root").getUuid();
+        final String aUuid = service.addNode(createNode("a"), rootUuid).getUuid();
+        final String bUuid = service.addNode(createNode("b"), rootUuid).getUuid();
+        final String movedUuid = service.addNode(createNode("moved"), aUuid).getUuid();
+        final List<String> parentUuids = Lists.newArrayList(aUuid, bUuid, movedUuid);
+        final ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+        try {
+            final List<Future<?>> futures = Lists.newArrayList();
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = 0; i < nodesPerWriter; i++) {
+                        service.moveNode(movedUuid, (i % 2 == 0) ? bUuid : aUuid);
+                    }
+                    return null;
+                }
+            }));
+            for (int i = 0; i < writers; i++) {
+                final int writer = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < nodesPerWriter; j++) {
+                            service.addNode(createNode("node_" + writer + "_" + j), parentUuids.get(writer));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            assertAggregates(rootUuid, writers * nodesPerWriter + 3, writers * nodesPerWriter, 3);
+            assertThat(service.repairAggregates(rootUuid), is(0L));
+            assertPaths(rootUuid);
+        }
+        finally {
+            executor.shutdownNow();
+            service.deleteNode(rootUuid);
+        }
+    }
+
+    /**
+     * A subtree marked for deletion by a writer that stopped before the sweep is hidden from
+     * queries by tree id and name and swept on resume. The name index is written on commit, so the
+     * tree is committed and removed afterwards.
+     */
+    @Test
+    public void testResumeDeletes() {
+        final String rootUuid = service.createTree("resume root").getUuid();
+        final String markedUuid = service.addNode(createNode("resumed"), rootUuid).getUuid();
+        service.addNode(createNode("resumed child"), markedUuid);
+        service.addNode(createNode("resumed child"), markedUuid);
+        try {
+            try (final Transaction tx = getNeo4jTemplate().getGraphDatabaseService().beginTx()) {
+                repository.subtractFromAncestors(markedUuid);
+                assertThat(repository.markForDeletion(markedUuid), is(1L));
+                tx.success();
+            }
+            assertThat(service.findAll(rootUuid).size(), is(1));
+            assertThat(service.search("resumed", SearchMode.PREFIX, rootUuid, 0, 10), is(empty()));
+            assertThat(service.resumeDeletes(), is(3L));
+            assertThat(service.findAll(rootUuid).size(), is(1));
+            assertThat(service.resumeDeletes(), is(0L));
+        }
+        finally {
+            service.deleteNode(rootUuid);
+        }
+    }
+
+    /**
+     * Two writers move two siblings below each other at the same time. At most one of each pair of
+     * moves may succeed, the other one has to see the first move and refuse to close a cycle. The
+     * tree is removed afterwards.
+     */
+    @Test
+    public void testMoveNode_ConcurrentCycle() throws Exception {
+        final int rounds = 10;
+        final String rootUuid = service.createTree("cycle root").getUuid();
+        final String aUuid = service.addNode(createNode("a"), rootUuid).getUuid();
+        final String bUuid = service.addNode(createNode("b"), rootUuid).getUuid();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < rounds; i++) {
+                service.moveNode(aUuid, rootUuid);
+                service.moveNode(bUuid, rootUuid);
+                final Future<Boolean> first = executor.submit(createMove(aUuid, bUuid));
+                final Future<Boolean> second = executor.submit(createMove(bUuid, aUuid));
+                assertThat(first.get(60, TimeUnit.SECONDS) && second.get(60, TimeUnit.SECONDS), is(false));
+                assertThat(service.getPreordered(rootUuid).size(), is(3));
+                assertPaths(rootUuid);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            service.deleteNode(rootUuid);
+        }
+    }
+
+    /**
+     * Child counts are written on commit, so the test tree is committed and removed afterwards
+     */
+    @Test
+    public void testChildCount() {
+        final Neo4jNode root = service.createTree("root");
+        try {
+            final Neo4jNode a = service.addNode(createNode("a"), root.getUuid());
+            final Neo4jNode b = service.addNode(createNode("b"), root.getUuid());
+            final Neo4jNode c = service.addNode(createNode("c"), root.getUuid());
+            assertChildCount(root.getUuid(), 3);
+            assertChildCount(a.getUuid(), 0);
+
+            service.moveNode(b.getUuid(), a.getUuid());
+            assertChildCount(root.getUuid(), 2);
+            assertChildCount(a.getUuid(), 1);
+
+            service.deleteNode(c.getUuid());
+            assertChildCount(root.getUuid(), 1);
+            assertThat(service.getPreordered(root.getUuid()).get(1).getChildCount(), is(1));
+            assertThat(service.repairAggregates(root.getUuid()), is(0L));
+        }
+        finally {
+            service.deleteNode(root.getUuid());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @Transactional
+    public void testAddNode_ParentNotFound() {
+        service.addNode(createNode("node1"), "67h4c7n9z43432049");
     }
 
     @Test
@@ -97,6 +377,164 @@ public class TreeNodeServiceIntegrationTest extends AbstractIntegrationTest
         assertThat(root.getName(), is("newRoot"));
     }
 
+    /**
+     * Children are indexed by position on commit, so the test tree is committed and removed
+     * afterwards
+     */
+    @Test
+    public void testRenameNode() {
+        final Neo4jNode root = service.createTree("root");
+        try {
+            final Neo4jNode node = service.addNode(createNode("a"), root.getUuid());
+            assertThat(service.renameNode(node.getUuid(), "renamed"), is(root.getUuid()));
+            assertThat(service.findByUuid(node.getUuid(), 0).getName(), is("renamed"));
+            assertThat(service.getNodeDetail(root.getUuid(), 0, 10).getChildren().get(0).getName(), is("renamed"));
+        }
+        finally {
+            service.deleteNode(root.getUuid());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @Transactional
+    public void testRenameNode_NotFound() {
+        service.renameNode("67h4c7n9z43432049", "renamed");
+    }
+
+    /**
+     * Children are indexed by position on commit, so the test tree is committed and removed
+     * afterwards
+     */
+    @Test
+    public void testGetNodeDetail() {
+        final Neo4jNode root = service.createTree("root");
+        try {
+            final Neo4jNode a = service.addNode(createNode("a"), root.getUuid());
+            for (int i = 0; i < 3; i++) {
+                service.addNode(createNode("a" + i), a.getUuid());
+            }
+            final NodeDetail detail = service.getNodeDetail(a.getUuid(), 0, 2);
+            assertThat(detail.getNode().getUuid(), is(a.getUuid()));
+            assertThat(detail.getNode().getParentUuid(), is(root.getUuid()));
+            assertThat(detail.getNode().getChildCount(), is(3));
+            assertThat(detail.getParentName(), is("root"));
+            assertThat(detail.getChildren().size(), is(2));
+            assertThat(detail.getChildren().get(0).getName(), is("a0"));
+            assertThat(detail.getChildren().get(0).getParentUuid(), is(a.getUuid()));
+            assertThat(detail.getChildren().get(0).getDepth(), is(2));
+            assertThat(detail.isHasMoreChildren(), is(true));
+            assertThat(service.getNodeDetail(a.getUuid(), 0, 3).isHasMoreChildren(), is(false));
+
+            final NodeDetail next = service.getNodeDetail(a.getUuid(), detail.getNextChildPosition(), 2);
+            assertThat(next.getChildren().size(), is(1));
+            assertThat(next.getChildren().get(0).getName(), is("a2"));
+            assertThat(next.isHasMoreChildren(), is(false));
+
+            final NodeDetail rootDetail = service.getNodeDetail(root.getUuid(), 0, 10);
+            assertThat(rootDetail.isRoot(), is(true));
+            assertThat(rootDetail.getParentName(), is(nullValue()));
+            assertThat(service.getNodeDetail("67h4c7n9z43432049", 0, 10), is(nullValue()));
+        }
+        finally {
+            service.deleteNode(root.getUuid());
+        }
+    }
+
+    /**
+     * Children are indexed by position on commit, so the test tree is committed and removed
+     * afterwards
+     */
+    @Test
+    public void testChildOrder() {
+        final Neo4jNode root = service.createTree("root");
+        try {
+            final Neo4jNode b = service.addNode(createNode("b"), root.getUuid());
+            final Neo4jNode d = service.addNode(createNode("d"), root.getUuid());
+            service.addNode(createNode("a"), root.getUuid(), 0);
+            service.addNode(createNode("c"), root.getUuid(), 2);
+            service.addNode(createNode("e"), root.getUuid(), 10);
+            assertChildNames(root.getUuid(), "a", "b", "c", "d", "e");
+
+            service.reorderNode(d.getUuid(), 0);
+            assertChildNames(root.getUuid(), "d", "a", "b", "c", "e");
+            service.reorderNode(d.getUuid(), 10);
+            assertChildNames(root.getUuid(), "a", "b", "c", "e", "d");
+
+            // adjacent positions make the siblings renumbered
+            for (int i = 0; i < 25; i++) {
+                service.reorderNode((i % 2 == 0) ? b.getUuid() : d.getUuid(), 1);
+            }
+            assertChildNames(root.getUuid(), "a", "b", "d", "c", "e");
+            final List<String> preorderNames = Lists.newArrayList();
+            for (final NodeProjection node : service.getPreordered(root.getUuid())) {
+                preorderNames.add(node.getName());
+            }
+            assertThat(preorderNames, is((List<String>) Lists.newArrayList("root", "a", "b", "d", "c", "e")));
+
+            service.renameNode(b.getUuid(), "b2");
+            service.moveNode(d.getUuid(), b.getUuid());
+            assertChildNames(root.getUuid(), "a", "b2", "c", "e");
+            assertChildNames(b.getUuid(), "d");
+        }
+        finally {
+            service.deleteNode(root.getUuid());
+        }
+    }
+
+
+    /**
+     * Reorders of several writers below the same parent, each in its own committed transaction. No
+     * two children may end up with the same position. The tree is removed afterwards.
+     */
+    @Test
+    public void testReorderNode_Concurrent() throws Exception {
+        final int writers = 4;
+        final String rootUuid = service.createTree("root").getUuid();
+        final List<String> childUuids = Lists.newArrayList();
+        for (int i = 0; i < 2 * writers; i++) {
+            childUuids.add(service.addNode(createNode("child_" + i), rootUuid).getUuid());
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            final List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < writers; i++) {
+                final String childUuid = childUuids.get(i);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < 25; j++) {
+                            service.reorderNode(childUuid, (j % 2 == 0) ? 1 : 2);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            final List<NodeProjection> children = service.getChildPage(rootUuid, 0, 100).getChildren();
+            final Set<Long> positions = Sets.newHashSet();
+            final Set<String> uuids = Sets.newHashSet();
+            for (final NodeProjection child : children) {
+                positions.add(child.getPosition());
+                uuids.add(child.getUuid());
+            }
+            assertThat(positions.size(), is(childUuids.size()));
+            assertThat(uuids, is((Set<String>) Sets.newHashSet(childUuids)));
+        }
+        finally {
+            executor.shutdownNow();
+            service.deleteNode(rootUuid);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @Transactional
+    public void testReorderNode_Root() {
+        final Neo4jNode root = service.createTree("root");
+        service.reorderNode(root.getUuid(), 0);
+    }
+
     @Test
     @Transactional
     public void testDeleteNode() {
@@ -108,6 +546,169 @@ public class TreeNodeServiceIntegrationTest extends AbstractIntegrationTest
         assertThat(getExistingNodes().size(), is(--count));
     }
 
+    @Test
+    @Transactional
+    public void testDeleteNode_Subtree() {
+        final String treeId = createTestTree();
+        final Neo4jNode root = service.getRootNode(treeId);
+        final NodeProjection node_1 = service.getPreordered(root.getUuid()).get(1);
+        final long deleted = service.deleteNode(node_1.getUuid());
+        assertThat(deleted, is(5L));
+        assertThat(getExistingNodes().size(), is(1));
+        assertThat(getExistingNodes(), hasItem(root));
+        assertThat(service.getTreeSummary(treeId).getRootUuid(), is(root.getUuid()));
+    }
+
+    @Test
+    @Transactional
+    public void testDeleteNode_Root() {
+        final String treeId = createTestTree();
+        final long deleted = service.deleteNode(service.getRootNode(treeId).getUuid());
+        assertThat(deleted, is(6L));
+        assertThat(getExistingNodes(), is(empty()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @Transactional
+    public void testDeleteNode_NotFound() {
+        service.deleteNode("67h4c7n9z43432049");
+    }
+
+    /**
+     * Deletes of several committed trees at the same time, each delete sweeps and counts the nodes
+     * of its own tree only
+     */
+    @Test
+    public void testDeleteNode_Concurrent() throws Exception {
+        final int trees = 3;
+        final List<String> rootUuids = Lists.newArrayList();
+        for (int i = 0; i < trees; i++) {
+            final String rootUuid = service.createTree("root_" + i).getUuid();
+            rootUuids.add(rootUuid);
+            for (int j = 0; j < 10; j++) {
+                final Neo4jNode child = service.addNode(createNode("node_" + i + "_" + j), rootUuid);
+                service.addNode(createNode("node_" + i + "_" + j + "_1"), child.getUuid());
+            }
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(trees);
+        try {
+            final List<Future<Long>> futures = Lists.newArrayList();
+            for (final String rootUuid : rootUuids) {
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return service.deleteNode(rootUuid);
+                    }
+                }));
+            }
+            for (final Future<Long> future : futures) {
+                assertThat(future.get(60, TimeUnit.SECONDS), is(21L));
+            }
+            for (final String rootUuid : rootUuids) {
+                assertThat(service.getRootNode(rootUuid), is(nullValue()));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @Transactional
+    public void testMoveNode() {
+        final String treeId = createTestTree();
+        final Neo4jNode root = service.getRootNode(treeId);
+        final NodeProjection leaf = service.getPreordered(root.getUuid()).get(2);
+        final Neo4jNode leafChild = createNode("leaf_child");
+        service.addNode(leafChild, leaf.getUuid());
+        final long moved = service.moveNode(leaf.getUuid(), root.getUuid());
+        assertThat(moved, is(2L));
+
+        final Neo4jNode movedNode = service.findByUuid(leaf.getUuid(), 0);
+        assertThat(movedNode.getDepth(), is(1));
+        final String movedPath = root.getPath() + leaf.getUuid() + Neo4jNode.PATH_SEPARATOR;
+        assertThat(movedNode.getPath(), is(movedPath));
+        final Neo4jNode movedChild = service.findByUuid(leafChild.getUuid(), 0);
+        assertThat(movedChild.getDepth(), is(2));
+        assertThat(movedChild.getPath(), is(movedPath + leafChild.getUuid() + Neo4jNode.PATH_SEPARATOR));
+
+        final List<NodeProjection> result = service.getPreordered(root.getUuid());
+        assertThat(result.size(), is(7));
+        assertThat(result.get(0).getChildCount(), is(2));
+        for (final NodeProjection node : result) {
+            if (node.getUuid().equals(leaf.getUuid())) {
+                assertThat(node.getParentUuid(), is(root.getUuid()));
+            }
+        }
+        assertThat(service.findByUuid(leaf.getParentUuid(), 0).getDepth(), is(1));
+    }
+
+    @Test
+    @Transactional
+    public void testMoveNode_SameParent() {
+        final String treeId = createTestTree();
+        final NodeProjection leaf = service.getPreordered(service.getRootNode(treeId).getUuid()).get(2);
+        assertThat(service.moveNode(leaf.getUuid(), leaf.getParentUuid()), is(0L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @Transactional
+    public void testMoveNode_Cycle() {
+        final String treeId = createTestTree();
+        final List<NodeProjection> nodes = service.getPreordered(service.getRootNode(treeId).getUuid());
+        service.moveNode(nodes.get(1).getUuid(), nodes.get(2).getUuid());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @Transactional
+    public void testMoveNode_Root() {
+        final String treeId = createTestTree();
+        final List<NodeProjection> nodes = service.getPreordered(service.getRootNode(treeId).getUuid());
+        service.moveNode(nodes.get(0).getUuid(), nodes.get(1).getUuid());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @Transactional
+    public void testMoveNode_NotFound() {
+        final String treeId = createTestTree();
+        service.moveNode("67h4c7n9z43432049", service.getRootNode(treeId).getUuid());
+    }
+
+    @Test
+    @Transactional
+    public void testMoveNode_OtherTree() {
+        final String treeId = createTestTree();
+        final String otherTreeId = createTestTree();
+        final NodeProjection node_1 = service.getPreordered(treeId).get(1);
+        final long moved = service.moveNode(node_1.getUuid(), otherTreeId);
+        assertThat(moved, is(5L));
+        assertThat(service.findByUuid(node_1.getUuid(), 0).getTreeId(), is(otherTreeId));
+        assertThat(service.findAll(treeId).size(), is(1));
+        assertThat(service.findAll(otherTreeId).size(), is(11));
+        assertThat(service.getTreeSummary(otherTreeId).getNodeCount(), is(11L));
+    }
+
+    @Test
+    @Transactional
+    public void testForest() {
+        final String treeId = createTestTree();
+        final String otherTreeId = createTestTree();
+        assertThat(otherTreeId, is(not(treeId)));
+        assertThat(service.getRootNodes().size(), is(2));
+        assertThat(service.findAll(treeId).size(), is(6));
+        for (final Neo4jNode node : service.findAll(treeId)) {
+            assertThat(node.getTreeId(), is(treeId));
+        }
+        assertThat(service.getTreeSummary(otherTreeId).getNodeCount(), is(6L));
+
+        assertThat(service.deleteNode(treeId), is(6L));
+        assertThat(service.getTreeSummary(treeId).isEmpty(), is(true));
+        assertThat(service.getRootNode(treeId), is(nullValue()));
+        assertThat(service.getTreeSummary(otherTreeId).getNodeCount(), is(6L));
+        assertThat(service.findAll(otherTreeId).size(), is(6));
+        assertThat(service.getRootNodes().get(0).getUuid(), is(otherTreeId));
+    }
+
     @Test
     @Transactional
     public void testGetRootNode() {
@@ -117,7 +718,200 @@ public class TreeNodeServiceIntegrationTest extends AbstractIntegrationTest
         root = root.addChild(node1);
         root = root.addChild(node2);
         root = getNeo4jTemplate().save(root);
-        assertThat(service.getRootNode(), is(root));
+        assertThat(service.getRootNode(root.getUuid()), is(root));
+    }
+
+    @Test
+    @Transactional
+    public void testGetPreordered() {
+        final String treeId = createTestTree();
+        final Neo4jNode root = service.getRootNode(treeId);
+        final List<NodeProjection> result = service.getPreordered(root.getUuid());
+        assertThat(result.size(), is(6));
+        assertThat(result.get(0).getUuid(), is(root.getUuid()));
+        assertThat(result.get(0).getDepth(), is(0));
+        assertThat(result.get(0).getChildCount(), is(1));
+        final NodeProjection node_1 = result.get(1);
+        assertThat(node_1.getName(), is("node_1"));
+        assertThat(node_1.getParentUuid(), is(root.getUuid()));
+        assertThat(node_1.getChildCount(), is(4));
+        for (final NodeProjection leaf : result.subList(2, 6)) {
+            assertThat(leaf.getDepth(), is(2));
+            assertThat(leaf.getParentUuid(), is(node_1.getUuid()));
+            assertThat(leaf.isLeaf(), is(true));
+        }
+    }
+
+    @Test
+    @Transactional
+    public void testGetPreordered_Window() {
+        final String treeId = createTestTree();
+        final String rootUuid = service.getRootNode(treeId).getUuid();
+        NodePage page = service.getPreordered(rootUuid, 1, 0, 10);
+        assertThat(page.getNodes().size(), is(2));
+        assertThat(page.isHasMore(), is(false));
+        assertThat(page.isExpandable(page.getNodes().get(1)), is(true));
+
+        page = service.getPreordered(rootUuid, Integer.MAX_VALUE, 1, 2);
+        assertThat(page.getNodes().size(), is(2));
+        assertThat(page.getNodes().get(0).getName(), is("node_1"));
+        assertThat(page.getNodes().get(1).getDepth(), is(2));
+        assertThat(page.isHasMore(), is(true));
+        assertThat(page.isHasPrevious(), is(true));
+        assertThat(page.getNextOffset(), is(3));
+
+        page = service.getPreordered(rootUuid, Integer.MAX_VALUE, 4, 2);
+        assertThat(page.getNodes().size(), is(2));
+        assertThat(page.isHasMore(), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @Transactional
+    public void testGetPreordered_InvalidWindow() {
+        service.getPreordered("67h4c7n9z43432049", 1, -1, 10);
+    }
+
+    @Test
+    @Transactional
+    public void testSearch_Blank() {
+        createTestTree();
+        assertThat(service.search(" ", SearchMode.PREFIX, null, 0, 10), is(empty()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @Transactional
+    public void testSearch_InvalidWindow() {
+        service.search("node", SearchMode.PREFIX, null, 0, 0);
+    }
+
+    @Test
+    @Transactional
+    public void testGetTreeSummary() {
+        final String treeId = createTestTree();
+        final TreeSummary summary = service.getTreeSummary(treeId);
+        assertThat(summary.isEmpty(), is(false));
+        assertThat(summary.getNodeCount(), is(6L));
+        assertThat(summary.getRootUuid(), is(treeId));
+    }
+
+    @Test
+    @Transactional
+    public void testGetTreeSummary_Empty() {
+        final TreeSummary summary = service.getTreeSummary("67h4c7n9z43432049");
+        assertThat(summary.isEmpty(), is(true));
+        assertThat(summary.getNodeCount(), is(0L));
+    }
+
+    @Test
+    @Transactional
+    public void testGetAggregates() {
+        final String rootUuid = service.createTree("root").getUuid();
+        final Neo4jNode a = service.addNode(createNode("a"), rootUuid);
+        final Neo4jNode b = service.addNode(createNode("b"), rootUuid);
+        final Neo4jNode a1 = service.addNode(createNode("a1"), a.getUuid());
+        service.addNode(createNode("a11"), a1.getUuid());
+        assertAggregates(rootUuid, 4, 2, 3);
+        assertAggregates(a.getUuid(), 2, 1, 2);
+        assertAggregates(b.getUuid(), 0, 1, 0);
+
+        service.moveNode(a1.getUuid(), b.getUuid());
+        assertAggregates(rootUuid, 4, 2, 3);
+        assertAggregates(a.getUuid(), 0, 1, 0);
+        assertAggregates(b.getUuid(), 2, 1, 2);
+
+        service.deleteNode(b.getUuid());
+        assertAggregates(rootUuid, 1, 1, 1);
+        assertAggregates(a.getUuid(), 0, 1, 0);
+        assertThat(service.getAggregates("67h4c7n9z43432049"), is(nullValue()));
+    }
+
+    @Test
+    @Transactional
+    public void testRepairAggregates() {
+        final String treeId = createTestTree();
+        final Neo4jNode root = service.getRootNode(treeId);
+        assertThat(service.repairAggregates(treeId), is(6L));
+        assertAggregates(treeId, 5, 4, 2);
+        getNeo4jTemplate().getNode(root.getNodeId()).setProperty("descendantCount", 99L);
+        assertThat(service.repairAggregates(treeId), is(1L));
+        assertAggregates(treeId, 5, 4, 2);
+        assertThat(service.repairAggregates(treeId), is(0L));
+    }
+
+    /**
+     * The version is increased on commit, so the test tree is committed and removed afterwards
+     */
+    @Test
+    public void testTreeVersion() {
+        final long version = treeVersion.getVersion();
+        final Neo4jNode root = service.createTree("root");
+        try {
+            assertThat(treeVersion.getVersion(), is(greaterThan(version)));
+            final long created = treeVersion.getVersion();
+            service.getPreordered(root.getUuid());
+            assertThat(treeVersion.getVersion(), is(created));
+            service.addNode(createNode("node1"), root.getUuid());
+            assertThat(treeVersion.getVersion(), is(greaterThan(created)));
+        }
+        finally {
+            service.deleteNode(root.getUuid());
+        }
+    }
+
+    private void assertChildCount(final String uuid, final int childCount) {
+        assertThat(service.getNodeDetail(uuid, 0, 0).getNode().getChildCount(), is(childCount));
+    }
+
+    /**
+     * Helper method. Pages through the children two at a time and compares their names
+     */
+    private void assertChildNames(final String parentUuid, final String... names) {
+        final List<String> childNames = Lists.newArrayList();
+        ChildPage page = null;
+        do {
+            page = service.getChildPage(parentUuid, (null == page) ? 0 : page.getNextPosition(), 2);
+            for (final NodeProjection child : page.getChildren()) {
+                childNames.add(child.getName());
+            }
+        } while (page.isHasMore());
+        assertThat(childNames, is((List<String>) Lists.newArrayList(names)));
+    }
+
+    private void assertAggregates(final String uuid, final long descendantCount, final long leafCount, final int height) {
+        final SubtreeAggregates aggregates = service.getAggregates(uuid);
+        assertThat(aggregates.getDescendantCount(), is(descendantCount));
+        assertThat(aggregates.getLeafCount(), is(leafCount));
+        assertThat(aggregates.getHeight(), is(height));
+    }
+
+    private Callable<Boolean> createMove(final String nodeUuid, final String newParentUuid) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                try {
+                    service.moveNode(nodeUuid, newParentUuid);
+                    return true;
+                }
+                catch (final IllegalArgumentException e) {
+                    return false;
+                }
+            }
+        };
+    }
+
+    private void assertPaths(final String rootUuid) {
+        final Map<String, NodeProjection> nodes = Maps.newHashMap();
+        for (final NodeProjection node : service.getPreordered(rootUuid)) {
+            nodes.put(node.getUuid(), node);
+        }
+        for (final NodeProjection node : nodes.values()) {
+            if (null != node.getParentUuid()) {
+                final NodeProjection parent = nodes.get(node.getParentUuid());
+                assertThat(node.getPath(), is(parent.getPath() + node.getUuid() + Neo4jNode.PATH_SEPARATOR));
+                assertThat(node.getDepth(), is(parent.getDepth() + 1));
+                assertThat(node.getTreeId(), is(parent.getTreeId()));
+            }
+        }
     }
 
     private List<Neo4jNode> getExistingNodes() {
@@ -128,7 +922,7 @@ public class TreeNodeServiceIntegrationTest extends AbstractIntegrationTest
         return new Neo4jNode(title);
     }
 
-    private void createTestTree() {
+    private String createTestTree() {
         Neo4jNode nodeRoot = createNode("root");
         Neo4jNode node_1 = createNode("node_1");
         nodeRoot = nodeRoot.addChild(node_1);
@@ -141,5 +935,6 @@ public class TreeNodeServiceIntegrationTest extends AbstractIntegrationTest
         node_1 = node_1.addChild(node_1_3);
         node_1 = node_1.addChild(node_1_4);
         nodeRoot = getNeo4jTemplate().save(nodeRoot);
+        return nodeRoot.getTreeId();
     }
 }
@@ -0,0 +1,228 @@
+/**
+ * 
+ */
+package proventis.tree.service;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.domain.NodeProjection;
+import neo4j.tree.metrics.MetricsRegistry;
+import neo4j.tree.metrics.OperationMetrics;
+import neo4j.tree.service.TreeService;
+import neo4j.tree.service.impl.TreeStructureCache;
+import neo4j.tree.web.TreeNodeForm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.Lists;
+
+import proventis.tree.AbstractIntegrationTest;
+
+/**
+ * The cache serves committed data only, so these tests commit and remove their tree afterwards.
+ * 
+ * @author Markus Lamm
+ */
+public class TreeStructureCacheIntegrationTest extends AbstractIntegrationTest
+{
+    private static final int MAX_NODES = 100;
+
+    @Inject
+    private TreeService service;
+
+    @Inject
+    private TreeStructureCache cache;
+
+    @Inject
+    private PlatformTransactionManager transactionManager;
+
+    @Inject
+    private MetricsRegistry registry;
+
+    private Neo4jNode root;
+
+    private Neo4jNode node_1;
+
+    @Before
+    public void setUp() {
+        cache.setMaxNodes(MAX_NODES);
+        cache.setEnabled(true);
+        root = service.createTree("root");
+        node_1 = new Neo4jNode("node_1");
+        service.addNode(node_1, root.getUuid());
+        service.addNode(new Neo4jNode("node_1_1"), node_1.getUuid());
+    }
+
+    @After
+    public void tearDown() {
+        service.deleteNode(root.getUuid());
+        cache.setEnabled(false);
+    }
+
+    @Test
+    public void testGetPreordered() {
+        service.getPreordered(root.getUuid());
+        final long hits = cache.getHitCount();
+        final List<NodeProjection> cached = service.getPreordered(root.getUuid());
+        assertThat(cache.getHitCount(), is(hits + 1));
+        assertThat(cache.getSize(), is(3));
+        assertSameNodes(cached, getUncached(root.getUuid()));
+        assertThat(service.getPreordered(node_1.getUuid(), 0, 0, 10).getNodes().size(), is(1));
+        assertThat(service.getTreeSummary(root.getUuid()).getRootUuid(), is(root.getUuid()));
+        assertThat(service.getRootNode(root.getUuid()), is(root));
+    }
+
+    private List<NodeProjection> getUncached(final String startUuid) {
+        cache.setEnabled(false);
+        final List<NodeProjection> result = service.getPreordered(startUuid);
+        cache.setEnabled(true);
+        return result;
+    }
+
+    private static void assertSameNodes(final List<NodeProjection> cached, final List<NodeProjection> loaded) {
+        assertThat(cached.size(), is(loaded.size()));
+        for (int i = 0; i < loaded.size(); i++) {
+            assertThat(cached.get(i).getUuid(), is(loaded.get(i).getUuid()));
+            assertThat(cached.get(i).getName(), is(loaded.get(i).getName()));
+            assertThat(cached.get(i).getParentUuid(), is(loaded.get(i).getParentUuid()));
+            assertThat(cached.get(i).getDepth(), is(loaded.get(i).getDepth()));
+            assertThat(cached.get(i).getPath(), is(loaded.get(i).getPath()));
+            assertThat(cached.get(i).getChildCount(), is(loaded.get(i).getChildCount()));
+            assertThat(cached.get(i).getPosition(), is(loaded.get(i).getPosition()));
+        }
+    }
+
+    @Test
+    public void testAddNode() {
+        service.getTreeSummary(root.getUuid());
+        final long misses = cache.getMissCount();
+        final Neo4jNode node_2 = new Neo4jNode("node_2");
+        service.addNode(node_2, root.getUuid());
+        service.addNode(new Neo4jNode("node_3"), root.getUuid());
+        final List<NodeProjection> nodes = service.getPreordered(root.getUuid());
+        assertThat(cache.getMissCount(), is(misses));
+        assertThat(nodes.size(), is(5));
+        assertThat(nodes.get(0).getChildCount(), is(3));
+        assertSameNodes(nodes, getUncached(root.getUuid()));
+        assertThat(service.getTreeSummary(root.getUuid()).getNodeCount(), is(5L));
+        assertThat(service.findByUuid(node_2.getUuid()).getParent(), is(root));
+        assertThat(service.findByParent(root).size(), is(3));
+    }
+
+    @Test
+    public void testReorderNode() {
+        final Neo4jNode node_2 = service.addNode(new Neo4jNode("node_2"), root.getUuid());
+        service.getTreeSummary(root.getUuid());
+        service.addNode(new Neo4jNode("node_0"), root.getUuid(), 0);
+        service.reorderNode(node_2.getUuid(), 1);
+        final List<NodeProjection> nodes = service.getPreordered(root.getUuid());
+        assertThat(nodes.get(1).getName(), is("node_0"));
+        assertThat(nodes.get(2).getName(), is("node_2"));
+        assertThat(nodes.get(3).getName(), is("node_1"));
+        assertSameNodes(nodes, getUncached(root.getUuid()));
+    }
+
+    @Test
+    public void testUpdateNode() {
+        service.getTreeSummary(root.getUuid());
+        final TreeNodeForm form = new TreeNodeForm();
+        form.setName("renamed");
+        service.updateNode(form, node_1.getUuid());
+        final long misses = cache.getMissCount();
+        assertThat(service.getPreordered(node_1.getUuid()).get(0).getName(), is("renamed"));
+        assertThat(cache.getMissCount(), is(misses));
+    }
+
+    /**
+     * A rolled back write drops the tree it touched only
+     */
+    @Test
+    public void testRollback() {
+        final Neo4jNode other = service.createTree("other");
+        try {
+            service.getTreeSummary(other.getUuid());
+            service.getTreeSummary(root.getUuid());
+            new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                    service.addNode(new Neo4jNode("node_2"), root.getUuid());
+                    // pending writes are read from the database
+                    assertThat(service.getTreeSummary(root.getUuid()).getNodeCount(), is(4L));
+                    status.setRollbackOnly();
+                }
+            });
+            assertThat(cache.getSize(), is(1));
+            assertThat(service.getTreeSummary(root.getUuid()).getNodeCount(), is(3L));
+        }
+        finally {
+            service.deleteNode(other.getUuid());
+        }
+    }
+
+    /**
+     * Concurrent misses of the same tree wait for one load
+     */
+    @Test
+    public void testLoad_Concurrent() throws Exception {
+        final int readers = 8;
+        final OperationMetrics loads = registry.getMetrics("TreeNodeRepository.findPreordered(String)");
+        final long loadCount = loads.getCount();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(readers);
+        try {
+            final List<Future<List<NodeProjection>>> futures = Lists.newArrayList();
+            for (int i = 0; i < readers; i++) {
+                futures.add(executor.submit(new Callable<List<NodeProjection>>() {
+                    @Override
+                    public List<NodeProjection> call() throws Exception {
+                        start.await();
+                        return service.getPreordered(root.getUuid());
+                    }
+                }));
+            }
+            start.countDown();
+            for (final Future<List<NodeProjection>> future : futures) {
+                assertThat(future.get(60, TimeUnit.SECONDS).size(), is(3));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        assertThat(loads.getCount(), is(loadCount + 1));
+    }
+
+    @Test
+    public void testDeleteNode() {
+        service.getTreeSummary(root.getUuid());
+        service.deleteNode(node_1.getUuid());
+        assertThat(service.getTreeSummary(root.getUuid()).getNodeCount(), is(1L));
+        assertThat(service.getPreordered(root.getUuid()).size(), is(1));
+    }
+
+    @Test
+    public void testMaxNodes() {
+        cache.setMaxNodes(2);
+        cache.setEnabled(true);
+        assertThat(service.getTreeSummary(root.getUuid()).getNodeCount(), is(3L));
+        assertThat(cache.getSize(), is(0));
+        assertThat(service.getPreordered(root.getUuid()).size(), is(3));
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * 
+ */
+package proventis.tree.service;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import neo4j.tree.domain.Neo4jNode;
+import neo4j.tree.domain.SubtreeAggregates;
+import neo4j.tree.service.TreeService;
+import neo4j.tree.service.impl.GroupCommitTreeWriteService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import proventis.tree.AbstractIntegrationTest;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Group commit writes in transactions of its own, so these tests commit and remove their tree
+ * afterwards.
+ * 
+ * @author Markus Lamm
+ */
+public class TreeWriteServiceIntegrationTest extends AbstractIntegrationTest
+{
+    private static final int WRITES = 20;
+
+    @Inject
+    private TreeService service;
+
+    @Inject
+    private GroupCommitTreeWriteService writeService;
+
+    private Neo4jNode root;
+
+    @Before
+    public void setUp() {
+        root = service.createTree("root");
+    }
+
+    @After
+    public void tearDown() {
+        writeService.stop();
+        service.deleteNode(root.getUuid());
+    }
+
+    @Test
+    public void testAddNode_Disabled() throws Exception {
+        final long batches = writeService.getBatchCount();
+        final ListenableFuture<String> future = writeService.addNode("node_1", root.getUuid());
+        assertThat(future.isDone(), is(true));
+        assertThat(service.findByUuid(future.get()).getName(), is("node_1"));
+        assertThat(writeService.getBatchCount(), is(batches + 1));
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        writeService.start();
+        final long batches = writeService.getBatchCount();
+        final List<ListenableFuture<String>> futures = Lists.newArrayList();
+        for (int i = 0; i < WRITES; i++) {
+            futures.add(writeService.addNode("node_" + i, root.getUuid()));
+        }
+        final List<String> uuids = Lists.newArrayList();
+        for (final ListenableFuture<String> future : futures) {
+            uuids.add(future.get(10, TimeUnit.SECONDS));
+        }
+        assertThat(writeService.getBatchCount() - batches, is(lessThan((long) WRITES)));
+        assertThat(service.getTreeSummary(root.getUuid()).getNodeCount(), is(WRITES + 1L));
+        final SubtreeAggregates aggregates = service.getAggregates(root.getUuid());
+        assertThat(aggregates.getDescendantCount(), is((long) WRITES));
+        assertThat(aggregates.getLeafCount(), is((long) WRITES));
+        assertThat(aggregates.getHeight(), is(1));
+        final String renamed = writeService.renameNode(uuids.get(0), "renamed").get(10, TimeUnit.SECONDS);
+        assertThat(service.findByUuid(renamed).getName(), is("renamed"));
+    }
+
+    /**
+     * Every write submitted while the writer stops is either committed or failed
+     */
+    @Test
+    public void testGroupCommit_Stop() throws Exception {
+        writeService.start();
+        final List<ListenableFuture<String>> futures = Lists.newArrayList();
+        final Thread submitter = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < WRITES; i++) {
+                    futures.add(writeService.addNode("node_" + i, root.getUuid()));
+                }
+            }
+        };
+        submitter.start();
+        writeService.stop();
+        submitter.join(TimeUnit.SECONDS.toMillis(10));
+        for (final ListenableFuture<String> future : futures) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            catch (final ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+            }
+        }
+        assertThat(futures.size(), is(WRITES));
+    }
+
+    /**
+     * The write below an unknown parent fails on validation and does not split its batch
+     */
+    @Test
+    public void testGroupCommit_FailedWrite() throws Exception {
+        writeService.start();
+        final long batches = writeService.getBatchCount();
+        final ListenableFuture<String> before = writeService.addNode("node_1", root.getUuid());
+        final ListenableFuture<String> failed = writeService.addNode("node_2", "67h4c7n9z43432049");
+        final ListenableFuture<String> after = writeService.addNode("node_3", root.getUuid());
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            fail("write below an unknown parent must fail");
+        }
+        catch (final ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IllegalArgumentException.class));
+        }
+        assertThat(service.findByUuid(before.get(10, TimeUnit.SECONDS)).getName(), is("node_1"));
+        assertThat(service.findByUuid(after.get(10, TimeUnit.SECONDS)).getName(), is("node_3"));
+        assertThat(service.getTreeSummary(root.getUuid()).getNodeCount(), is(3L));
+        assertThat(writeService.getBatchCount() - batches, is(lessThan(3L)));
+    }
+}